@@ -38,7 +38,9 @@ package org.bridgedb.cytoscape.internal;
 import org.bridgedb.cytoscape.internal.util.DataSourceWrapper;
 
 import org.cytoscape.model.CyNetwork;
+import org.cytoscape.work.Task;
 
+import java.util.List;
 import java.util.Set;
 import java.util.Map;
 
@@ -49,22 +51,68 @@ import java.util.Map;
 public interface AttributeBasedIDMapping {
 
     /**
-     * For each node in a network, given its attribute and the corresponding
+     * For each node in the networks, given its attribute and the corresponding
      * source id types, create new attributes of the destination type.
      *
-     * @param network
+     * @param networks
+     *      networks to map; the xrefs shared by several networks are only
+     *      mapped once
      * @param mapSrcAttrIDTypes
      *      key: source attribute
      *      value: corresponding ID types
      * @param MapTgtAttrNameIDType
      *      key: attribute name
      *      value: target ID type
+     * @param srcXrefsPerBatch
+     *      number of source xrefs sent to the resources at a time; -1 for all
+     *      in one batch; 0 for the size the selected resources are tuned to
+     * @param concurrentBatches
+     *      maximum number of batches mapped at the same time
+     * @param incremental
+     *      if true, keep the target columns and only map the nodes whose
+     *      target values are missing or whose sources changed since they
+     *      were last mapped
+     * @param differential
+     *      if true, keep the target columns of the same type, only write the
+     *      values that changed and clear the values of the nodes that no
+     *      longer map; implied by incremental
+     * @param shared
+     *      if true, map all nodes of the collections the networks belong to
+     *      once, and write the target columns to the shared node table of
+     *      each collection instead of the table of each network
+     * @param resume
+     *      if true, resume the last cancelled or crashed mapping of the
+     *      same networks with the same settings: the nodes it wrote are
+     *      skipped if unchanged and the xrefs it resolved are not mapped
+     *      again; implies differential
+     * @param deadlineMillis
+     *      time after which the IDs mapped so far are written, the other
+     *      nodes are marked as pending and mapped by the task returned by
+     *      {@link #getBackgroundTask()}; 0 for no deadline
+     * @throws IllegalStateException if another mapping in progress, maybe in
+     *      the background, writes some of the target columns
      */
-    public void map(CyNetwork network, Map<String,Set<DataSourceWrapper>> mapSrcAttrIDTypes,
+    public void map(List<CyNetwork> networks, Map<String,Set<DataSourceWrapper>> mapSrcAttrIDTypes,
             Map<String, DataSourceWrapper> mapTgtAttrNameIDType, Map<String,Class<?>> attrNameType,
-            int srcXrefsPerBatch);
+            int srcXrefsPerBatch, int concurrentBatches, boolean incremental, boolean differential,
+            boolean shared, boolean resume, long deadlineMillis);
     
-    public void interrupt();
+    /**
+     * Cancel the mapping. Requests in flight to the resources are
+     * interrupted.
+     * @param commitPartial
+     *      if true, write the identifiers mapped so far; otherwise only the
+     *      nodes already written are kept
+     */
+    public void interrupt(boolean commitPartial);
     
     public String getReport();
+
+    /**
+     *
+     * @return the task mapping the rest of the nodes once the deadline of
+     * the last mapping passed, which the caller must execute; null if the
+     * mapping finished in time
+     */
+    public Task getBackgroundTask();
 }
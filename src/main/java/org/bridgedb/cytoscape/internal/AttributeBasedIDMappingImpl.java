@@ -17,29 +17,66 @@ package org.bridgedb.cytoscape.internal;
  * limitations under the License.
  ******************************************************************************/
 
+import org.bridgedb.cytoscape.internal.util.AdaptiveBatchController;
+import org.bridgedb.cytoscape.internal.util.BridgeDbExecutors;
 import org.bridgedb.cytoscape.internal.util.DataSourceWrapper;
 import org.bridgedb.cytoscape.internal.util.IDMapperWrapper;
+import org.bridgedb.cytoscape.internal.util.MappingCheckpoint;
+import org.bridgedb.cytoscape.internal.util.SortedListInterner;
+import org.bridgedb.cytoscape.internal.util.XrefTable;
 import org.bridgedb.cytoscape.internal.util.XrefWrapper;
 
 import org.cytoscape.model.CyColumn;
 import org.cytoscape.model.CyNetwork;
 import org.cytoscape.model.CyNode;
 import org.cytoscape.model.CyRow;
+import org.cytoscape.work.AbstractTask;
+import org.cytoscape.work.ObservableTask;
+import org.cytoscape.work.Task;
 import org.cytoscape.work.TaskMonitor;
 import org.cytoscape.model.CyTable;
+import org.cytoscape.model.subnetwork.CyRootNetwork;
+import org.cytoscape.model.subnetwork.CySubNetwork;
 
+import java.io.File;
 import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class AttributeBasedIDMappingImpl implements AttributeBasedIDMapping{
+    // how long the fetchers are given to hand over their partial results
+    private static final long PARTIAL_COMMIT_WAIT_MILLIS = 2000;
+    // nodes whose targets are being mapped in the background
+    static final String PENDING_COLUMN = "BridgeDb mapping pending";
+
+    // columns written by the runs in progress, including the ones in the
+    // background, by table
+    private static final Map<CyTable, Set<String>> columnsInUse = new HashMap<CyTable, Set<String>>();
+
     protected TaskMonitor taskMonitor;
-    protected boolean interrupted;
+    protected volatile boolean interrupted;
+    protected volatile boolean commitPartial = true;
     protected Map<String,Class<?>> attrNameType = null;
     protected IDMapperClientManager idMapperClientManager;
     protected IDMapperWrapper idMapperWrapper;
     protected String report;
+    protected volatile int skippedNodes = 0;
+    // batches not mapped completely since a resource or the fetcher failed
+    protected final AtomicInteger failedBatches = new AtomicInteger();
+    // the tables whose columns this run claimed, and the columns
+    private final List<CyTable> claimedTables = new ArrayList<CyTable>();
+    private final Set<String> claimedColumns = new HashSet<String>();
+    private Task backgroundTask = null;
 
     public AttributeBasedIDMappingImpl(TaskMonitor taskMonitor, IDMapperClientManager idMapperClientManager) {
         this.taskMonitor = taskMonitor;
+        this.idMapperClientManager = idMapperClientManager;
         idMapperWrapper = new IDMapperWrapper(idMapperClientManager);
     }
 
@@ -49,9 +86,11 @@ public class AttributeBasedIDMappingImpl implements AttributeBasedIDMapping{
     }
 
     @Override
-    public void interrupt() {
+    public void interrupt(boolean commitPartial) {
+        this.commitPartial = commitPartial;
         interrupted = true;
-        taskMonitor.showMessage(TaskMonitor.Level.ERROR, "ID mapping cancelled. Not all IDs were mapped.");
+        taskMonitor.showMessage(TaskMonitor.Level.ERROR, "ID mapping cancelled. Not all IDs were mapped."
+                + (commitPartial ? " The IDs mapped so far will be written." : ""));
      }
 
     @Override
@@ -59,23 +98,75 @@ public class AttributeBasedIDMappingImpl implements AttributeBasedIDMapping{
         return report;
     }
 
+    @Override
+    public Task getBackgroundTask() {
+        return backgroundTask;
+    }
+
+    /**
+     * Claim the columns of a table for this run.
+     * @return false if another run in progress writes some of them
+     */
+    private boolean claimColumns(CyTable table) {
+        synchronized (columnsInUse) {
+            Set<String> inUse = columnsInUse.get(table);
+            if (inUse==null) {
+                inUse = new HashSet<String>();
+                columnsInUse.put(table, inUse);
+            } else if (!Collections.disjoint(inUse, claimedColumns)) {
+                return false;
+            }
+            inUse.addAll(claimedColumns);
+            claimedTables.add(table);
+            return true;
+        }
+    }
+
+    private void releaseColumns() {
+        synchronized (columnsInUse) {
+            for (CyTable table : claimedTables) {
+                Set<String> inUse = columnsInUse.get(table);
+                inUse.removeAll(claimedColumns);
+                if (inUse.isEmpty()) {
+                    columnsInUse.remove(table);
+                }
+            }
+            claimedTables.clear();
+        }
+    }
+
     /**
      * Define target attributes.
      * Call this method first before mapping if necessary.
+     * @param cyTable node table to define the target columns in
      * @param attrNameType
+     * @param keepExisting keep the existing columns of the same type
+     * @param localTables tables sharing the columns of cyTable, whose own
+     * columns of the same names are deleted when a column is created
      */
-    private void defineTgtAttrs(CyNetwork network, Map<String,Class<?>> attrNameType) {
+    private void defineTgtAttrs(CyTable cyTable, Map<String,Class<?>> attrNameType,
+            boolean keepExisting, List<CyTable> localTables) {
         this.attrNameType = attrNameType;
-        
-        CyTable cyTable = network.getDefaultNodeTable();
 
         for (Map.Entry<String,Class<?>> entry : attrNameType.entrySet()) {
             String attrname = entry.getKey();
             Class<?> attrtype = entry.getValue();
             
-            if (null != cyTable.getColumn(attrname)) {
+            CyColumn column = cyTable.getColumn(attrname);
+            if (null != column) {
+                if (keepExisting && column.getType()==attrtype
+                        && (attrtype!=List.class || column.getListElementType()==String.class)) {
+                    continue;
+                }
                 cyTable.deleteColumn(attrname);
             }
+
+            // a shared column cannot be added next to local ones
+            for (CyTable localTable : localTables) {
+                if (localTable.getColumn(attrname)!=null) {
+                    localTable.deleteColumn(attrname);
+                }
+            }
             
             // if not exist
             if (attrtype == List.class) {
@@ -88,154 +179,1091 @@ public class AttributeBasedIDMappingImpl implements AttributeBasedIDMapping{
 
     /**
      * {@inheritDoc}
+     *
+     * Source xrefs are read from the node table, mapped and written to the
+     * target columns as a pipeline: while a batch is being fetched from the
+     * resources, the nodes of the batches already fetched are written.
+     * In incremental mode, what each node was mapped from is recorded in
+     * the hidden node table, so that a later incremental mapping can skip
+     * the unchanged nodes.
+     * Values equal to the current ones are not written again.
+     *
+     * The nodes of all networks go through the same pipeline, so that an
+     * xref shared by several networks is only mapped once. In shared mode,
+     * the nodes of each collection are mapped once and the target columns
+     * are written to its shared node table, provided that the source
+     * columns are shared too.
+     *
+     * Each written batch is checkpointed under the app configuration
+     * directory, so that a cancelled or crashed mapping, or one whose
+     * resources failed for some batches, can be resumed.
      */
-    public void map(CyNetwork network, Map<String,Set<DataSourceWrapper>> mapSrcAttrIDTypes,
+    public void map(List<CyNetwork> networks, Map<String,Set<DataSourceWrapper>> mapSrcAttrIDTypes,
             Map<String, DataSourceWrapper> mapTgtAttrNameIDType, Map<String,Class<?>> attrNameType,
-            int srcXrefsPerBatch) {
+            int srcXrefsPerBatch, int concurrentBatches, boolean incremental, boolean differential,
+            boolean shared, boolean resume, long deadlineMillis) {
+        long startTime = System.currentTimeMillis();
+        backgroundTask = null;
 
-        // prepare source xrefs
-        List<CyNode> nodes = network.getNodeList();
-        CyTable table = network.getDefaultNodeTable();
-        
-        updateTaskMonitor("Preparing source cross references...", -1.0);
-        Map<CyNode,Set<XrefWrapper>> mapNodeSrcXrefs = prepareNodeSrcXrefs(table, nodes, mapSrcAttrIDTypes);
-        List<XrefWrapper> srcXrefs = srcXrefUnion(mapNodeSrcXrefs);
+        // the runs writing the same columns of a table go one at a time;
+        // runs with a deadline may write the pending marks too
+        claimedColumns.clear();
+        claimedColumns.addAll(attrNameType.keySet());
+        if (deadlineMillis>0) {
+            claimedColumns.add(PENDING_COLUMN);
+        }
+        boolean handedOver = false;
+        try {
+            handedOver = map(networks, mapSrcAttrIDTypes, mapTgtAttrNameIDType, attrNameType,
+                    srcXrefsPerBatch, concurrentBatches, incremental, differential, shared, resume,
+                    deadlineMillis, startTime);
+        } finally {
+            if (!handedOver) {
+                releaseColumns();
+            }
+        }
+    }
 
+    /**
+     * @return true if the rest of the run was handed over to the background
+     * task
+     */
+    private boolean map(List<CyNetwork> networks, Map<String,Set<DataSourceWrapper>> mapSrcAttrIDTypes,
+            Map<String, DataSourceWrapper> mapTgtAttrNameIDType, Map<String,Class<?>> attrNameType,
+            int srcXrefsPerBatch, int concurrentBatches, boolean incremental, boolean differential,
+            boolean shared, boolean resume, long deadlineMillis, long startTime) {
         // target id types
         Set<DataSourceWrapper> tgtTypes = new HashSet(mapTgtAttrNameIDType.values());
 
+        NetworkNodes nodes = new NetworkNodes();
+        Set<CyRootNetwork> collections = new HashSet<CyRootNetwork>();
+        for (CyNetwork network : networks) {
+            CyTable table = network.getDefaultNodeTable();
+            List<CyTable> localTables = Collections.emptyList();
+            if (shared && network instanceof CySubNetwork) {
+                CyRootNetwork root = ((CySubNetwork)network).getRootNetwork();
+                CyTable sharedTable = root.getSharedNodeTable();
+                if (hasColumns(sharedTable, mapSrcAttrIDTypes.keySet())) {
+                    if (!collections.add(root)) {
+                        // mapped with another network of the collection
+                        continue;
+                    }
+                    network = root;
+                    table = sharedTable;
+                    localTables = new ArrayList<CyTable>();
+                    for (CySubNetwork subNetwork : root.getSubNetworkList()) {
+                        localTables.add(subNetwork.getDefaultNodeTable());
+                    }
+                } else if (taskMonitor!=null) {
+                    taskMonitor.showMessage(TaskMonitor.Level.WARN, "The source columns of network "
+                            +network+" are not shared in its collection; its own node table was used.");
+                }
+            }
+
+            if (!hasColumns(table, mapSrcAttrIDTypes.keySet())) {
+                if (taskMonitor!=null) {
+                    taskMonitor.showMessage(TaskMonitor.Level.WARN, "Network "+network
+                            +" was skipped since it does not have all the source columns.");
+                }
+                continue;
+            }
+
+            if (!claimColumns(table)) {
+                throw new IllegalStateException("The target columns of network "+network
+                        +" are being written by another mapping, which may still run in the"
+                        +" background. Please wait for it to finish or cancel it.");
+            }
+
+            // define target attributes
+            defineTgtAttrs(table, attrNameType, incremental || differential || resume, localTables);
+            MappingDigests digests = new MappingDigests(network, mapSrcAttrIDTypes,
+                    mapTgtAttrNameIDType, attrNameType, idMapperClientManager.selectedClients());
+            if (incremental) {
+                digests.defineColumns();
+            }
+            nodes.add(network, table, digests);
+        }
+
         // id mapping
         String msg = attributesSelected(mapSrcAttrIDTypes) ? 
                 "This may take minutes or longer to finish since attributes were selected as source type. Mapping IDs...\n"
                 : "Mapping IDs... ";
-        
-        Map<XrefWrapper, Set<XrefWrapper>> mapping;
-        
-        if (srcXrefsPerBatch==-1) {
-            mapping = idMapperWrapper.mapID(srcXrefs, tgtTypes);
-        } else {
-            mapping = new HashMap<XrefWrapper, Set<XrefWrapper>>();
-            int batches = (int)Math.ceil(1.0*srcXrefs.size()/srcXrefsPerBatch);
-            for (int batch=0; batch<batches; batch++) {
-                int start = batch*srcXrefsPerBatch;
-                int end = batch==batches-1 ? srcXrefs.size() : (batch+1)*srcXrefsPerBatch;
-                updateTaskMonitor(msg + (start+1) + "/" +srcXrefs.size() + " source identifiers", 1.0*(start+1)/srcXrefs.size());
-                mapping.putAll(idMapperWrapper.mapID(srcXrefs.subList(start, end), tgtTypes));
-                if (interrupted) {
-                    break;
-                }
+        updateTaskMonitor(msg, 0.0);
+
+        // resources that cannot be queried concurrently are throttled by
+        // their own controllers, whatever the number of fetchers
+        int fetchers = Math.max(1, concurrentBatches);
+        // checkpoint of the job, and what the resumed job resolved
+        File checkpointDir = idMapperClientManager.getCheckpointDirectory();
+        MappingCheckpoint checkpoint = checkpointDir==null ? null
+                : MappingCheckpoint.open(checkpointDir, nodes.getJobKey(), resume);
+        // the nodes the resumed job wrote are written again from what it
+        // resolved, without querying the resources
+        if (checkpoint!=null && resume) {
+            idMapperWrapper.setResumedMapping(checkpoint.getResolved());
+            updateTaskMonitor("Resuming from node "+checkpoint.getResumePosition()+" with "
+                    +checkpoint.getResolved().size()+" identifiers already mapped.", 0.0);
+        }
+
+        final BulkTableWriter writer = new BulkTableWriter();
+        final SortedListInterner tgtIdLists = new SortedListInterner();
+        final Pipeline pipeline;
+        boolean inBackground = false;
+        boolean completed = false;
+        try {
+            pipeline = mapAndWrite(nodes, mapSrcAttrIDTypes, tgtTypes,
+                    getMapIDTypeAttrName(mapTgtAttrNameIDType), incremental,
+                    incremental || differential || resume, srcXrefsPerBatch,
+                    fetchers, tgtIdLists, writer, checkpoint,
+                    deadlineMillis>0 ? startTime+deadlineMillis : 0, msg);
+            inBackground = !pipeline.isFinished();
+            // keep the checkpoint of a run with failed batches to retry them
+            completed = !interrupted && failedBatches.get()==0;
+        } finally {
+            if (!inBackground) {
+                endRun(checkpoint, completed);
             }
         }
 
-        // define target attributes
-        defineTgtAttrs(network, attrNameType);
-        
-        // set target attribute
-        updateTaskMonitor("Set target column...", -1.0);
-        Map<CyNode,Set<XrefWrapper>> mapNodeTgtXrefs = getNodeTgtXrefs(mapNodeSrcXrefs, mapping);
-        setTgtAttribute(table, mapNodeTgtXrefs, mapTgtAttrNameIDType);
+        if (inBackground) {
+            // write what was mapped so far, and leave the rest to a task of its own
+            int pendingFrom = pipeline.batchWriter.writtenEnd;
+            int pendingNodes = pipeline.markPending();
+            backgroundTask = new BackgroundMappingTask(pipeline, pendingFrom, checkpoint,
+                    writer, tgtIdLists, nodes.size());
+
+            report = "Deadline of "+deadlineMillis+" ms reached. Identifiers mapped for "
+                    +pipeline.getMappedNodes()+" nodes so far; "+pendingNodes
+                    +" nodes are marked in column \""+PENDING_COLUMN
+                    +"\" until they are mapped in the background.";
+            updateTaskMonitor(report, 1.0);
+            return true;
+        }
 
-        if (mapNodeTgtXrefs.isEmpty() && !nodes.isEmpty()) {
+        int mappedNodes = pipeline.getMappedNodes();
+        String writeReport = "Node table: "+writer.getReport()+"; target IDs: "+tgtIdLists;
+        if (taskMonitor!=null) {
+            taskMonitor.showMessage(TaskMonitor.Level.INFO, writeReport);
+        }
+
+        String resourceReport = idMapperWrapper.getResourceTimingReport();
+        if (resourceReport.length()>0 && taskMonitor!=null) {
+            taskMonitor.showMessage(TaskMonitor.Level.INFO, "Time spent in each ID mapping resource:\n"+resourceReport);
+        }
+        if (taskMonitor!=null) {
+            taskMonitor.showMessage(TaskMonitor.Level.INFO, "Threads: "+BridgeDbExecutors.getMetrics());
+        }
+
+        if (incremental && skippedNodes>0) {
+            updateTaskMonitor(skippedNodes+" nodes were skipped since they were mapped"
+                    + " from the same sources before.", 1.0);
+        }
+
+        if (interrupted) {
+            report = "ID mapping cancelled. Identifiers mapped for "+mappedNodes+" nodes (out of "
+                    +nodes.size()+")"+(commitPartial ? " were written." : " before the cancellation were written.");
+            updateTaskMonitor(report, 1.0, true);
+        } else if (mappedNodes==0 && skippedNodes==0 && nodes.size()>0 && failedBatches.get()==0) {
             report = "No IDs were mapped. Please make sure you seleceted the corrected ID mapping resources and source ID types.";
             updateTaskMonitor(report, 1.0, true);
         } else {
-            report = "Identifiers mapped for "+mapNodeTgtXrefs.size()+" nodes (out of "+nodes.size()+").";
-            updateTaskMonitor(report,1.0);
+            report = "Identifiers mapped for "+mappedNodes+" nodes (out of "+nodes.size()+")"
+                    + (nodes.networkCount()>1 ? " in "+nodes.networkCount()+" networks." : ".");
+            if (incremental) {
+                report += " "+skippedNodes+" unchanged nodes were skipped.";
+            }
+            report += getFailureReport();
+            updateTaskMonitor(report, 1.0, failedBatches.get()>0);
         }
+
+        report += "\n\n"+writeReport;
+        if (resourceReport.length()>0) {
+            report += "\n\n"+resourceReport;
+        }
+        return false;
     }
-    
-    private boolean attributesSelected(Map<String,Set<DataSourceWrapper>> mapSrcAttrIDTypes) {
-        for (Set<DataSourceWrapper> dsws : mapSrcAttrIDTypes.values()) {
-            for (DataSourceWrapper dsw : dsws) {
-                if (dsw.getDsAttr() == DataSourceWrapper.DsAttr.ATTRIBUTE) {
-                    return true;
+
+    /**
+     * Writes the rest of a run once its deadline passed, as a task of its
+     * own that can be cancelled. The columns of the run stay claimed until
+     * it ends.
+     */
+    private class BackgroundMappingTask extends AbstractTask implements ObservableTask {
+        private final Pipeline pipeline;
+        private final int pendingFrom;
+        private final MappingCheckpoint checkpoint;
+        private final BulkTableWriter writer;
+        private final SortedListInterner tgtIdLists;
+        private final int nodeCount;
+
+        BackgroundMappingTask(Pipeline pipeline, int pendingFrom, MappingCheckpoint checkpoint,
+                BulkTableWriter writer, SortedListInterner tgtIdLists, int nodeCount) {
+            this.pipeline = pipeline;
+            this.pendingFrom = pendingFrom;
+            this.checkpoint = checkpoint;
+            this.writer = writer;
+            this.tgtIdLists = tgtIdLists;
+            this.nodeCount = nodeCount;
+        }
+
+        public void run(TaskMonitor taskMonitor) {
+            setTaskMonitor(taskMonitor);
+            taskMonitor.setTitle("Mapping identifiers in the background");
+            boolean completed = false;
+            try {
+                pipeline.write(0);
+                pipeline.finish();
+                completed = !interrupted && failedBatches.get()==0;
+                report = (interrupted ? "Background mapping cancelled." : "Background mapping completed.")
+                        +" Identifiers mapped for "+pipeline.getMappedNodes()+" nodes (out of "
+                        +nodeCount+")."+(interrupted ? "" : getFailureReport())+"\n\n"
+                        +"Node table: "+writer.getReport()+"; target IDs: "+tgtIdLists;
+                updateTaskMonitor(report, 1.0, interrupted || failedBatches.get()>0);
+            } finally {
+                try {
+                    pipeline.clearPending(pendingFrom);
+                    endRun(checkpoint, completed);
+                } finally {
+                    releaseColumns();
                 }
             }
         }
-        return false;
+
+        @Override
+        public void cancel() {
+            interrupt(commitPartial);
+        }
+
+        public String getResults(Class type) {
+            return report;
+        }
     }
 
-    private Map<CyNode,Set<XrefWrapper>> prepareNodeSrcXrefs(CyTable nodeTable,
-            Collection<CyNode> nodes, Map<String,Set<DataSourceWrapper>> mapSrcAttrIDTypes) {
-        Map<CyNode,Set<XrefWrapper>> ret = new HashMap();
+    /**
+     *
+     * @return what the failed batches of the run left undone; empty if none
+     * failed
+     */
+    private String getFailureReport() {
+        int failed = failedBatches.get();
+        if (failed==0) {
+            return "";
+        }
+        return " "+failed+" batches could not be mapped completely since an ID mapping"
+                + " resource failed; their nodes without answers were left as they were."
+                + " Please run the mapping again to retry them.";
+    }
 
-//        int nNode = nodes.size();
-//        int i=0;
-        for (CyNode node : nodes) {
-//            if (interrupted) return null;
-//            updateTaskMonitor("Preparing cross reference for nodes...\n"+i+"/"+nNode,(i+1)*100/nNode);
-//            i++;
+    /**
+     * Release the resources of a run and keep its checkpoint unless it
+     * completed.
+     */
+    private void endRun(MappingCheckpoint checkpoint, boolean completed) {
+        idMapperWrapper.shutdown();
+        if (checkpoint!=null) {
+            if (completed) {
+                checkpoint.delete();
+            } else {
+                checkpoint.close();
+            }
+        }
+    }
 
-            Set<XrefWrapper> xrefs = new HashSet();
-            ret.put(node, xrefs);
-            
-            CyRow cyRow = nodeTable.getRow(node.getSUID());
-
-            for (Map.Entry<String,Set<DataSourceWrapper>> entryAttrIDTypes : mapSrcAttrIDTypes.entrySet()) {
-                String attrName = entryAttrIDTypes.getKey();
-                Set<DataSourceWrapper> dss = entryAttrIDTypes.getValue();
-
-                CyColumn cyColumn = nodeTable.getColumn(attrName);
-                if (cyColumn.getType() == List.class) {
-                    List attr = cyRow.get(cyColumn.getName(), List.class);
-                    if (attr!=null) {
-                        for (Object obj : attr) {
-                            String str = obj.toString();
-                            for (DataSourceWrapper ds : dss) {
-                                xrefs.add(new XrefWrapper(str, ds));
+    /**
+     * Run the three stages of the mapping: the source xrefs of the nodes are
+     * read into batches by a scanner, the batches are mapped by up to
+     * fetchers threads, and the mapped batches are written to the node table
+     * in order by the calling thread. At most 2*fetchers+1 batches are read
+     * but not yet written at any time. Xrefs are interned in an XrefTable and
+     * referred to by handle between the stages, and nodes with the same
+     * source xrefs in a batch share one group, resolved once. Groups with
+     * the same target IDs share one list of them, from tgtIdLists.
+     *
+     * In incremental mode, nodes whose target columns are up to date are
+     * skipped, and what the written nodes were mapped from is recorded. If
+     * clearUnmapped, the target values of the nodes without source xrefs or
+     * without targets found are cleared.
+     *
+     * The target values are written through the writer, flushed once per
+     * batch; the table listeners are notified of each flush.
+     *
+     * When interrupted, the scanner and the fetchers are interrupted, which
+     * cancels their requests to the resources. If commitPartial, the
+     * batches fetched by then, and the xrefs the interrupted fetchers got
+     * answers for, are written; nodes with a source xref left unanswered
+     * are left as they are.
+     *
+     * If the deadline passes before all batches are written, the returned
+     * pipeline is still running and is to be handed over to a background
+     * task.
+     *
+     * @param srcXrefsPerBatch number of source xrefs of each batch; -1 for
+     * all in one batch; 0 for the size the selected resources are tuned to
+     * when the batch is started
+     * @param deadline time to stop writing at; 0 for none
+     * @return the pipeline
+     */
+    private Pipeline mapAndWrite(final NetworkNodes nodes,
+            final Map<String,Set<DataSourceWrapper>> mapSrcAttrIDTypes,
+            final Set<DataSourceWrapper> tgtTypes, Map<DataSourceWrapper, Set<String>> mapIDTypeAttrName,
+            final boolean incremental, final boolean clearUnmapped,
+            final int srcXrefsPerBatch, int fetchers, SortedListInterner tgtIdLists,
+            BulkTableWriter writer, MappingCheckpoint checkpoint, long deadline, String msg) {
+        skippedNodes = 0;
+        failedBatches.set(0);
+        final AtomicInteger fetching = new AtomicInteger();
+        final int maxPendingBatches = 2*fetchers+1;
+        final Semaphore pendingBatches = new Semaphore(maxPendingBatches);
+        final BlockingQueue<Batch> fetchedBatches = new LinkedBlockingQueue<Batch>(maxPendingBatches+1);
+        final XrefTable xrefTable = new XrefTable();
+        final RuntimeException[] scanError = new RuntimeException[1];
+        final ExecutorService executor = BridgeDbExecutors.newJobPool("mapping job", fetchers+1);
+
+        // scanner: read source xrefs node by node and send them to the resources in batches
+        executor.execute(new Runnable() {
+            public void run() {
+                int nBatches = 0;
+                try {
+                    Batch batch = new Batch(nBatches);
+                    int batchSize = getBatchSize(srcXrefsPerBatch);
+                    for (int position=0; position<nodes.size(); position++) {
+                        if (interrupted) {
+                            break;
+                        }
+
+                        CyNode node = nodes.getNode(position);
+                        CyTable table = nodes.getTable(position);
+                        MappingDigests digests = nodes.getDigests(position);
+                        CyRow row = table.getRow(node.getSUID());
+                        long sourceDigest = digests.getSourceDigest(row);
+                        if (incremental && digests.isUpToDate(node, row, sourceDigest)) {
+                            skippedNodes++;
+                            continue;
+                        }
+
+                        int[] xrefs = getNodeSrcXrefs(table, row, mapSrcAttrIDTypes, xrefTable);
+                        if (xrefs.length==0 && !clearUnmapped) {
+                            continue;
+                        }
+
+                        // nodes without source xrefs are kept to clear the
+                        // targets of their former sources
+                        if (batch.addNode(position, xrefs, sourceDigest)) {
+                            // first node of the batch with these source xrefs
+                            for (int xref : xrefs) {
+                                if (xrefTable.retain(xref)) {
+                                    batch.srcXrefs.add(xrefTable.get(xref));
+                                }
                             }
                         }
+
+                        if (batchSize!=-1 && batch.srcXrefs.size()>=batchSize) {
+                            fetch(batch);
+                            batch = new Batch(++nBatches);
+                            // the controllers adapt to the batches answered so far
+                            batchSize = getBatchSize(srcXrefsPerBatch);
+                        }
                     }
-                } else {
-                    Object obj = cyRow.get(cyColumn.getName(), cyColumn.getType());
-                    if (obj!=null) {
-                        String str = obj.toString();
-                        if (str.length()>0) {
-                            for (DataSourceWrapper ds : dss) {
-                                xrefs.add(new XrefWrapper(str, ds));
+
+                    if (!batch.isEnd()) {
+                        fetch(batch);
+                        nBatches++;
+                    }
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                } catch (RuntimeException ex) {
+                    scanError[0] = ex;
+                } finally {
+                    fetchedBatches.offer(Batch.end(nBatches));
+                }
+            }
+
+            private void fetch(final Batch batch) throws InterruptedException {
+                batch.endScan();
+                pendingBatches.acquire();
+                fetching.incrementAndGet();
+                try {
+                    executor.execute(new Runnable() {
+                        public void run() {
+                            try {
+                                Map<XrefWrapper, Set<XrefWrapper>> mapping;
+                                AtomicBoolean failed = new AtomicBoolean();
+                                try {
+                                    mapping = batch.srcXrefs.isEmpty()
+                                            ? Collections.<XrefWrapper, Set<XrefWrapper>>emptyMap()
+                                            : idMapperWrapper.mapID(batch.srcXrefs, tgtTypes, failed);
+                                } catch (RuntimeException ex) {
+                                    ex.printStackTrace();
+                                    if (taskMonitor!=null) {
+                                        taskMonitor.showMessage(TaskMonitor.Level.WARN, "Batch "
+                                                +(batch.index+1)+" could not be mapped: "+ex);
+                                    }
+                                    mapping = Collections.emptyMap();
+                                    failed.set(true);
+                                }
+                                // a cancelled batch is not a failed one
+                                if (failed.get() && !interrupted
+                                        && !Thread.currentThread().isInterrupted()) {
+                                    failedBatches.incrementAndGet();
+                                }
+                                batch.reliable = !failed.get();
+                                // an interrupted or failed mapping only has
+                                // the xrefs the resources answered for
+                                batch.setMapping(mapping, xrefTable,
+                                        !failed.get() && !Thread.currentThread().isInterrupted());
+                                fetchedBatches.offer(batch);
+                            } finally {
+                                fetching.decrementAndGet();
                             }
                         }
+                    });
+                } catch (RejectedExecutionException ex) {
+                    // cancelled
+                    fetching.decrementAndGet();
+                    throw new InterruptedException();
+                }
+            }
+        });
+
+        // writer: resolve the fetched batches to nodes in order and set the target columns
+        BatchWriter batchWriter = new BatchWriter(nodes, xrefTable, mapIDTypeAttrName,
+                incremental, clearUnmapped, tgtIdLists, writer, checkpoint);
+        Pipeline pipeline = new Pipeline(nodes, executor, fetchedBatches, pendingBatches,
+                fetching, scanError, batchWriter, writer, msg);
+        boolean pastDeadline = false;
+        try {
+            pastDeadline = !pipeline.write(deadline);
+        } finally {
+            if (!pastDeadline) {
+                pipeline.finish();
+            }
+        }
+        return pipeline;
+    }
+
+    /**
+     * The writing stage of a mapping run, which can be handed over to a
+     * background task when the deadline of the run passes.
+     */
+    private class Pipeline {
+        private final NetworkNodes nodes;
+        private final ExecutorService executor;
+        private final BlockingQueue<Batch> fetchedBatches;
+        private final Semaphore pendingBatches;
+        private final AtomicInteger fetching;
+        private final RuntimeException[] scanError;
+        private final BatchWriter batchWriter;
+        private final BulkTableWriter writer;
+        private final String msg;
+        private final Map<Integer, Batch> outOfOrderBatches = new HashMap<Integer, Batch>();
+        private int nextBatch = 0;
+        private int nBatches = -1;
+        private int nodesRead = 0;
+        private boolean finished = false;
+
+        Pipeline(NetworkNodes nodes, ExecutorService executor, BlockingQueue<Batch> fetchedBatches,
+                Semaphore pendingBatches, AtomicInteger fetching, RuntimeException[] scanError,
+                BatchWriter batchWriter, BulkTableWriter writer, String msg) {
+            this.nodes = nodes;
+            this.executor = executor;
+            this.fetchedBatches = fetchedBatches;
+            this.pendingBatches = pendingBatches;
+            this.fetching = fetching;
+            this.scanError = scanError;
+            this.batchWriter = batchWriter;
+            this.writer = writer;
+            this.msg = msg;
+        }
+
+        /**
+         * Write the fetched batches in order.
+         * @param deadline time to stop writing at; 0 for none
+         * @return false if the deadline passed before all batches were
+         * written, true otherwise, including when interrupted
+         */
+        boolean write(long deadline) {
+            try {
+                while (!interrupted && (nBatches==-1 || nextBatch<nBatches)) {
+                    long timeout = 200;
+                    if (deadline>0) {
+                        timeout = Math.min(timeout, deadline-System.currentTimeMillis());
+                        if (timeout<=0) {
+                            return false;
+                        }
+                    }
+
+                    Batch batch = fetchedBatches.poll(timeout, TimeUnit.MILLISECONDS);
+                    if (batch==null) {
+                        continue;
+                    }
+
+                    if (batch.isEnd()) {
+                        nBatches = batch.index;
+                        continue;
+                    }
+
+                    outOfOrderBatches.put(batch.index, batch);
+                    while ((batch=outOfOrderBatches.remove(nextBatch))!=null) {
+                        batchWriter.write(batch, true);
+                        pendingBatches.release();
+                        nodesRead += batch.nodeCount;
+                        nextBatch++;
+                        updateTaskMonitor(msg + nodesRead + "/" + nodes.size() + " nodes",
+                                1.0*nodesRead/nodes.size());
                     }
                 }
+            } catch (InterruptedException ex) {
+                interrupted = true;
+                Thread.currentThread().interrupt();
             }
+            return true;
         }
 
-        return ret;
+        /**
+         * Stop the scanner and the fetchers, write what they mapped if
+         * cancelled and commitPartial, and flush the writer.
+         */
+        void finish() {
+            finished = true;
+
+            // stop the scanner, and interrupt the fetchers and their requests
+            executor.shutdownNow();
+
+            try {
+                if (interrupted && commitPartial) {
+                    // the interrupted fetchers hand over what was mapped so far
+                    updateTaskMonitor("Writing the identifiers mapped before the cancellation...", 1.0);
+                    long deadline = System.currentTimeMillis()+PARTIAL_COMMIT_WAIT_MILLIS;
+                    while (fetching.get()>0 && System.currentTimeMillis()<deadline) {
+                        Batch batch = fetchedBatches.poll(50, TimeUnit.MILLISECONDS);
+                        if (batch!=null && !batch.isEnd()) {
+                            outOfOrderBatches.put(batch.index, batch);
+                        }
+                    }
+                    Batch batch;
+                    while ((batch=fetchedBatches.poll())!=null) {
+                        if (!batch.isEnd()) {
+                            outOfOrderBatches.put(batch.index, batch);
+                        }
+                    }
+
+                    for (Batch fetched : new TreeMap<Integer, Batch>(outOfOrderBatches).values()) {
+                        batchWriter.write(fetched, false);
+                    }
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } finally {
+                writer.finish();
+            }
+
+            if (scanError[0]!=null && !interrupted) {
+                throw scanError[0];
+            }
+        }
+
+        int getMappedNodes() {
+            return batchWriter.mappedNodes;
+        }
+
+        boolean isFinished() {
+            return finished;
+        }
+
+        /**
+         * Mark the nodes not written yet as pending, and have the batches
+         * written from now on clear their marks.
+         * @return number of nodes marked
+         */
+        int markPending() {
+            for (CyTable table : nodes.getTables()) {
+                if (table.getColumn(PENDING_COLUMN)==null) {
+                    table.createColumn(PENDING_COLUMN, Boolean.class, false);
+                }
+            }
+
+            int from = batchWriter.writtenEnd;
+            for (int position=from; position<nodes.size(); position++) {
+                CyNode node = nodes.getNode(position);
+                writer.setIfChanged(nodes.getTable(position).getRow(node.getSUID()),
+                        PENDING_COLUMN, Boolean.TRUE);
+            }
+            writer.flush();
+            batchWriter.clearPending = true;
+            return nodes.size()-from;
+        }
+
+        /**
+         * Clear the marks left on the nodes that were not written, such as
+         * the nodes skipped since they were up to date.
+         */
+        void clearPending(int from) {
+            for (int position=from; position<nodes.size(); position++) {
+                CyNode node = nodes.getNode(position);
+                writer.setIfChanged(nodes.getTable(position).getRow(node.getSUID()),
+                        PENDING_COLUMN, null);
+            }
+            writer.finish();
+        }
     }
 
-    private List<XrefWrapper> srcXrefUnion(Map<CyNode,Set<XrefWrapper>> mapNodeSrcXrefs) {
-        Set<XrefWrapper> ret = new HashSet();
-        for (Set<XrefWrapper> xrefs : mapNodeSrcXrefs.values()) {
-            ret.addAll(xrefs);
+    /**
+     * Writes the target IDs of the nodes of the fetched batches. Nodes with
+     * a source xref not mapped yet, which only happens to the batches fetched
+     * when the mapping is cancelled, are left as they are.
+     */
+    private class BatchWriter {
+        private final NetworkNodes nodes;
+        private final XrefTable xrefTable;
+        private final Map<DataSourceWrapper, Set<String>> mapIDTypeAttrName;
+        // record what the nodes were mapped from
+        private final boolean incremental;
+        private final boolean clearUnmapped;
+        private final SortedListInterner tgtIdLists;
+        private final BulkTableWriter writer;
+        private final MappingCheckpoint checkpoint;
+        // target xrefs of each source xref, by handle; null if not mapped yet
+        private int[][] resolved = new int[1024][];
+        int mappedNodes = 0;
+        // position following the last node of the batches written in order
+        volatile int writtenEnd = 0;
+        // clear the pending marks of the nodes written
+        volatile boolean clearPending = false;
+
+        BatchWriter(NetworkNodes nodes, XrefTable xrefTable,
+                Map<DataSourceWrapper, Set<String>> mapIDTypeAttrName, boolean incremental,
+                boolean clearUnmapped, SortedListInterner tgtIdLists, BulkTableWriter writer,
+                MappingCheckpoint checkpoint) {
+            this.nodes = nodes;
+            this.xrefTable = xrefTable;
+            this.mapIDTypeAttrName = mapIDTypeAttrName;
+            this.incremental = incremental;
+            this.clearUnmapped = clearUnmapped;
+            this.tgtIdLists = tgtIdLists;
+            this.writer = writer;
+            this.checkpoint = checkpoint;
+        }
+
+        /**
+         *
+         * @param batch
+         * @param inOrder true if all batches before it were written
+         */
+        void write(Batch batch, boolean inOrder) {
+            for (int i=0; i<batch.mappedSrcXrefs.length; i++) {
+                int srcXref = batch.mappedSrcXrefs[i];
+                if (srcXref>=resolved.length) {
+                    resolved = Arrays.copyOf(resolved, Math.max(srcXref+1, resolved.length*2));
+                }
+                resolved[srcXref] = batch.mappedTgtXrefs[i];
+            }
+
+            // resolve the target IDs of each group of nodes once
+            Map[] groupTgtIds = new Map[batch.groupCount];
+            boolean[] groupResolved = new boolean[batch.groupCount];
+            for (int g=0; g<batch.groupCount; g++) {
+                int from = batch.groupOffsets[g];
+                int to = batch.groupOffsets[g+1];
+                groupResolved[g] = isResolved(batch.groupXrefs, from, to);
+                if (groupResolved[g]) {
+                    groupTgtIds[g] = getTgtIds(batch.groupXrefs, from, to, resolved,
+                            xrefTable, tgtIdLists);
+                }
+            }
+
+            for (int i=0; i<batch.nodeCount; i++) {
+                int group = batch.nodeGroups[i];
+                if (!groupResolved[group]) {
+                    continue;
+                }
+
+                Map<DataSourceWrapper, List<String>> tgtIds = groupTgtIds[group];
+                int position = batch.nodePositions[i];
+                CyNode node = nodes.getNode(position);
+                if (tgtIds!=null || clearUnmapped) {
+                    CyTable table = nodes.getTable(position);
+                    setTgtAttribute(table, table.getRow(node.getSUID()),
+                            tgtIds, mapIDTypeAttrName, writer);
+                }
+                if (tgtIds!=null) {
+                    mappedNodes++;
+                }
+                if (incremental) {
+                    nodes.getDigests(position).record(node, batch.nodeDigests[i], writer);
+                }
+                if (clearPending) {
+                    CyTable table = nodes.getTable(position);
+                    writer.setIfChanged(table.getRow(node.getSUID()), PENDING_COLUMN, null);
+                }
+            }
+            writer.flush();
+            if (inOrder && batch.nodeCount>0) {
+                writtenEnd = batch.nodePositions[batch.nodeCount-1]+1;
+            }
+
+            if (checkpoint!=null && batch.complete && batch.reliable) {
+                Map<XrefWrapper, Set<XrefWrapper>> mapping
+                        = new HashMap<XrefWrapper, Set<XrefWrapper>>(batch.mappedSrcXrefs.length*2);
+                for (int i=0; i<batch.mappedSrcXrefs.length; i++) {
+                    Set<XrefWrapper> tgtXrefs = new HashSet<XrefWrapper>();
+                    for (int tgtXref : batch.mappedTgtXrefs[i]) {
+                        tgtXrefs.add(xrefTable.get(tgtXref));
+                    }
+                    mapping.put(xrefTable.get(batch.mappedSrcXrefs[i]), tgtXrefs);
+                }
+                int endPosition = inOrder && batch.nodeCount>0
+                        ? batch.nodePositions[batch.nodeCount-1]+1 : -1;
+                checkpoint.append(endPosition, mapping);
+            }
+
+            // release the mapping of xrefs no other nodes are waiting for
+            for (int x=0; x<batch.groupOffsets[batch.groupCount]; x++) {
+                int srcXref = batch.groupXrefs[x];
+                if (xrefTable.release(srcXref) && srcXref<resolved.length) {
+                    resolved[srcXref] = null;
+                }
+            }
+        }
+
+        private boolean isResolved(int[] groupXrefs, int from, int to) {
+            for (int x=from; x<to; x++) {
+                int srcXref = groupXrefs[x];
+                if (srcXref>=resolved.length || resolved[srcXref]==null) {
+                    return false;
+                }
+            }
+            return true;
         }
-        return new ArrayList<XrefWrapper>(ret);
     }
 
-    private Map<CyNode,Set<XrefWrapper>> getNodeTgtXrefs (Map<CyNode,Set<XrefWrapper>> mapNodeSrcXrefs,
-                                                 Map<XrefWrapper, Set<XrefWrapper>> idMapping) {
-        Map<CyNode,Set<XrefWrapper>> mapNodeTgtXrefs = new HashMap();
+    /**
+     * The nodes of the networks to map, numbered by position across the
+     * networks. A network is either a network with its default node table
+     * or a collection with its shared node table.
+     */
+    private static class NetworkNodes {
+        private final List<CyNetwork> networks = new ArrayList<CyNetwork>();
+        private final List<List<CyNode>> nodeLists = new ArrayList<List<CyNode>>();
+        private final List<CyTable> tables = new ArrayList<CyTable>();
+        private final List<MappingDigests> digests = new ArrayList<MappingDigests>();
+        // position of the first node of each network
+        private int[] offsets = new int[] {0};
 
-        for (Map.Entry<CyNode,Set<XrefWrapper>> entryNodeXrefs : mapNodeSrcXrefs.entrySet()) {
-            CyNode node = entryNodeXrefs.getKey();
-            Set<XrefWrapper> tgtXrefs = new HashSet();
-            Set<XrefWrapper> srcXrefs = entryNodeXrefs.getValue();
-            //TODO: deal with ambiguity--same node, same attribute, different data source
-            for (XrefWrapper srcXref : srcXrefs) {
-                Set<XrefWrapper> xrefs = idMapping.get(srcXref);
-                if (xrefs!=null) {
-                    tgtXrefs.addAll(xrefs);
+        void add(CyNetwork network, CyTable table, MappingDigests networkDigests) {
+            List<CyNode> nodes = network.getNodeList();
+            networks.add(network);
+            nodeLists.add(nodes);
+            tables.add(table);
+            digests.add(networkDigests);
+            offsets = Arrays.copyOf(offsets, offsets.length+1);
+            offsets[offsets.length-1] = offsets[offsets.length-2]+nodes.size();
+        }
+
+        int size() {
+            return offsets[offsets.length-1];
+        }
+
+        int networkCount() {
+            return nodeLists.size();
+        }
+
+        Set<CyTable> getTables() {
+            return new LinkedHashSet<CyTable>(tables);
+        }
+
+        /**
+         *
+         * @return a key identifying the networks, the sources of their nodes
+         * and the mapping settings; unlike SUIDs, it is the same when the
+         * session is opened again
+         */
+        long getJobKey() {
+            long key = 17;
+            for (int i=0; i<networks.size(); i++) {
+                MappingDigests networkDigests = digests.get(i);
+                key = 31*key + getName(networks.get(i)).hashCode();
+                key = 31*key + nodeLists.get(i).size();
+                key = 31*key + networkDigests.getSettingsDigest();
+                // a job resumes by position, so the nodes must keep their order
+                CyTable table = tables.get(i);
+                for (CyNode node : nodeLists.get(i)) {
+                    key = 31*key + networkDigests.getSourceDigest(table.getRow(node.getSUID()));
                 }
             }
+            return key;
+        }
+
+        private static String getName(CyNetwork network) {
+            String name = network.getRow(network).get(CyNetwork.NAME, String.class);
+            return name==null ? "" : name;
+        }
+
+        CyNode getNode(int position) {
+            int network = getNetworkIndex(position);
+            return nodeLists.get(network).get(position-offsets[network]);
+        }
+
+        CyTable getTable(int position) {
+            return tables.get(getNetworkIndex(position));
+        }
 
-            if (!tgtXrefs.isEmpty())
-                mapNodeTgtXrefs.put(node, tgtXrefs);
+        MappingDigests getDigests(int position) {
+            return digests.get(getNetworkIndex(position));
         }
 
-        return mapNodeTgtXrefs;
+        private int getNetworkIndex(int position) {
+            // the last network starting at or before the position
+            int i = Arrays.binarySearch(offsets, 0, offsets.length-1, position);
+            if (i<0) {
+                return -i-2;
+            }
+            // skip empty networks starting at the same position
+            while (i+1<offsets.length-1 && offsets[i+1]==position) {
+                i++;
+            }
+            return i;
+        }
     }
 
-    private void setTgtAttribute(CyTable nodeTable, Map<CyNode,Set<XrefWrapper>> mapNodeTgtXrefs,
-                                 Map<String, DataSourceWrapper> mapTgtAttrNameIDType) {
+    /**
+     * Source xrefs of a batch of nodes, and their mapping once fetched.
+     * Nodes are stored by position in the node list, and point to groups of
+     * distinct source xref sets kept in compressed sparse rows: the handles
+     * of group g are groupXrefs[groupOffsets[g]..groupOffsets[g+1]).
+     */
+    private static class Batch {
+        private static final int[] NO_XREFS = new int[0];
+
+        final int index;
+        final List<XrefWrapper> srcXrefs = new ArrayList<XrefWrapper>();
+        int nodeCount = 0;
+        int[] nodePositions = NO_XREFS;
+        int[] nodeGroups = NO_XREFS;
+        long[] nodeDigests = new long[0];
+        int groupCount = 0;
+        int[] groupOffsets = new int[] {0};
+        int[] groupXrefs = NO_XREFS;
+        // group of each source xref set; only while the batch is scanned
+        private Map<IntArrayKey, Integer> groups = new HashMap<IntArrayKey, Integer>();
+        // mapped source xrefs and their targets, by handle
+        volatile int[] mappedSrcXrefs = NO_XREFS;
+        volatile int[][] mappedTgtXrefs = new int[0][];
+        // true if all source xrefs were looked up
+        volatile boolean complete = false;
+        // true if all resources answered, so that the mapping can be
+        // checkpointed
+        volatile boolean reliable = false;
+
+        Batch(int index) {
+            this.index = index;
+        }
+
+        /**
+         * @param nBatches number of batches
+         * @return a marker following the last batch
+         */
+        static Batch end(int nBatches) {
+            return new Batch(nBatches);
+        }
+
+        boolean isEnd() {
+            return nodeCount==0;
+        }
+
+        /**
+         *
+         * @param position position of the node in the node list
+         * @param xrefs handles of the source xrefs of the node
+         * @param sourceDigest digest of the source values of the node
+         * @return true if no other node of the batch has the same source xrefs
+         */
+        boolean addNode(int position, int[] xrefs, long sourceDigest) {
+            IntArrayKey key = new IntArrayKey(xrefs);
+            Integer group = groups.get(key);
+            boolean newGroup = group==null;
+            if (newGroup) {
+                group = groupCount;
+                groups.put(key, group);
+                int offset = groupOffsets[groupCount];
+                if (offset+xrefs.length>groupXrefs.length) {
+                    groupXrefs = Arrays.copyOf(groupXrefs, Math.max(offset+xrefs.length, groupXrefs.length*2));
+                }
+                System.arraycopy(xrefs, 0, groupXrefs, offset, xrefs.length);
+                if (groupCount+2>groupOffsets.length) {
+                    groupOffsets = Arrays.copyOf(groupOffsets, groupOffsets.length*2);
+                }
+                groupOffsets[++groupCount] = offset+xrefs.length;
+            }
+
+            if (nodeCount==nodePositions.length) {
+                nodePositions = Arrays.copyOf(nodePositions, Math.max(16, nodeCount*2));
+                nodeGroups = Arrays.copyOf(nodeGroups, nodePositions.length);
+                nodeDigests = Arrays.copyOf(nodeDigests, nodePositions.length);
+            }
+            nodePositions[nodeCount] = position;
+            nodeGroups[nodeCount] = group;
+            nodeDigests[nodeCount] = sourceDigest;
+            nodeCount++;
+            return newGroup;
+        }
+
+        /**
+         * Drop the index of the groups once all nodes of the batch are read.
+         */
+        void endScan() {
+            groups = null;
+        }
+
+        /**
+         *
+         * @param mapping
+         * @param xrefTable
+         * @param complete true if all source xrefs were looked up, so that
+         * the xrefs not in the mapping are known to have no targets
+         */
+        void setMapping(Map<XrefWrapper, Set<XrefWrapper>> mapping, XrefTable xrefTable,
+                boolean complete) {
+            int size = mapping.size() + (complete ? srcXrefs.size() : 0);
+            int[] srcs = new int[size];
+            int[][] tgts = new int[size][];
+            int i = 0;
+            for (Map.Entry<XrefWrapper, Set<XrefWrapper>> entry : mapping.entrySet()) {
+                srcs[i] = xrefTable.intern(entry.getKey());
+                int[] tgtXrefs = new int[entry.getValue().size()];
+                int j = 0;
+                for (XrefWrapper tgtXref : entry.getValue()) {
+                    tgtXrefs[j++] = xrefTable.intern(tgtXref);
+                }
+                tgts[i++] = tgtXrefs;
+            }
+            if (complete) {
+                for (XrefWrapper srcXref : srcXrefs) {
+                    if (!mapping.containsKey(srcXref)) {
+                        srcs[i] = xrefTable.intern(srcXref);
+                        tgts[i++] = NO_XREFS;
+                    }
+                }
+            }
+            if (i<size) {
+                srcs = Arrays.copyOf(srcs, i);
+                tgts = Arrays.copyOf(tgts, i);
+            }
+            mappedTgtXrefs = tgts;
+            mappedSrcXrefs = srcs;
+            this.complete = complete;
+        }
+    }
+
+    private static class IntArrayKey {
+        private final int[] values;
+        private final int hash;
+
+        IntArrayKey(int[] values) {
+            this.values = values;
+            this.hash = Arrays.hashCode(values);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof IntArrayKey && Arrays.equals(values, ((IntArrayKey)o).values);
+        }
+    }
+
+    private static boolean hasColumns(CyTable table, Set<String> attrNames) {
+        for (String attrName : attrNames) {
+            if (table.getColumn(attrName)==null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean attributesSelected(Map<String,Set<DataSourceWrapper>> mapSrcAttrIDTypes) {
+        for (Set<DataSourceWrapper> dsws : mapSrcAttrIDTypes.values()) {
+            for (DataSourceWrapper dsw : dsws) {
+                if (dsw.getDsAttr() == DataSourceWrapper.DsAttr.ATTRIBUTE) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     *
+     * @return the distinct handles of the source xrefs of the node, in
+     * ascending order
+     */
+    private int[] getNodeSrcXrefs(CyTable nodeTable, CyRow cyRow,
+            Map<String,Set<DataSourceWrapper>> mapSrcAttrIDTypes, XrefTable xrefTable) {
+        int[] xrefs = new int[4];
+        int n = 0;
+
+        for (Map.Entry<String,Set<DataSourceWrapper>> entryAttrIDTypes : mapSrcAttrIDTypes.entrySet()) {
+            String attrName = entryAttrIDTypes.getKey();
+            Set<DataSourceWrapper> dss = entryAttrIDTypes.getValue();
+
+            CyColumn cyColumn = nodeTable.getColumn(attrName);
+            if (cyColumn.getType() == List.class) {
+                List attr = cyRow.get(cyColumn.getName(), List.class);
+                if (attr!=null) {
+                    for (Object obj : attr) {
+                        String str = obj.toString();
+                        for (DataSourceWrapper ds : dss) {
+                            if (n==xrefs.length) {
+                                xrefs = Arrays.copyOf(xrefs, n*2);
+                            }
+                            xrefs[n++] = xrefTable.intern(str, ds);
+                        }
+                    }
+                }
+            } else {
+                Object obj = cyRow.get(cyColumn.getName(), cyColumn.getType());
+                if (obj!=null) {
+                    String str = obj.toString();
+                    if (str.length()>0) {
+                        for (DataSourceWrapper ds : dss) {
+                            if (n==xrefs.length) {
+                                xrefs = Arrays.copyOf(xrefs, n*2);
+                            }
+                            xrefs[n++] = xrefTable.intern(str, ds);
+                        }
+                    }
+                }
+            }
+        }
+
+        // remove duplicates
+        Arrays.sort(xrefs, 0, n);
+        int distinct = 0;
+        for (int i=0; i<n; i++) {
+            if (distinct==0 || xrefs[i]!=xrefs[distinct-1]) {
+                xrefs[distinct++] = xrefs[i];
+            }
+        }
+        return Arrays.copyOf(xrefs, distinct);
+    }
+
+    /**
+     *
+     * @return number of source xrefs of the next batch: srcXrefsPerBatch,
+     * or the size the selected resources are tuned to if 0
+     */
+    private int getBatchSize(int srcXrefsPerBatch) {
+        if (srcXrefsPerBatch!=0) {
+            return srcXrefsPerBatch;
+        }
+        return AdaptiveBatchController.getBatchSize(
+                new ArrayList<IDMapperClient>(idMapperClientManager.selectedClients()));
+    }
+
+    private Map<DataSourceWrapper, Set<String>> getMapIDTypeAttrName(
+            Map<String, DataSourceWrapper> mapTgtAttrNameIDType) {
         Map<DataSourceWrapper, Set<String>> mapIDTypeAttrName = new HashMap();
         for (String attrName : mapTgtAttrNameIDType.keySet()) {
             DataSourceWrapper idType = mapTgtAttrNameIDType.get(attrName);
@@ -246,57 +1274,79 @@ public class AttributeBasedIDMappingImpl implements AttributeBasedIDMapping{
             }
             names.add(attrName);
         }
+        return mapIDTypeAttrName;
+    }
 
-//        int i = 0;
-        for (Map.Entry<CyNode,Set<XrefWrapper>> entryNodeXrefs : mapNodeTgtXrefs.entrySet()) {
-//            if (interrupted) return;
-            
-//            if (++i%100==0) {
-//            updateTaskMonitor("Preparing cross reference for nodes...\n"+i+"/"+nNode,(i+1)*100/nNode);
-//            }
-
-            // type wise
-            Map<DataSourceWrapper, Set<String>> mapDsIds = new HashMap();
-            Set<XrefWrapper> tgtXrefs = entryNodeXrefs.getValue();
-            for (XrefWrapper xref : tgtXrefs) {
+    /**
+     *
+     * @return the target IDs of the source xrefs groupXrefs[from..to) by
+     * type, as sorted lists shared through tgtIdLists; null if none was found
+     */
+    private Map<DataSourceWrapper, List<String>> getTgtIds(int[] groupXrefs, int from, int to,
+                                 int[][] resolved, XrefTable xrefTable,
+                                 SortedListInterner tgtIdLists) {
+        // type wise
+        Map<DataSourceWrapper, Set<String>> mapDsIds = new HashMap();
+        for (int x=from; x<to; x++) {
+            int srcXref = groupXrefs[x];
+            int[] tgtXrefs = srcXref<resolved.length ? resolved[srcXref] : null;
+            if (tgtXrefs==null) {
+                continue;
+            }
+            for (int tgtXref : tgtXrefs) {
+                XrefWrapper xref = xrefTable.get(tgtXref);
                 DataSourceWrapper ds = xref.getDataSource();
                 Set<String> ids = mapDsIds.get(ds);
                 if (ids==null) {
-                    ids = new TreeSet(); // alphabetically
+                    ids = new HashSet<String>();
                     mapDsIds.put(ds, ids);
                 }
                 ids.add(xref.getValue());
             }
-            
-            // set attribute
-            CyNode node = entryNodeXrefs.getKey();
-            CyRow cyRow = nodeTable.getRow(node.getSUID());
-            
-            for (Map.Entry<DataSourceWrapper, Set<String>> entryDsIds : mapDsIds.entrySet()) {
-                DataSourceWrapper ds = entryDsIds.getKey();
-                Set<String> attrNames = mapIDTypeAttrName.get(ds);
-                if (attrNames==null) {
-                    // TODO: what happened?
+        }
+
+        if (mapDsIds.isEmpty()) {
+            return null;
+        }
+
+        // alphabetically
+        Map<DataSourceWrapper, List<String>> mapDsIdList
+                = new HashMap<DataSourceWrapper, List<String>>(mapDsIds.size()*2);
+        for (Map.Entry<DataSourceWrapper, Set<String>> entry : mapDsIds.entrySet()) {
+            mapDsIdList.put(entry.getKey(), tgtIdLists.intern(entry.getValue()));
+        }
+        return mapDsIdList;
+    }
+
+    /**
+     * Set the target IDs of each type to its target columns. The columns of
+     * the types without IDs are cleared.
+     * @param mapDsIds sorted target IDs by type; null if none
+     */
+    private void setTgtAttribute(CyTable nodeTable, CyRow cyRow,
+                                 Map<DataSourceWrapper, List<String>> mapDsIds,
+                                 Map<DataSourceWrapper, Set<String>> mapIDTypeAttrName,
+                                 BulkTableWriter writer) {
+        // set attribute
+        for (Map.Entry<DataSourceWrapper, Set<String>> entryDsAttrNames : mapIDTypeAttrName.entrySet()) {
+            List<String> ids = mapDsIds==null ? null : mapDsIds.get(entryDsAttrNames.getKey());
+            for (String attrName : entryDsAttrNames.getValue()) {
+                if (ids==null || ids.isEmpty()) {
+                    writer.setIfChanged(cyRow, attrName, null);
                     continue;
                 }
-                for (String attrName : attrNames) {
-                    Class attrType = nodeTable.getColumn(attrName).getType();
-                    Set<String> ids = entryDsIds.getValue();
-                    if (attrType==List.class) {
-                        List<String> values = new ArrayList(ids);
-                        cyRow.set(attrName, values);
-                    } else if (attrType==String.class) {
-                        // only returns the first ID
-                        //TODO: is that a way to get the "best" one?
-                        if (!ids.isEmpty()) {
-                            cyRow.set(attrName, ids.iterator().next());
-                        }
-                    }
+
+                Class attrType = nodeTable.getColumn(attrName).getType();
+                if (attrType==List.class) {
+                    // shared by all nodes with the same IDs
+                    writer.setIfChanged(cyRow, attrName, ids);
+                } else if (attrType==String.class) {
+                    // only returns the first ID
+                    //TODO: is that a way to get the "best" one?
+                    writer.setIfChanged(cyRow, attrName, ids.get(0));
                 }
             }
-
         }
-
     }
 
     private void updateTaskMonitor(String status, double percentage) {
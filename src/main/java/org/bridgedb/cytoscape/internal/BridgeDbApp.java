@@ -37,6 +37,9 @@ package org.bridgedb.cytoscape.internal;
 
 import java.sql.DriverManager;
 import org.bridgedb.bio.BioDataSource;
+import org.bridgedb.cytoscape.internal.util.AdaptiveBatchController;
+import org.bridgedb.cytoscape.internal.util.BridgeDbExecutors;
+import org.bridgedb.cytoscape.internal.util.PersistentMappingCache;
 import org.cytoscape.application.swing.CyAction;
 import org.cytoscape.service.util.AbstractCyActivator;
 import org.cytoscape.util.swing.OpenBrowser;
@@ -56,6 +59,7 @@ import org.bridgedb.cytoscape.internal.task.SelectResourceTaskFactory;
 import org.cytoscape.application.CyApplicationConfiguration;
 import org.cytoscape.application.CyApplicationManager;
 import org.cytoscape.application.swing.CySwingApplication;
+import org.cytoscape.event.CyEventHelper;
 import org.cytoscape.model.CyNetworkManager;
 import org.cytoscape.util.swing.FileUtil;
 import static org.cytoscape.work.ServiceProperties.COMMAND;
@@ -77,6 +81,8 @@ public final class BridgeDbApp extends AbstractCyActivator {
     
     public void start(BundleContext bc) {
         try {
+            BridgeDbExecutors.start();
+
             BioDataSource.init();
             
             try {
@@ -87,6 +93,9 @@ public final class BridgeDbApp extends AbstractCyActivator {
             
             CyApplicationConfiguration cyApplicationConfiguration = getService(bc, CyApplicationConfiguration.class);
             IDMapperClientManager.setCyApplicationConfiguration(cyApplicationConfiguration);
+
+            CyEventHelper cyEventHelper = getService(bc, CyEventHelper.class);
+            BulkTableWriter.setCyEventHelper(cyEventHelper);
             
             IDMapperClientManager idMapperClientManager = IDMapperClientManager.getDefaultIDMapperClientManager();
             idMapperClientManager.reloadFromCytoscapeGlobalProperties();
@@ -116,6 +125,14 @@ public final class BridgeDbApp extends AbstractCyActivator {
         }
     }
 
+    @Override
+    public void stop(BundleContext bc) {
+        super.stop(bc);
+        BridgeDbExecutors.shutdown();
+        PersistentMappingCache.closeAll();
+        AdaptiveBatchController.clear();
+    }
+
 //    private void addListeners() {
 //        PropertyChangeSupport pcs = Cytoscape.getPropertyChangeSupport();
 //
@@ -195,7 +212,7 @@ public final class BridgeDbApp extends AbstractCyActivator {
         
         // Remove mapping resource
         AttributeBasedIDMappingTaskFactory attributeBasedIDMappingTaskFactory
-                = new AttributeBasedIDMappingTaskFactory();
+                = new AttributeBasedIDMappingTaskFactory(networkManagerRef, taskManager);
         props = new Properties();
         props.setProperty(COMMAND, "id mapping");
         props.setProperty(COMMAND_NAMESPACE, "bridgedb");
@@ -0,0 +1,148 @@
+package org.bridgedb.cytoscape.internal;
+
+/*******************************************************************************
+ * Copyright 2010-2013 BridgeDb App developing team
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.cytoscape.event.CyEventHelper;
+import org.cytoscape.model.CyRow;
+import org.cytoscape.model.CyTable;
+import org.cytoscape.model.events.RowSetRecord;
+import org.cytoscape.model.events.RowsSetEvent;
+
+/**
+ * Writes values to tables in bulk. Values are buffered and written column
+ * by column on flush, with the events of the tables silenced only while
+ * writing; a single RowsSetEvent per table, holding the values of the
+ * flush, is fired after each flush instead of one event per value.
+ */
+class BulkTableWriter {
+    private static CyEventHelper cyEventHelper = null;
+
+    private final Map<CyTable, Map<String, ColumnWrites>> pendingWrites
+            = new LinkedHashMap<CyTable, Map<String, ColumnWrites>>();
+    private long valuesWritten = 0;
+    private long valuesUnchanged = 0;
+    private long nanosWriting = 0;
+
+    static void setCyEventHelper(CyEventHelper cyEventHelper) {
+        BulkTableWriter.cyEventHelper = cyEventHelper;
+    }
+
+    /**
+     * Buffer a value to write.
+     * @param row
+     * @param column
+     * @param value null to clear the column
+     */
+    void set(CyRow row, String column, Object value) {
+        CyTable table = row.getTable();
+        Map<String, ColumnWrites> columnWrites = pendingWrites.get(table);
+        if (columnWrites==null) {
+            columnWrites = new LinkedHashMap<String, ColumnWrites>();
+            pendingWrites.put(table, columnWrites);
+        }
+        ColumnWrites writes = columnWrites.get(column);
+        if (writes==null) {
+            writes = new ColumnWrites();
+            columnWrites.put(column, writes);
+        }
+        writes.rows.add(row);
+        writes.values.add(value);
+    }
+
+    /**
+     * Buffer a value to write, unless the row already has it.
+     * @param row
+     * @param column
+     * @param value null to clear the column
+     */
+    void setIfChanged(CyRow row, String column, Object value) {
+        Object current = row.getRaw(column);
+        if (value==null ? current==null : value.equals(current)) {
+            valuesUnchanged++;
+            return;
+        }
+        set(row, column, value);
+    }
+
+    /**
+     * Write the buffered values, with the events of their tables silenced,
+     * and notify the listeners of each table of the values written.
+     */
+    void flush() {
+        long start = System.nanoTime();
+        for (Map.Entry<CyTable, Map<String, ColumnWrites>> entry : pendingWrites.entrySet()) {
+            CyTable table = entry.getKey();
+            List<RowSetRecord> tableRecords = new ArrayList<RowSetRecord>();
+
+            if (cyEventHelper!=null) {
+                cyEventHelper.silenceEventSource(table);
+            }
+            try {
+                for (Map.Entry<String, ColumnWrites> columnEntry : entry.getValue().entrySet()) {
+                    String column = columnEntry.getKey();
+                    ColumnWrites writes = columnEntry.getValue();
+                    for (int i=0; i<writes.rows.size(); i++) {
+                        CyRow row = writes.rows.get(i);
+                        Object value = writes.values.get(i);
+                        row.set(column, value);
+                        tableRecords.add(new RowSetRecord(row, column, value, value));
+                    }
+                    valuesWritten += writes.rows.size();
+                }
+            } finally {
+                if (cyEventHelper!=null) {
+                    cyEventHelper.unsilenceEventSource(table);
+                }
+            }
+
+            if (cyEventHelper!=null && !tableRecords.isEmpty()) {
+                cyEventHelper.fireEvent(new RowsSetEvent(table, tableRecords));
+            }
+        }
+        pendingWrites.clear();
+        nanosWriting += System.nanoTime()-start;
+    }
+
+    /**
+     * Write the values still buffered, at the end of a run.
+     */
+    void finish() {
+        flush();
+    }
+
+    /**
+     *
+     * @return number of values written and write throughput
+     */
+    String getReport() {
+        double seconds = nanosWriting/1e9;
+        return valuesWritten+" values written in "+String.format("%.2f", seconds)+" s"
+                + (seconds>0 ? " ("+Math.round(valuesWritten/seconds)+" values/s)" : "")
+                + (valuesUnchanged>0 ? ", "+valuesUnchanged+" unchanged values left as they were" : "");
+    }
+
+    private static class ColumnWrites {
+        private final List<CyRow> rows = new ArrayList<CyRow>();
+        private final List<Object> values = new ArrayList<Object>();
+    }
+}
@@ -64,6 +64,33 @@ public interface IDMapperClient {
             }
             return OTHER;
         }
+
+        /**
+         * Guess the type of a client from the class of its driver, without
+         * connecting.
+         * @param classString
+         * @return null if it cannot be guessed
+         */
+        public static ClientType getClientType(String classString) {
+            if (classString==null)
+                return null;
+            if (classString.startsWith("org.bridgedb.file.")) {
+                return FILE;
+            } else if (classString.startsWith("org.bridgedb.rdb.")) {
+                return RDB;
+            } else if (classString.startsWith("org.bridgedb.webservice.")) {
+                return WEBSERVICE;
+            }
+            return null;
+        }
+    }
+
+    public enum ConnectionState {
+        NOT_CONNECTED,
+        CONNECTING,
+        CONNECTED,
+        TIMED_OUT,
+        FAILED;
     }
 
     public String getId(); // client id
@@ -76,6 +103,13 @@ public interface IDMapperClient {
             throws IDMapperException ;
 
     public IDMapper getIDMapper();
+
+    /**
+     * Start connecting in the background, unless connected or connecting.
+     */
+    public void connect();
+
+    public ConnectionState getConnectionState();
     
     public String getClassString();
 
@@ -37,29 +37,37 @@ package org.bridgedb.cytoscape.internal;
 
 import java.util.HashSet;
 import java.util.Set;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.bridgedb.BridgeDb;
 import org.bridgedb.DataSource;
 import org.bridgedb.IDMapper;
 import org.bridgedb.IDMapperCapabilities;
 import org.bridgedb.IDMapperException;
+import org.bridgedb.cytoscape.internal.util.BridgeDbExecutors;
 
 /**
  *
  * @author gjj
  */
 public class IDMapperClientImpl implements IDMapperClient {
-    protected IDMapper mapper = null;
+    protected volatile IDMapper mapper = null;
+    private Future<?> connecting = null;
+    private long connectingSince;
+    private volatile boolean failed = false;
+    // failed attempts in a row, and when to try again
+    private int failures = 0;
+    private long retryAt = 0;
 
     protected String connectionString;
     protected final String classString;
     protected final String id;
     protected final String displayName;
     protected boolean selected;
-    protected final ClientType clientType;
+    protected volatile ClientType clientType;
+    protected final int connectTimeout;
 
     protected static int clientNo = 0;
 
@@ -70,6 +78,13 @@ public class IDMapperClientImpl implements IDMapperClient {
     protected static final String SELECTED = "selected";
     protected static final String CLIENT_TYPE = "client-type";
 
+    public static final int DEFAULT_CONNECT_TIMEOUT_SECONDS = 5;
+
+    // wait after a failed attempt before trying again, doubled after each
+    // failure in a row
+    private static final long RETRY_BACKOFF_MILLIS = 30*1000L;
+    private static final long MAX_RETRY_BACKOFF_MILLIS = 10*60*1000L;
+
     public static class Builder {
         private String connectionString;
         private String classString;
@@ -79,6 +94,8 @@ public class IDMapperClientImpl implements IDMapperClient {
         private String id = null;
         private boolean selected = true;
         private ClientType clientType = null;
+        private boolean lazy = false;
+        private int connectTimeout = DEFAULT_CONNECT_TIMEOUT_SECONDS;
 
         public Builder(String connectionString, String classString) {
             if (connectionString==null || classString==null) {
@@ -108,6 +125,30 @@ public class IDMapperClientImpl implements IDMapperClient {
             return this;
         }
 
+        /**
+         * Do not connect when building, even if the client type is not
+         * given; it is then guessed from the class string until connected.
+         * @param lazy
+         * @return
+         */
+        public Builder lazy(boolean lazy) {
+            this.lazy = lazy;
+            return this;
+        }
+
+        /**
+         *
+         * @param seconds how long to wait for the client to connect
+         * @return
+         */
+        public Builder connectTimeout(int seconds) {
+            if (seconds<=0) {
+                throw new IllegalArgumentException();
+            }
+            this.connectTimeout = seconds;
+            return this;
+        }
+
         public IDMapperClientImpl build()
             throws IDMapperException, ClassNotFoundException {
             return new IDMapperClientImpl(this);
@@ -124,7 +165,12 @@ public class IDMapperClientImpl implements IDMapperClient {
                 +System.currentTimeMillis():builder.id;
 
         ClientType defClientType = builder.clientType;
-        if (defClientType==null) {
+        if (defClientType==null && builder.lazy) {
+            defClientType = ClientType.getClientType(builder.classString);
+            if (defClientType==null) {
+                defClientType = ClientType.OTHER;
+            }
+        } else if (defClientType==null) {
             Class.forName(builder.classString);
             mapper = BridgeDb.connect(builder.connectionString);
             defClientType = ClientType.getClientType(mapper);
@@ -136,6 +182,7 @@ public class IDMapperClientImpl implements IDMapperClient {
         this.connectionString = builder.connectionString;
         this.selected= builder.selected;
         this.clientType = defClientType;
+        this.connectTimeout = builder.connectTimeout;
         
         clientNo++;
     }
@@ -152,40 +199,122 @@ public class IDMapperClientImpl implements IDMapperClient {
         return clientType;
     }
 
-    public IDMapper getIDMapper() {
-        if (mapper==null) {
-            try {
-                Class.forName(getClassString());
-
-                ExecutorService executor = Executors.newSingleThreadExecutor();
-                executor.execute(new Runnable() {
-                    public void run() {
-                        try {
-                            mapper = BridgeDb.connect(getConnectionString());
-                        } catch (Exception e) {
-                            e.printStackTrace();
-                        }
-                    }
-                });
-
-                //TODO: how to set waiting time?
-                if (executor.awaitTermination(5, TimeUnit.SECONDS)) {
-                    executor.shutdown();
-                }
+    /**
+     *
+     * @return how long to wait for the client to connect, in seconds
+     */
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
 
-                if (mapper == null) {
-                    return null;
-                }
+    public IDMapper getIDMapper() {
+        Future<?> connect;
+        long waitMillis;
+        synchronized (this) {
+            if (mapper!=null) {
+                return mapper;
+            }
 
-                preprocess(mapper);
-            } catch (Exception e) {
-                e.printStackTrace();
+            connect = startConnecting();
+            if (connect==null) {
                 return null;
             }
+            waitMillis = connectingSince + connectTimeout*1000L - System.currentTimeMillis();
+        }
+
+        if (waitMillis<=0) {
+            // timed out before; do not wait for it again
+            return mapper;
+        }
+
+        try {
+            connect.get(waitMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // still connecting; a later call gets the mapper once connected
+        } catch (Exception e) {
+            e.printStackTrace();
         }
         return mapper;
     }
 
+    public void connect() {
+        synchronized (this) {
+            if (mapper==null) {
+                startConnecting();
+            }
+        }
+    }
+
+    public synchronized ConnectionState getConnectionState() {
+        if (mapper!=null) {
+            return ConnectionState.CONNECTED;
+        }
+        if (connecting==null) {
+            return failed ? ConnectionState.FAILED : ConnectionState.NOT_CONNECTED;
+        }
+        if (connecting.isDone()) {
+            return ConnectionState.FAILED;
+        }
+        if (System.currentTimeMillis()-connectingSince > connectTimeout*1000L) {
+            return ConnectionState.TIMED_OUT;
+        }
+        return ConnectionState.CONNECTING;
+    }
+
+    /**
+     * Start an attempt to connect, unless one is running or the last one
+     * failed too recently; the attempts run once at a time, and are left
+     * running when they time out.
+     * @return the running attempt; null if it could not be started
+     */
+    private Future<?> startConnecting() {
+        if (connecting!=null && !connecting.isDone()) {
+            return connecting;
+        }
+        if (failures>0 && System.currentTimeMillis()<retryAt) {
+            // still failed
+            return null;
+        }
+
+        connecting = null;
+        failed = false;
+        try {
+            Class.forName(getClassString());
+
+            connectingSince = System.currentTimeMillis();
+            connecting = BridgeDbExecutors.get(BridgeDbExecutors.Purpose.CONNECT)
+                    .submit(new Runnable() {
+                public void run() {
+                    try {
+                        IDMapper connected = BridgeDb.connect(getConnectionString());
+                        preprocess(connected);
+                        clientType = ClientType.getClientType(connected);
+                        synchronized (IDMapperClientImpl.this) {
+                            mapper = connected;
+                            failures = 0;
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                        attemptFailed();
+                    }
+                }
+            });
+        } catch (Exception e) {
+            // driver not found, or too many resources connecting
+            e.printStackTrace();
+            failed = true;
+            attemptFailed();
+        }
+        return connecting;
+    }
+
+    private synchronized void attemptFailed() {
+        failures++;
+        long backoff = Math.min(MAX_RETRY_BACKOFF_MILLIS,
+                RETRY_BACKOFF_MILLIS << Math.min(failures-1, 16));
+        retryAt = System.currentTimeMillis()+backoff;
+    }
+
     /**
      * set fullname of datasource as syscode if it is null
      * in this plugin, fullname represents the datasource
@@ -222,10 +351,13 @@ public class IDMapperClientImpl implements IDMapperClient {
         return connectionString;
     }
 
-    public void setConnectionString(String connectionString)
+    public synchronized void setConnectionString(String connectionString)
             throws IDMapperException {
         this.connectionString = connectionString;
         mapper = null;
+        connecting = null;
+        failed = false;
+        failures = 0;
     }
     
     public String getClassString() {
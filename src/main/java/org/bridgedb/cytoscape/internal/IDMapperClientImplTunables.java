@@ -41,6 +41,8 @@ import java.util.HashSet;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 
 import org.bridgedb.BridgeDb;
@@ -48,6 +50,7 @@ import org.bridgedb.DataSource;
 import org.bridgedb.IDMapper;
 import org.bridgedb.IDMapperCapabilities;
 import org.bridgedb.IDMapperException;
+import org.bridgedb.cytoscape.internal.util.BridgeDbExecutors;
 
 /**
  *
@@ -56,6 +59,11 @@ import org.bridgedb.IDMapperException;
 public class IDMapperClientImplTunables implements IDMapperClient {
     protected IDMapper mapper = null;
 
+    // what the client was built from, to connect again
+    private final String builtConnectionString;
+    private final String builtClassString;
+    private Future<?> connecting = null;
+
     protected Tunable connectionString;
     protected Tunable classString;
     protected Tunable id;
@@ -124,6 +132,9 @@ public class IDMapperClientImplTunables implements IDMapperClient {
         //Class.forName(classString);
         //mapper = BridgeDb.connect(connectionString);
 
+        builtConnectionString = builder.connectionString;
+        builtClassString = builder.classString;
+
         String defId = builder.id==null?""+clientNo+"-"
                 +System.currentTimeMillis():builder.id;
 
@@ -179,6 +190,48 @@ public class IDMapperClientImplTunables implements IDMapperClient {
 		return null;
 	}
 
+	/**
+	 * Build the mapper again in the background, e.g. if it failed to
+	 * connect when the client was built.
+	 */
+	@Override
+	public synchronized void connect() {
+		if (mapper!=null || (connecting!=null && !connecting.isDone())) {
+			return;
+		}
+
+		try {
+			connecting = BridgeDbExecutors.get(BridgeDbExecutors.Purpose.CONNECT)
+					.submit(new Runnable() {
+				public void run() {
+					try {
+						Class.forName(builtClassString);
+						IDMapper connected = BridgeDb.connect(builtConnectionString);
+						synchronized (IDMapperClientImplTunables.this) {
+							mapper = connected;
+						}
+					} catch (Exception e) {
+						e.printStackTrace();
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// too many resources connecting, or the app is stopping
+			e.printStackTrace();
+		}
+	}
+
+	@Override
+	public synchronized ConnectionState getConnectionState() {
+		if (mapper!=null) {
+			return ConnectionState.CONNECTED;
+		}
+		if (connecting==null) {
+			return ConnectionState.NOT_CONNECTED;
+		}
+		return connecting.isDone() ? ConnectionState.FAILED : ConnectionState.CONNECTING;
+	}
+
 	@Override
 	public String getClassString() {
 		// TODO Auto-generated method stub
@@ -35,9 +35,15 @@
 
 package org.bridgedb.cytoscape.internal;
 
+import org.bridgedb.cytoscape.internal.util.AdaptiveBatchController;
+import org.bridgedb.cytoscape.internal.util.BridgeDbExecutors;
 import org.bridgedb.cytoscape.internal.util.BridgeRestUtil;
+import org.bridgedb.cytoscape.internal.util.Capabilities;
+import org.bridgedb.cytoscape.internal.util.CapabilityIndex;
+import org.bridgedb.cytoscape.internal.util.CapabilitySnapshot;
 import org.bridgedb.cytoscape.internal.util.DataSourceUtil;
 import org.bridgedb.cytoscape.internal.util.DataSourceWrapper;
+import org.bridgedb.cytoscape.internal.util.MappingResultCache;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
@@ -46,6 +52,7 @@ import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -53,8 +60,15 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.Future;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.bridgedb.AttributeMapper;
 import org.bridgedb.DataSource;
@@ -63,6 +77,8 @@ import org.bridgedb.IDMapperCapabilities;
 import org.bridgedb.IDMapperStack;
 import org.cytoscape.application.CyApplicationConfiguration;
 
+import javax.swing.SwingUtilities;
+
 /**
  *
  * @author gjj
@@ -77,6 +93,17 @@ public class IDMapperClientManager {
         public void changed();
     }
 
+    public interface CapabilityChangeListener {
+        /**
+         * Called from a background thread when the capabilities of the
+         * selected resources changed without the resources changing: when a
+         * resource answered during their discovery, and when the discovery
+         * completed.
+         * @param capabilities marked complete or partial
+         */
+        public void capabilitiesChanged(Capabilities capabilities);
+    }
+
     public static class TrackIDMapperChangeListener {
         private boolean changed = false;
 
@@ -124,18 +151,19 @@ public class IDMapperClientManager {
     private final Set<IDMapperClient> selectedClients;
 
     private CacheStatus cacheStatus = CacheStatus.UNCACHED;
-    private Set<DataSourceWrapper> srcTypes = null;
-    private Set<DataSourceWrapper> tgtTypes = null;
-    private Set<List<DataSourceWrapper>> supportedMapping = null;
+    private volatile CapabilityDiscovery discovery = new CapabilityDiscovery(new CapabilityIndex(), 0, true);
+    private CapabilitySnapshot capabilitySnapshot = null;
+    private final List<CapabilityChangeListener> capabilityListeners
+            = new CopyOnWriteArrayList<CapabilityChangeListener>();
     private IDMapperStack selectedIDMapperStack = null;
     private final List<IDMapperChangeListener> listeners;
     
-    private ExecutorService executor = null;
-
     private final int waitSeconds = 5;
     
     private final String appName;
 
+    private final MappingResultCache mappingResultCache;
+
     private IDMapperClientManager(String appName) {
         this.appName = appName;
         clientConnectionStringMap = new HashMap<String, IDMapperClient>();
@@ -146,10 +174,26 @@ public class IDMapperClientManager {
                 cacheStatus = CacheStatus.UNCACHED;
             }
         });
+
+        mappingResultCache = new MappingResultCache();
+        addIDMapperChangeListener(new IDMapperChangeListener() {
+            public void changed() {
+                mappingResultCache.clear();
+            }
+        });
         
         //reloadFromCytoscapeSessionProperties();
     }
 
+    /**
+     *
+     * @return the results of previous mappings with the resources of this
+     * manager; cleared whenever the resources or their selection change
+     */
+    public MappingResultCache getMappingResultCache() {
+        return mappingResultCache;
+    }
+
     public void addIDMapperChangeListener(IDMapperChangeListener listener) {
         if (listener==null)
             throw new NullPointerException();
@@ -157,6 +201,33 @@ public class IDMapperClientManager {
         listeners.add(listener);
     }
 
+    /**
+     * Listen to the answers of the resources while their capabilities are
+     * discovered.
+     * @param listener
+     */
+    public void addCapabilityChangeListener(CapabilityChangeListener listener) {
+        if (listener==null)
+            throw new NullPointerException();
+
+        capabilityListeners.add(listener);
+    }
+
+    public void removeCapabilityChangeListener(CapabilityChangeListener listener) {
+        capabilityListeners.remove(listener);
+    }
+
+    private void fireCapabilityChange(CapabilityDiscovery thisDiscovery) {
+        if (discovery!=thisDiscovery) {
+            // the resources changed meanwhile
+            return;
+        }
+        Capabilities capabilities = thisDiscovery.getCurrent();
+        for (CapabilityChangeListener listener : capabilityListeners) {
+            listener.capabilitiesChanged(capabilities);
+        }
+    }
+
     private void fireIDMapperChange() {
         resetCache();
         for (IDMapperChangeListener listener : listeners) {
@@ -206,6 +277,7 @@ public class IDMapperClientManager {
     private static final String CLIENT_DISPLAY_NAME = "Display Name:\t";
     private static final String CLIENT_SELECTED = "Selected:\t";
     private static final String CLIENT_TYPE = "Client Type:\t";
+    private static final String CLIENT_CONNECT_TIMEOUT = "Connect Timeout:\t";
     
     public boolean reloadFromCytoscapeGlobalProperties() {
         removeAllClients(true); // remove all of the current clients
@@ -221,6 +293,7 @@ public class IDMapperClientManager {
             String display = null;
             boolean selected = true;
             IDMapperClient.ClientType clientType = null;
+            int connectTimeout = IDMapperClientImpl.DEFAULT_CONNECT_TIMEOUT_SECONDS;
 
             String line;
             while ((line=in.readLine())!=null) {
@@ -230,6 +303,8 @@ public class IDMapperClientManager {
                     connStr = null;
                     display = null;
                     selected = true;
+                    clientType = null;
+                    connectTimeout = IDMapperClientImpl.DEFAULT_CONNECT_TIMEOUT_SECONDS;
                 } else if (line.compareTo(CLIENT_END)==0) {
                     if (classStr!=null && connStr!=null) {
                         try {
@@ -239,6 +314,8 @@ public class IDMapperClientManager {
                                     .id(clientId)
                                     .selected(selected)
                                     .clientType(clientType)
+                                    .connectTimeout(connectTimeout)
+                                    .lazy(true)
                                     .build();
                             registerClient(client, selected);
                         } catch(Exception e) {
@@ -261,6 +338,16 @@ public class IDMapperClientManager {
                 } else if (line.startsWith(CLIENT_TYPE)) {
                     clientType = IDMapperClient.ClientType.valueOf(
                             line.substring(CLIENT_TYPE.length()));
+                } else if (line.startsWith(CLIENT_CONNECT_TIMEOUT)) {
+                    try {
+                        int seconds = Integer.parseInt(line.substring(
+                                CLIENT_CONNECT_TIMEOUT.length()));
+                        if (seconds>0) {
+                            connectTimeout = seconds;
+                        }
+                    } catch (NumberFormatException e) {
+                        e.printStackTrace();
+                    }
                 }
 
             }
@@ -269,8 +356,24 @@ public class IDMapperClientManager {
             return false;
         }
 
+        connectAll();
         return true;
     }
+
+    /**
+     * Start connecting all the clients in the background, in parallel; each
+     * one gives up after its own timeout.
+     */
+    public void connectAll() {
+        for (IDMapperClient client : allClients()) {
+            // a client failing to start does not keep the others from it
+            try {
+                client.connect();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
     
     /* modify 'CytoscapeInit.getProperties()' in Cy 3.0
     static boolean registerDefaultClient() {
@@ -318,7 +421,7 @@ public class IDMapperClientManager {
         return true;
     }*/
     
-    private File getGlobalPropertiesFile() throws IOException {
+    private File getConfigDirectory() {
         File configDir = cyApplicationConfiguration.getAppConfigurationDirectoryLocation(
                 BridgeDbApp.class);
         if (!configDir.exists()) {
@@ -326,6 +429,50 @@ public class IDMapperClientManager {
                 System.err.println("Failed to create config dir for bridgedb");
             }
         }
+        return configDir;
+    }
+
+    /**
+     *
+     * @return the directory of the persistent mapping caches of this manager,
+     * next to its global properties file; null if the app configuration
+     * is not available
+     */
+    public File getMappingCacheDirectory() {
+        if (cyApplicationConfiguration==null) {
+            return null;
+        }
+        return new File(getConfigDirectory(), appName + ".mapping-cache");
+    }
+
+    /**
+     *
+     * @return the directory of the checkpoints of the mapping jobs, next to
+     * the global properties file; null if the app configuration is not
+     * available
+     */
+    public File getCheckpointDirectory() {
+        if (cyApplicationConfiguration==null) {
+            return null;
+        }
+        return new File(getConfigDirectory(), appName + ".checkpoints");
+    }
+
+    /**
+     *
+     * @return the capabilities of the resources last seen, kept next to the
+     * global properties file; null if the app configuration is not available
+     */
+    private synchronized CapabilitySnapshot getCapabilitySnapshot() {
+        if (capabilitySnapshot==null && cyApplicationConfiguration!=null) {
+            capabilitySnapshot = CapabilitySnapshot.load(
+                    new File(getConfigDirectory(), appName + ".capabilities"));
+        }
+        return capabilitySnapshot;
+    }
+
+    private File getGlobalPropertiesFile() throws IOException {
+        File configDir = getConfigDirectory();
         
         File configFile = new File(configDir.getAbsolutePath()
                 + File.separatorChar + appName + "." + FinalStaticValues.CLIENT_GLOBAL_PROPS);
@@ -371,6 +518,12 @@ public class IDMapperClientManager {
             out.write(CLIENT_TYPE+clientType.name());
             out.newLine();
 
+            if (client instanceof IDMapperClientImpl) {
+                int connectTimeout = ((IDMapperClientImpl)client).getConnectTimeout();
+                out.write(CLIENT_CONNECT_TIMEOUT+connectTimeout);
+                out.newLine();
+            }
+
             out.write(CLIENT_END);
             out.newLine();
         }
@@ -428,6 +581,7 @@ public class IDMapperClientManager {
 
         clientConnectionStringMap.remove(client.getConnectionString());
         selectedClients.remove(client);
+        AdaptiveBatchController.remove(client.getConnectionString());
 
 //        if (removeSessionProps &&
 //                client instanceof IDMapperClientImplTunables) {
@@ -504,35 +658,83 @@ public class IDMapperClientManager {
         return selectedClients.contains(client);
     }
 
+    /**
+     * Does not block: the selected resources are added to the stack as they
+     * connect. To wait for them, wait off the event dispatch thread for
+     * {@link #discoverCapabilities()}.
+     * @return stack of the selected resources connected so far
+     */
     public  IDMapperStack selectedIDMapperStack() {
-        cacheAndWait(waitSeconds);
+        cache();
         return selectedIDMapperStack;
     }
 
     /**
-     *
+     * Start discovering the capabilities of the selected resources, unless
+     * already done or under way. Does not block.
+     * @return the capabilities once every selected resource answered or
+     * failed; listen to {@link CapabilityChangeListener} for the answers
+     * received so far
+     */
+    public  Future<Capabilities> discoverCapabilities() {
+        cache();
+        return discovery;
+    }
+
+    /**
+     * Does not block.
+     * @return the capabilities of the selected resources known so far,
+     * marked complete or partial
+     */
+    public  Capabilities getCapabilities() {
+        cache();
+        return discovery.getCurrent();
+    }
+
+    /**
+     * Blocks for up to a few seconds, unless on the event dispatch thread,
+     * if the capabilities of the resources were not seen before; prefer
+     * {@link #getCapabilities()}.
      * @return supported source ID types by the selected resources
      */
     public  Set<DataSourceWrapper> getSupportedSrcTypes() {
-        cacheAndWait(waitSeconds);
-        return srcTypes;
+        return waitForCapabilities().getSrcTypes();
     }
 
     /**
-     *
+     * Blocks for up to a few seconds, unless on the event dispatch thread,
+     * if the capabilities of the resources were not seen before; prefer
+     * {@link #getCapabilities()}.
      * @return supported target ID types by the selected resources
      */
     public  Set<DataSourceWrapper> getSupportedTgtTypes() {
-        cacheAndWait(waitSeconds);
-        return tgtTypes;
+        return waitForCapabilities().getTgtTypes();
     }
 
     public  boolean isMappingSupported(DataSourceWrapper srcType, DataSourceWrapper tgtType) {
-        cacheAndWait(waitSeconds);
-        List<DataSourceWrapper> dsws = new ArrayList<DataSourceWrapper>(2);
-        dsws.add(srcType);
-        dsws.add(tgtType);
-        return supportedMapping.contains(dsws);
+        return waitForCapabilities().isMappingSupported(srcType, tgtType);
+    }
+
+    /**
+     *
+     * @param srcTypes
+     * @return target ID types supported by the selected resources from at
+     * least one of the source types, sorted
+     */
+    public  Set<DataSourceWrapper> getReachableTgtTypes(Collection<DataSourceWrapper> srcTypes) {
+        return waitForCapabilities().getReachableTgtTypes(srcTypes);
+    }
+
+    /**
+     * Wait for the resources only if their capabilities were not all seen
+     * before.
+     */
+    private Capabilities waitForCapabilities() {
+        cache();
+        if (!discovery.fromSnapshot) {
+            cacheAndWait(waitSeconds);
+        }
+        return discovery.getCurrent();
     }
 
     public  void resetCache() {
@@ -544,15 +746,23 @@ public class IDMapperClientManager {
         cache();
     }
 
+    /**
+     * Wait for the discovery of the capabilities for up to the given time.
+     * The discovery goes on in the background if it takes longer. Never
+     * waits on the event dispatch thread, which is to listen to
+     * {@link CapabilityChangeListener} instead.
+     * @param seconds
+     */
     public  void cacheAndWait(int seconds) {
         cache();
-        if (cacheStatus == CacheStatus.CACHED)
+        if (cacheStatus == CacheStatus.CACHED || SwingUtilities.isEventDispatchThread())
             return;
         try {
-            if (!executor.awaitTermination(seconds, TimeUnit.SECONDS)) {
-                executor.shutdownNow();
-            }
+            discovery.get(seconds, TimeUnit.SECONDS);
             cacheStatus = CacheStatus.CACHED;
+        } catch (TimeoutException e) {
+            System.err.println("Capabilities of the ID mapping resources are still being"
+                    + " discovered: "+discovery.getCurrent());
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -564,7 +774,7 @@ public class IDMapperClientManager {
                 return;
 
             if (cacheStatus == CacheStatus.CACHING) {
-                if (executor.isTerminated()) {
+                if (discovery.isDone()) {
                     cacheStatus = CacheStatus.CACHED;
                 }
                 return;
@@ -573,120 +783,271 @@ public class IDMapperClientManager {
             cacheStatus = CacheStatus.CACHING;
         }
 
-        selectedIDMapperStack = new IDMapperStack();
-        srcTypes = Collections.synchronizedSet(new HashSet<DataSourceWrapper>());
-        tgtTypes = Collections.synchronizedSet(new HashSet<DataSourceWrapper>());
-        supportedMapping = Collections.synchronizedSet(new HashSet<List<DataSourceWrapper>>());
+        final IDMapperStack stack = new IDMapperStack();
+        selectedIDMapperStack = stack;
 
-        try {
-            executor = Executors.newCachedThreadPool();
-
-            for (IDMapperClient client : selectedClients()) {
-                final IDMapper idMapper = client.getIDMapper();
-                if (idMapper==null)
-                    continue;
+        // answer with the capabilities last seen until the resources answer
+        final Set<IDMapperClient> clients = new HashSet<IDMapperClient>(selectedClients());
+        final CapabilitySnapshot snapshot = getCapabilitySnapshot();
+        CapabilityIndex index = new CapabilityIndex();
+        boolean fromSnapshot = true;
+        for (IDMapperClient client : clients) {
+            CapabilityIndex.Client lastSeen = snapshot==null ? null
+                    : snapshot.get(client.getConnectionString());
+            if (lastSeen==null) {
+                fromSnapshot = false;
+            } else {
+                index.add(lastSeen);
+            }
+        }
+        final CapabilityDiscovery thisDiscovery = new CapabilityDiscovery(index, clients.size(), fromSnapshot);
+        discovery = thisDiscovery;
+        if (clients.isEmpty()) {
+            thisDiscovery.done.countDown();
+            return;
+        }
 
-                //selectedIDMapperStack
-                selectedIDMapperStack.addIDMapper(idMapper);
+        final Map<String, CapabilityIndex.Client> liveCaps
+                = new ConcurrentHashMap<String, CapabilityIndex.Client>();
+        final AtomicBoolean changed = new AtomicBoolean(false);
 
+        ExecutorService executor = BridgeDbExecutors.get(BridgeDbExecutors.Purpose.CAPABILITY);
+        for (final IDMapperClient client : clients) {
+            final String connStr = client.getConnectionString();
+            final CapabilityIndex.Client lastSeen = snapshot==null ? null : snapshot.get(connStr);
+            try {
                 executor.execute(new Runnable() {
                     public void run() {
-                        IDMapperCapabilities caps = idMapper.getCapabilities();
-
-                        Set<DataSource> srcs, tgts;
+                        boolean added = false;
                         try {
-                            srcs = caps.getSupportedSrcDataSources();
-                            tgts = caps.getSupportedTgtDataSources();
-                        } catch (Exception e) {
-                            e.printStackTrace();
-                            return;
-                        }
+                            IDMapper idMapper = client.getIDMapper();
+                            if (idMapper==null)
+                                return;
 
-                        // srcTypes
-                        if (srcs!=null) {
-                            for (DataSource ds : srcs) {
-                                srcTypes.add(DataSourceWrapper.getInstance(
-                                        DataSourceUtil.getName(ds), DataSourceWrapper.DsAttr.DATASOURCE));
+                            //selectedIDMapperStack
+                            synchronized (stack) {
+                                stack.addIDMapper(idMapper);
                             }
-                        }
 
-                        // tgtTypes
-                        if (tgts!=null) {
-                            for (DataSource ds : tgts) {
-                                tgtTypes.add(DataSourceWrapper.getInstance(
-                                        DataSourceUtil.getName(ds), DataSourceWrapper.DsAttr.DATASOURCE));
-                            }
-                        }
+                            CapabilityIndex.Client live = getCapabilities(idMapper);
+                            if (live==null)
+                                return;
 
-                        // mapping from type to type
-                        if (srcs!=null && tgts!=null) {
-                            for (DataSource src : srcs) {
-                                for (DataSource tgt : tgts) {
-                                    boolean spt = false;
-                                    try {
-                                        spt = caps.isMappingSupported(src, tgt);
-                                    } catch (Exception e) {
-                                        e.printStackTrace();
-                                    }
-                                    if (spt) {
-                                        List<DataSourceWrapper> dsws = new ArrayList<DataSourceWrapper>(2);
-                                        dsws.add(DataSourceWrapper.getInstance(
-                                            DataSourceUtil.getName(src), DataSourceWrapper.DsAttr.DATASOURCE));
-                                        dsws.add(DataSourceWrapper.getInstance(
-                                            DataSourceUtil.getName(tgt), DataSourceWrapper.DsAttr.DATASOURCE));
-                                        supportedMapping.add(dsws);
-                                    }
-                                }
+                            liveCaps.put(connStr, live);
+                            if (lastSeen==null) {
+                                thisDiscovery.index.add(live);
+                                added = true;
+                            } else if (!live.equals(lastSeen)) {
+                                changed.set(true);
                             }
+                        } finally {
+                            clientAnswered(thisDiscovery, clients, snapshot, liveCaps, changed, added);
                         }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // too many resources being discovered; count this one as failed
+                e.printStackTrace();
+                clientAnswered(thisDiscovery, clients, snapshot, liveCaps, changed, false);
+            }
+        }
+    }
 
-                        // AttributeMapper
-                        if (!(idMapper instanceof AttributeMapper))
-                            return;
+    private void clientAnswered(CapabilityDiscovery thisDiscovery, Set<IDMapperClient> clients,
+            CapabilitySnapshot snapshot, Map<String, CapabilityIndex.Client> liveCaps,
+            AtomicBoolean changed, boolean added) {
+        if (thisDiscovery.answered.incrementAndGet()==thisDiscovery.resources) {
+            capabilitiesRevalidated(thisDiscovery, clients, snapshot, liveCaps, changed.get());
+        } else if (added) {
+            fireCapabilityChange(thisDiscovery);
+        }
+    }
 
-                        AttributeMapper attrMapper = (AttributeMapper)idMapper;
-                        Set<String> attrs = null;
-                        try {
-                            attrs = attrMapper.getAttributeSet();
-                        } catch (Exception e) {
-                            e.printStackTrace();
-                        }
+    /**
+     * Called once all the resources answered: keep their capabilities for
+     * the next start, switch to them if they differ from the ones last
+     * seen, and complete the discovery.
+     */
+    private void capabilitiesRevalidated(CapabilityDiscovery thisDiscovery, Set<IDMapperClient> clients,
+            CapabilitySnapshot snapshot, Map<String, CapabilityIndex.Client> liveCaps,
+            boolean changed) {
+        try {
+            if (snapshot!=null && snapshot.putAll(liveCaps)) {
+                snapshot.save();
+            }
 
-                        if (attrs==null)
-                            return;
-
-                        for (String attr : attrs) {
-                            DataSourceWrapper dsw = DataSourceWrapper.getInstance(attr, DataSourceWrapper.DsAttr.ATTRIBUTE);
-                            if (attrMapper.isFreeAttributeSearchSupported()) {
-                                srcTypes.add(dsw);
-                                if (tgts!=null) {
-                                    for (DataSource tgt : tgts) {
-                                        List<DataSourceWrapper> dsws = new ArrayList<DataSourceWrapper>(2);
-                                        dsws.add(dsw);
-                                        dsws.add(DataSourceWrapper.getInstance(
-                                            tgt.getFullName(), DataSourceWrapper.DsAttr.DATASOURCE));
-                                        supportedMapping.add(dsws);
-                                    }
-                                }
-                            }
+            if (changed) {
+                CapabilityIndex live = new CapabilityIndex();
+                for (IDMapperClient client : clients) {
+                    CapabilityIndex.Client caps = liveCaps.get(client.getConnectionString());
+                    if (caps==null) {
+                        // the resource did not answer; keep what was last seen
+                        caps = snapshot.get(client.getConnectionString());
+                    }
+                    if (caps!=null) {
+                        live.add(caps);
+                    }
+                }
+                thisDiscovery.index = live;
+            }
+        } finally {
+            thisDiscovery.done.countDown();
+            fireCapabilityChange(thisDiscovery);
+        }
+    }
 
-                            tgtTypes.add(dsw);
-                            if (srcs!=null) {
-                                for (DataSource src : srcs) {
-                                    List<DataSourceWrapper> dsws = new ArrayList<DataSourceWrapper>(2);
-                                    dsws.add(DataSourceWrapper.getInstance(
-                                        src.getFullName(), DataSourceWrapper.DsAttr.DATASOURCE));
-                                    dsws.add(dsw);
-                                    supportedMapping.add(dsws);
-                                }
-                            }
-                        }
+    /**
+     * Discovery of the capabilities of the selected resources, started by
+     * {@link #cache()}.
+     */
+    private static class CapabilityDiscovery implements Future<Capabilities> {
+        private volatile CapabilityIndex index;
+        private final int resources;
+        private final boolean fromSnapshot;
+        private final AtomicInteger answered = new AtomicInteger();
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        CapabilityDiscovery(CapabilityIndex index, int resources, boolean fromSnapshot) {
+            this.index = index;
+            this.resources = resources;
+            this.fromSnapshot = fromSnapshot;
+        }
+
+        Capabilities getCurrent() {
+            // read done first, so that a complete result has the final index
+            boolean complete = isDone();
+            return new Capabilities(index, Math.min(answered.get(), resources), resources, complete);
+        }
+
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        public boolean isCancelled() {
+            return false;
+        }
+
+        public boolean isDone() {
+            return done.getCount()==0;
+        }
+
+        public Capabilities get() throws InterruptedException {
+            done.await();
+            return getCurrent();
+        }
+
+        public Capabilities get(long timeout, TimeUnit unit) throws InterruptedException,
+                TimeoutException {
+            if (!done.await(timeout, unit)) {
+                throw new TimeoutException();
+            }
+            return getCurrent();
+        }
+    }
+
+    /**
+     *
+     * @param idMapper
+     * @return the capabilities of the resource; null if they could not be
+     * retrieved
+     */
+    private static CapabilityIndex.Client getCapabilities(IDMapper idMapper) {
+        IDMapperCapabilities caps = idMapper.getCapabilities();
+
+        Set<DataSource> srcs, tgts;
+        try {
+            srcs = caps.getSupportedSrcDataSources();
+            tgts = caps.getSupportedTgtDataSources();
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+
+        CapabilityIndex.Client clientCaps = new CapabilityIndex.Client();
+        addCapabilities(idMapper, caps, srcs, tgts, clientCaps);
+        return clientCaps;
+    }
+
+    private static void addCapabilities(IDMapper idMapper, IDMapperCapabilities caps,
+            Set<DataSource> srcs, Set<DataSource> tgts,
+            CapabilityIndex.Client clientCaps) {
+        // srcTypes
+        int[] srcOrdinals = new int[0];
+        if (srcs!=null) {
+            srcOrdinals = new int[srcs.size()];
+            int i = 0;
+            for (DataSource ds : srcs) {
+                srcOrdinals[i++] = clientCaps.addSrcType(DataSourceWrapper.getInstance(
+                        DataSourceUtil.getName(ds), DataSourceWrapper.DsAttr.DATASOURCE));
+            }
+        }
+
+        // tgtTypes
+        int[] tgtOrdinals = new int[0];
+        if (tgts!=null) {
+            tgtOrdinals = new int[tgts.size()];
+            int i = 0;
+            for (DataSource ds : tgts) {
+                tgtOrdinals[i++] = clientCaps.addTgtType(DataSourceWrapper.getInstance(
+                        DataSourceUtil.getName(ds), DataSourceWrapper.DsAttr.DATASOURCE));
+            }
+        }
+
+        // mapping from type to type
+        if (srcs!=null && tgts!=null) {
+            int i = 0;
+            for (DataSource src : srcs) {
+                int j = 0;
+                for (DataSource tgt : tgts) {
+                    boolean spt = false;
+                    try {
+                        spt = caps.isMappingSupported(src, tgt);
+                    } catch (Exception e) {
+                        e.printStackTrace();
                     }
-                });
+                    if (spt) {
+                        clientCaps.addMapping(srcOrdinals[i], tgtOrdinals[j]);
+                    }
+                    j++;
+                }
+                i++;
             }
+        }
+
+        // AttributeMapper
+        if (!(idMapper instanceof AttributeMapper))
+            return;
+
+        AttributeMapper attrMapper = (AttributeMapper)idMapper;
+        Set<String> attrs = null;
+        try {
+            attrs = attrMapper.getAttributeSet();
         } catch (Exception e) {
             e.printStackTrace();
-            cacheStatus = CacheStatus.UNCACHED;
+        }
+
+        if (attrs==null)
+            return;
+
+        for (String attr : attrs) {
+            DataSourceWrapper dsw = DataSourceWrapper.getInstance(attr, DataSourceWrapper.DsAttr.ATTRIBUTE);
+            if (attrMapper.isFreeAttributeSearchSupported()) {
+                int src = clientCaps.addSrcType(dsw);
+                if (tgts!=null) {
+                    for (DataSource tgt : tgts) {
+                        clientCaps.addMapping(src, clientCaps.getOrdinal(DataSourceWrapper.getInstance(
+                            tgt.getFullName(), DataSourceWrapper.DsAttr.DATASOURCE)));
+                    }
+                }
+            }
+
+            int tgt = clientCaps.addTgtType(dsw);
+            if (srcs!=null) {
+                for (DataSource src : srcs) {
+                    clientCaps.addMapping(clientCaps.getOrdinal(DataSourceWrapper.getInstance(
+                        src.getFullName(), DataSourceWrapper.DsAttr.DATASOURCE)), tgt);
+                }
+            }
         }
     }
 }
@@ -0,0 +1,174 @@
+package org.bridgedb.cytoscape.internal;
+
+/*******************************************************************************
+ * Copyright 2010-2013 BridgeDb App developing team
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.bridgedb.cytoscape.internal.util.DataSourceWrapper;
+import org.bridgedb.cytoscape.internal.util.MappingResultCache;
+
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.model.CyNode;
+import org.cytoscape.model.CyRow;
+import org.cytoscape.model.CyTable;
+
+/**
+ * Records in the hidden node table what each target column of a node was
+ * mapped from: a digest of the source columns, their ID types, the target
+ * ID type, the selected resources and the source values of the node. A node
+ * whose digest is unchanged and whose target columns are filled does not
+ * need to be mapped again.
+ */
+class MappingDigests {
+    static final String COLUMN_PREFIX = "BridgeDb mapped from: ";
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final CyNetwork network;
+    private final List<String> srcAttrs;
+    // key: target column; value: digest of its mapping settings
+    private final Map<String, Long> tgtAttrDigests;
+
+    MappingDigests(CyNetwork network, Map<String,Set<DataSourceWrapper>> mapSrcAttrIDTypes,
+            Map<String, DataSourceWrapper> mapTgtAttrNameIDType,
+            Map<String,Class<?>> attrNameType, Set<IDMapperClient> clients) {
+        this.network = network;
+
+        // sort everything so that the digests do not depend on map orders
+        StringBuilder sources = new StringBuilder();
+        Map<String, Set<DataSourceWrapper>> sortedSrcs
+                = new TreeMap<String, Set<DataSourceWrapper>>(mapSrcAttrIDTypes);
+        for (Map.Entry<String, Set<DataSourceWrapper>> entry : sortedSrcs.entrySet()) {
+            sources.append(entry.getKey()).append('=')
+                    .append(new TreeSet<DataSourceWrapper>(entry.getValue())).append(';');
+        }
+        srcAttrs = new ArrayList<String>(sortedSrcs.keySet());
+        String resources = MappingResultCache.fingerprint(new ArrayList<IDMapperClient>(clients));
+
+        tgtAttrDigests = new LinkedHashMap<String, Long>();
+        for (Map.Entry<String, DataSourceWrapper> entry : mapTgtAttrNameIDType.entrySet()) {
+            String tgtAttr = entry.getKey();
+            Class<?> type = attrNameType.get(tgtAttr);
+            String settings = sources+"->"+entry.getValue()+":"+(type==null?"":type.getName())+"@"+resources;
+            tgtAttrDigests.put(tgtAttr, digest(FNV_OFFSET, settings));
+        }
+    }
+
+    /**
+     * Create the digest columns of the target columns if they do not exist.
+     */
+    void defineColumns() {
+        CyTable hiddenTable = network.getTable(CyNode.class, CyNetwork.HIDDEN_ATTRS);
+        for (String tgtAttr : tgtAttrDigests.keySet()) {
+            String column = COLUMN_PREFIX + tgtAttr;
+            if (hiddenTable.getColumn(column)!=null
+                    && hiddenTable.getColumn(column).getType()!=Long.class) {
+                hiddenTable.deleteColumn(column);
+            }
+            if (hiddenTable.getColumn(column)==null) {
+                hiddenTable.createColumn(column, Long.class, false);
+            }
+        }
+    }
+
+    /**
+     *
+     * @return digest of the mapping settings of all target columns
+     */
+    long getSettingsDigest() {
+        long hash = FNV_OFFSET;
+        for (Map.Entry<String, Long> entry : new TreeMap<String, Long>(tgtAttrDigests).entrySet()) {
+            hash = combine(digest(hash, entry.getKey()), entry.getValue());
+        }
+        return hash;
+    }
+
+    Set<String> getTargetColumns() {
+        return Collections.unmodifiableSet(tgtAttrDigests.keySet());
+    }
+
+    /**
+     *
+     * @param row row of the node in the node table
+     * @return digest of the source values of the node
+     */
+    long getSourceDigest(CyRow row) {
+        long hash = FNV_OFFSET;
+        for (String srcAttr : srcAttrs) {
+            Object value = row.getRaw(srcAttr);
+            hash = digest(hash, srcAttr);
+            hash = digest(hash, value==null ? "" : value.toString());
+        }
+        return hash;
+    }
+
+    /**
+     *
+     * @param node
+     * @param row row of the node in the node table
+     * @param sourceDigest
+     * @return true if all target columns of the node are filled and were
+     * mapped from the same sources
+     */
+    boolean isUpToDate(CyNode node, CyRow row, long sourceDigest) {
+        CyRow hiddenRow = network.getRow(node, CyNetwork.HIDDEN_ATTRS);
+        for (Map.Entry<String, Long> entry : tgtAttrDigests.entrySet()) {
+            Long digest = hiddenRow.get(COLUMN_PREFIX + entry.getKey(), Long.class);
+            if (digest==null || digest.longValue()!=combine(entry.getValue(), sourceDigest)
+                    || row.getRaw(entry.getKey())==null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Record that the target columns of the node were mapped from its
+     * current sources, through the writer.
+     */
+    void record(CyNode node, long sourceDigest, BulkTableWriter writer) {
+        CyRow hiddenRow = network.getRow(node, CyNetwork.HIDDEN_ATTRS);
+        for (Map.Entry<String, Long> entry : tgtAttrDigests.entrySet()) {
+            writer.setIfChanged(hiddenRow, COLUMN_PREFIX + entry.getKey(), combine(entry.getValue(), sourceDigest));
+        }
+    }
+
+    private static long combine(long settingsDigest, long sourceDigest) {
+        return (settingsDigest ^ sourceDigest) * FNV_PRIME;
+    }
+
+    // 64-bit FNV-1a
+    private static long digest(long hash, String str) {
+        for (int i=0; i<str.length(); i++) {
+            hash ^= str.charAt(i);
+            hash *= FNV_PRIME;
+        }
+        // separator, so that "ab"+"c" and "a"+"bc" differ
+        hash ^= 0xff;
+        hash *= FNV_PRIME;
+        return hash;
+    }
+}
@@ -17,22 +17,29 @@ package org.bridgedb.cytoscape.internal.task;
  * limitations under the License.
  ******************************************************************************/
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import org.bridgedb.cytoscape.internal.AttributeBasedIDMappingImpl;
+import org.bridgedb.cytoscape.internal.util.Capabilities;
 import org.bridgedb.cytoscape.internal.util.DataSourceWrapper;
 
 import org.cytoscape.work.AbstractTask;
 import org.cytoscape.work.TaskMonitor;
 
 import org.cytoscape.model.CyNetwork;
+import org.cytoscape.model.CyNetworkManager;
 
 import java.util.Set;
 import java.util.Map;
 import org.bridgedb.cytoscape.internal.AttributeBasedIDMapping;
 import org.bridgedb.cytoscape.internal.IDMapperClientManager;
+import javax.swing.SwingUtilities;
 import org.cytoscape.work.ObservableTask;
+import org.cytoscape.work.Task;
+import org.cytoscape.work.TaskIterator;
+import org.cytoscape.work.TaskManager;
 import org.cytoscape.work.Tunable;
 /**
  *
@@ -41,6 +48,11 @@ public class AttributeBasedIDMappingTask extends AbstractTask implements Observa
     @Tunable(description="Network to mapping identifiers in",context="nogui")
     public CyNetwork network;
     
+    @Tunable(description="Networks to map identifiers in at once, as a comma-separated list of"
+            + " network names or SUIDs (optional) -- identifiers shared by the networks are mapped once",
+            context="nogui")
+    public String networkList = null;
+    
     @Tunable(description="Source column in node table",context="nogui")
     public String sourceColumn;
     
@@ -57,6 +69,31 @@ public class AttributeBasedIDMappingTask extends AbstractTask implements Observa
             + " -- do not specify if use the globel resources", context="nogui")
     public String appName = null;
     
+    @Tunable(description="Number of ID mapping batches to send to the resources concurrently", context="nogui")
+    public int concurrentBatches = 1;
+    
+    @Tunable(description="Number of source identifiers per batch; 0 for the size the resources are tuned to, -1 for all in one batch", context="nogui")
+    public int batchSize = 0;
+    
+    @Tunable(description="Fill missing or changed values only, keeping the other values of the target column", context="nogui")
+    public boolean fillMissingOrChangedOnly = false;
+    
+    @Tunable(description="Keep existing target columns and only write the values that changed", context="nogui")
+    public boolean differentialWrite = false;
+    
+    @Tunable(description="Write the target columns once to the shared node table of each network collection", context="nogui")
+    public boolean sharedColumns = false;
+    
+    @Tunable(description="Write the identifiers mapped so far if the mapping is cancelled", context="nogui")
+    public boolean commitPartialOnCancel = true;
+    
+    @Tunable(description="Resume the last cancelled or interrupted mapping of the same networks with the same settings", context="nogui")
+    public boolean resume = false;
+    
+    @Tunable(description="Time in milliseconds after which the IDs mapped so far are written and the other nodes are mapped in the background; 0 for no deadline", context="nogui")
+    public int deadlineMillis = 0;
+    
+    private List<CyNetwork> networks;
     private Map<String,Set<DataSourceWrapper>> mapSrcAttrIDTypes;
     private Map<String, DataSourceWrapper> mapTgtAttrNameIDType;
     private Map<String,Class<?>> mapTgtAttrNameAttrType;
@@ -67,7 +104,14 @@ public class AttributeBasedIDMappingTask extends AbstractTask implements Observa
     
     private boolean byCommand = true;
     
-    public AttributeBasedIDMappingTask() {
+    private final CyNetworkManager cyNetworkManager;
+    
+    // executes the mapping of the nodes left when the deadline passes
+    private TaskManager taskManager = null;
+    
+    public AttributeBasedIDMappingTask(CyNetworkManager cyNetworkManager, TaskManager taskManager) {
+        this.cyNetworkManager = cyNetworkManager;
+        this.taskManager = taskManager;
     }
 
 	/**
@@ -80,16 +124,45 @@ public class AttributeBasedIDMappingTask extends AbstractTask implements Observa
                                        final Map<String,Set<DataSourceWrapper>> mapSrcAttrIDTypes,
                                        final Map<String, DataSourceWrapper> mapTgtAttrNameIDType,
                                        Map<String,Class<?>> mapTgtAttrNameAttrType) {
+            this(Collections.singletonList(network), mapSrcAttrIDTypes, mapTgtAttrNameIDType,
+                    mapTgtAttrNameAttrType);
+        }
+
+	/**
+         * 
+         * @param networks networks mapped at once
+         * @param mapSrcAttrIDTypes
+         * @param mapTgtAttrNameIDType
+         */
+	public AttributeBasedIDMappingTask(final List<CyNetwork> networks,
+                                       final Map<String,Set<DataSourceWrapper>> mapSrcAttrIDTypes,
+                                       final Map<String, DataSourceWrapper> mapTgtAttrNameIDType,
+                                       Map<String,Class<?>> mapTgtAttrNameAttrType) {
             byCommand = false;
-            this.network = network;
+            concurrentBatches = 4;
+            this.cyNetworkManager = null;
+            this.network = networks.get(0);
+            this.networks = networks;
             this.mapSrcAttrIDTypes = mapSrcAttrIDTypes;
             this.mapTgtAttrNameIDType = mapTgtAttrNameIDType;
             this.mapTgtAttrNameAttrType = mapTgtAttrNameAttrType;
 	}
         
+    /**
+     * 
+     * @param taskManager to execute the mapping of the nodes left when the
+     * deadline passes, as a task of its own; if null, it runs after this
+     * task
+     */
+    public void setTaskManager(TaskManager taskManager) {
+        this.taskManager = taskManager;
+    }
+        
     @Override
         public void cancel() {
-            mappingService.interrupt();
+            if (mappingService!=null) {
+                mappingService.interrupt(commitPartialOnCancel);
+            }
             success = false;
         }
 
@@ -105,12 +178,30 @@ public class AttributeBasedIDMappingTask extends AbstractTask implements Observa
             
 		 taskMonitor.setTitle("Mapping identifiers");
 		 try {
-			 mappingService.map(network, mapSrcAttrIDTypes, mapTgtAttrNameIDType, mapTgtAttrNameAttrType, byCommand?-1:100);
+			 mappingService.map(networks, mapSrcAttrIDTypes, mapTgtAttrNameIDType, mapTgtAttrNameAttrType,
+                                 batchSize, concurrentBatches,
+                                 fillMissingOrChangedOnly, differentialWrite, sharedColumns, resume,
+                                 deadlineMillis);
                          success = true;
+		 } catch (IllegalStateException e) {
+			 taskMonitor.showMessage(TaskMonitor.Level.ERROR, e.getMessage());
 		 } catch (Exception e) {
 			 taskMonitor.showMessage(TaskMonitor.Level.ERROR,"ID mapping failed.\n");
 			 e.printStackTrace();
 		 }
+                 
+                 final Task backgroundTask = mappingService.getBackgroundTask();
+                 if (backgroundTask!=null) {
+                     if (taskManager!=null) {
+                         SwingUtilities.invokeLater(new Runnable() {
+                             public void run() {
+                                 taskManager.execute(new TaskIterator(backgroundTask));
+                             }
+                         });
+                     } else {
+                         insertTasksAfterCurrentTask(backgroundTask);
+                     }
+                 }
 	}
         
         public boolean success() {
@@ -122,6 +213,16 @@ public class AttributeBasedIDMappingTask extends AbstractTask implements Observa
         }
         
     private boolean convertCommandParameters(final TaskMonitor taskMonitor) {
+        if (networkList != null) {
+            networks = parseNetworkList(taskMonitor);
+            if (networks == null) {
+                return false;
+            }
+            network = networks.get(0);
+        } else if (network != null) {
+            networks = Collections.singletonList(network);
+        }
+        
         if (network == null) {
             taskMonitor.showMessage(TaskMonitor.Level.ERROR, "Please specify a network.");
             return false;
@@ -132,10 +233,12 @@ public class AttributeBasedIDMappingTask extends AbstractTask implements Observa
             return false;
         }
         
-        if (null == network.getDefaultNodeTable().getColumn(sourceColumn)) {
-            taskMonitor.showMessage(TaskMonitor.Level.ERROR, "Could not find source node attribute "
-                    +sourceColumn);
-            return false;
+        for (CyNetwork net : networks) {
+            if (null == net.getDefaultNodeTable().getColumn(sourceColumn)) {
+                taskMonitor.showMessage(TaskMonitor.Level.ERROR, "Could not find source node attribute "
+                        +sourceColumn+(networks.size()>1 ? " in network "+net : ""));
+                return false;
+            }
         }
         
         if (sourceIdType == null) {
@@ -144,25 +247,48 @@ public class AttributeBasedIDMappingTask extends AbstractTask implements Observa
         }
         
         IDMapperClientManager idMapperClientManager = IDMapperClientManager.getIDMapperClientManager(appName);
-        Set<DataSourceWrapper> srcDataSources = idMapperClientManager.getSupportedSrcTypes();
-        Set<DataSourceWrapper> tgtDataSources = idMapperClientManager.getSupportedTgtTypes();
+        final DataSourceWrapper srcDsw = DataSourceWrapper.getInstance(sourceIdType);
+        final DataSourceWrapper tgtDsw = DataSourceWrapper.getInstance(targetIdType);
+
+        // go on as soon as a resource that answered supports both types
+        Capabilities capabilities;
+        try {
+            capabilities = new CapabilityWait() {
+                boolean isEnough(Capabilities capabilities) {
+                    return capabilities.getSrcTypes().contains(srcDsw)
+                            && capabilities.getTgtTypes().contains(tgtDsw);
+                }
+
+                boolean isCancelled() {
+                    return cancelled;
+                }
+            }.await(idMapperClientManager, taskMonitor);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        if (cancelled) {
+            return false;
+        }
+
+        String partial = capabilities.isComplete() ? "" : " ("+capabilities+")";
+        Set<DataSourceWrapper> srcDataSources = capabilities.getSrcTypes();
+        Set<DataSourceWrapper> tgtDataSources = capabilities.getTgtTypes();
         if (srcDataSources==null || srcDataSources.isEmpty()) {
             taskMonitor.setStatusMessage("No supported source or target id type."
-                    + " Please select mapping resources first.");
+                    + " Please select mapping resources first."+partial);
             return false;
         }
         
-        DataSourceWrapper srcDsw = DataSourceWrapper.getInstance(sourceIdType);
         if (!srcDataSources.contains(srcDsw)) {
             taskMonitor.showMessage(TaskMonitor.Level.ERROR, "Could not find source ID type "
-                    +sourceIdType);
+                    +sourceIdType+partial);
             return false;
         }
         
-        DataSourceWrapper tgtDsw = DataSourceWrapper.getInstance(targetIdType);
         if (!tgtDataSources.contains(tgtDsw)) {
             taskMonitor.showMessage(TaskMonitor.Level.ERROR, "Could not find target ID type "
-                    +targetIdType);
+                    +targetIdType+partial);
             return false;
         }
         
@@ -183,4 +309,44 @@ public class AttributeBasedIDMappingTask extends AbstractTask implements Observa
         
         return true;
     }
+    
+    /**
+     * 
+     * @return the networks of networkList, or null if one of them could not
+     * be found
+     */
+    private List<CyNetwork> parseNetworkList(final TaskMonitor taskMonitor) {
+        Set<CyNetwork> allNetworks = cyNetworkManager==null
+                ? Collections.<CyNetwork>emptySet() : cyNetworkManager.getNetworkSet();
+        Map<String, CyNetwork> networksByName = new HashMap<String, CyNetwork>();
+        for (CyNetwork net : allNetworks) {
+            String name = net.getRow(net).get(CyNetwork.NAME, String.class);
+            if (name != null) {
+                networksByName.put(name, net);
+            }
+            networksByName.put(net.getSUID().toString(), net);
+        }
+        
+        List<CyNetwork> nets = new ArrayList<CyNetwork>();
+        for (String str : networkList.split(",")) {
+            str = str.trim();
+            if (str.length() == 0) {
+                continue;
+            }
+            CyNetwork net = networksByName.get(str);
+            if (net == null) {
+                taskMonitor.showMessage(TaskMonitor.Level.ERROR, "Could not find network "+str);
+                return null;
+            }
+            if (!nets.contains(net)) {
+                nets.add(net);
+            }
+        }
+        
+        if (nets.isEmpty()) {
+            taskMonitor.showMessage(TaskMonitor.Level.ERROR, "Please specify at least one network.");
+            return null;
+        }
+        return nets;
+    }
 }
@@ -6,17 +6,26 @@
 
 package org.bridgedb.cytoscape.internal.task;
 
+import org.cytoscape.model.CyNetworkManager;
 import org.cytoscape.work.AbstractTaskFactory;
 import org.cytoscape.work.TaskIterator;
+import org.cytoscape.work.TaskManager;
 
 /**
  *
  * @author gaoj
  */
 public class AttributeBasedIDMappingTaskFactory extends AbstractTaskFactory {
+    private final CyNetworkManager cyNetworkManager;
+    private final TaskManager taskManager;
+
+    public AttributeBasedIDMappingTaskFactory(CyNetworkManager cyNetworkManager, TaskManager taskManager) {
+        this.cyNetworkManager = cyNetworkManager;
+        this.taskManager = taskManager;
+    }
 
     @Override
     public TaskIterator createTaskIterator() {
-        return new TaskIterator(new AttributeBasedIDMappingTask());
+        return new TaskIterator(new AttributeBasedIDMappingTask(cyNetworkManager, taskManager));
     }
 }
@@ -0,0 +1,77 @@
+package org.bridgedb.cytoscape.internal.task;
+
+/*******************************************************************************
+ * Copyright 2010-2013 BridgeDb App developing team
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.bridgedb.cytoscape.internal.IDMapperClientManager;
+import org.bridgedb.cytoscape.internal.util.Capabilities;
+import org.cytoscape.work.TaskMonitor;
+
+/**
+ * Waits in a task for the capabilities of the ID mapping resources, only as
+ * long as the ones known so far are not enough, reporting progress and
+ * stopping when the task is cancelled.
+ */
+abstract class CapabilityWait {
+    private static final long POLL_MILLIS = 500;
+
+    /**
+     *
+     * @param capabilities known so far
+     * @return true if they are enough to go on
+     */
+    abstract boolean isEnough(Capabilities capabilities);
+
+    /**
+     *
+     * @return true to stop waiting
+     */
+    abstract boolean isCancelled();
+
+    /**
+     *
+     * @param idMapperClientManager
+     * @param taskMonitor
+     * @return the capabilities once enough, complete, or the task cancelled;
+     * marked complete or partial
+     */
+    Capabilities await(IDMapperClientManager idMapperClientManager, TaskMonitor taskMonitor)
+            throws InterruptedException {
+        Future<Capabilities> future = idMapperClientManager.discoverCapabilities();
+        Capabilities capabilities = idMapperClientManager.getCapabilities();
+        while (!capabilities.isComplete() && !isEnough(capabilities) && !isCancelled()) {
+            taskMonitor.setStatusMessage("Loading ID types from the mapping resources ("
+                    + capabilities + ")");
+            if (capabilities.getResources()>0) {
+                taskMonitor.setProgress(1.0*capabilities.getAnsweredResources()/capabilities.getResources());
+            }
+            try {
+                capabilities = future.get(POLL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                capabilities = idMapperClientManager.getCapabilities();
+            } catch (ExecutionException e) {
+                e.printStackTrace();
+                break;
+            }
+        }
+        return capabilities;
+    }
+}
@@ -9,6 +9,7 @@ package org.bridgedb.cytoscape.internal.task;
 import java.util.HashSet;
 import java.util.Set;
 import org.bridgedb.cytoscape.internal.IDMapperClientManager;
+import org.bridgedb.cytoscape.internal.util.Capabilities;
 import org.bridgedb.cytoscape.internal.util.DataSourceWrapper;
 import org.cytoscape.work.AbstractTask;
 import org.cytoscape.work.TaskMonitor;
@@ -31,14 +32,28 @@ public class GetIDTypesTask extends AbstractTask {
     public void run(TaskMonitor tm) throws Exception {
         IDMapperClientManager idMapperClientManager = IDMapperClientManager.getIDMapperClientManager(appName);
         try {
+            // list all the types, unless cancelled
+            Capabilities capabilities = new CapabilityWait() {
+                boolean isEnough(Capabilities capabilities) {
+                    return false;
+                }
+
+                boolean isCancelled() {
+                    return cancelled;
+                }
+            }.await(idMapperClientManager, tm);
+
             StringBuilder message = new StringBuilder();
-            Set<DataSourceWrapper> srcDss = idMapperClientManager.getSupportedSrcTypes();
+            if (!capabilities.isComplete()) {
+                message.append("Partial results (").append(capabilities).append(")\n\n");
+            }
+            Set<DataSourceWrapper> srcDss = capabilities.getSrcTypes();
             message.append("There are ").append(srcDss.size()).append(" supported source ID types:\n");
             for (DataSourceWrapper ds : srcDss) {
                 message.append("\t").append(ds.value()).append("\n");
             }
             message.append("\n");
-            Set<DataSourceWrapper> tgtDss = idMapperClientManager.getSupportedTgtTypes();
+            Set<DataSourceWrapper> tgtDss = capabilities.getTgtTypes();
             message.append("There are ").append(tgtDss.size()).append(" supported target ID types:\n");
             for (DataSourceWrapper ds : tgtDss) {
                 message.append("\t").append(ds.value()).append("\n");
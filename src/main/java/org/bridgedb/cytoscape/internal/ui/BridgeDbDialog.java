@@ -65,6 +65,7 @@ import org.cytoscape.work.TaskManager;
 import org.cytoscape.work.TaskMonitor;
 import org.cytoscape.work.TaskObserver;
 import org.bridgedb.cytoscape.internal.IDMapperClientManager;
+import org.bridgedb.cytoscape.internal.util.Capabilities;
 import org.bridgedb.cytoscape.internal.util.DataSourceWrapper;
 import org.cytoscape.model.CyNetworkManager;
 
@@ -103,9 +104,57 @@ public class BridgeDbDialog extends javax.swing.JDialog {
         this.fileUtil = fileUtil;
         this.idMapperClientManager = idMapperClientManager;
         initComponents();
+        initOptionsPanel();
         postInit();
     }
 
+    /**
+     * Add the panel of the mapping options above the buttons. Not part of
+     * the generated form, so that regenerating it keeps them.
+     */
+    private void initOptionsPanel() {
+        javax.swing.JPanel optionsPanel = new javax.swing.JPanel();
+        optionsPanel.setBorder(javax.swing.BorderFactory.createTitledBorder("Options"));
+        optionsPanel.setLayout(new javax.swing.BoxLayout(optionsPanel, javax.swing.BoxLayout.Y_AXIS));
+
+        allNetworksCheckBox = new javax.swing.JCheckBox("Also map the other networks having the source columns");
+        allNetworksCheckBox.setToolTipText("Identifiers shared by the networks are only mapped once");
+        allNetworksCheckBox.setEnabled(networks.length>1);
+        optionsPanel.add(allNetworksCheckBox);
+
+        sharedColumnsCheckBox = new javax.swing.JCheckBox("Write to the columns shared by the network collection");
+        sharedColumnsCheckBox.setToolTipText("Nodes shared by the networks of a collection are only mapped once");
+        optionsPanel.add(sharedColumnsCheckBox);
+
+        resumeCheckBox = new javax.swing.JCheckBox("Resume the last cancelled mapping");
+        resumeCheckBox.setToolTipText("Only for the same networks with the same settings");
+        optionsPanel.add(resumeCheckBox);
+
+        differentialWriteCheckBox = new javax.swing.JCheckBox("Keep existing target columns and only write the values that changed");
+        differentialWriteCheckBox.setToolTipText("Otherwise the target columns are recreated");
+        optionsPanel.add(differentialWriteCheckBox);
+
+        // move the buttons one row down
+        java.awt.GridBagLayout layout = (java.awt.GridBagLayout)getContentPane().getLayout();
+        for (java.awt.Component component : getContentPane().getComponents()) {
+            java.awt.GridBagConstraints constraints = layout.getConstraints(component);
+            if (constraints.gridy>=OPTIONS_ROW) {
+                constraints.gridy++;
+                layout.setConstraints(component, constraints);
+            }
+        }
+
+        java.awt.GridBagConstraints gridBagConstraints = new java.awt.GridBagConstraints();
+        gridBagConstraints.gridx = 0;
+        gridBagConstraints.gridy = OPTIONS_ROW;
+        gridBagConstraints.fill = java.awt.GridBagConstraints.HORIZONTAL;
+        gridBagConstraints.weightx = 1.0;
+        gridBagConstraints.insets = new Insets(5, 5, 5, 0);
+        getContentPane().add(optionsPanel, gridBagConstraints);
+
+        pack();
+    }
+
     public void postInit() {
         updateOKButtonEnable();
 
@@ -123,6 +172,27 @@ public class BridgeDbDialog extends javax.swing.JDialog {
         targetAttributeSelectionTable.addRow();
 
 //        setSelectedNetworkInSrcTable();
+
+        idMapperClientManager.addCapabilityChangeListener(capabilityChangeListener);
+    }
+
+    // a resource answered while the ID types were being loaded
+    private final IDMapperClientManager.CapabilityChangeListener capabilityChangeListener
+            = new IDMapperClientManager.CapabilityChangeListener() {
+        public void capabilitiesChanged(Capabilities capabilities) {
+            SwingUtilities.invokeLater(new Runnable() {
+                public void run() {
+                    setSupportedSrcTypesInTable();
+                    setSupportedTgtTypesInTable();
+                }
+            });
+        }
+    };
+
+    @Override
+    public void dispose() {
+        idMapperClientManager.removeCapabilityChangeListener(capabilityChangeListener);
+        super.dispose();
     }
 
     /** This method is called from within the constructor to
@@ -324,10 +394,36 @@ public class BridgeDbDialog extends javax.swing.JDialog {
 //        // define target columns
 //        defineTgtAttributes(mapTgtAttrNameAttrType);
 
+        // networks to map
+        List<CyNetwork> selectedNetworks = new ArrayList<CyNetwork>();
+        selectedNetworks.add(currentNetwork);
+        if (allNetworksCheckBox.isSelected()) {
+            for (CyNetwork network : networks) {
+                if (network==currentNetwork) {
+                    continue;
+                }
+                CyTable table = network.getDefaultNodeTable();
+                boolean hasSrcColumns = true;
+                for (String attrName : mapSrcAttrIDTypes.keySet()) {
+                    if (table.getColumn(attrName)==null) {
+                        hasSrcColumns = false;
+                        break;
+                    }
+                }
+                if (hasSrcColumns) {
+                    selectedNetworks.add(network);
+                }
+            }
+        }
+
         // execute task
         final AttributeBasedIDMappingTask task
-                = new AttributeBasedIDMappingTask(currentNetwork, mapSrcAttrIDTypes,
+                = new AttributeBasedIDMappingTask(selectedNetworks, mapSrcAttrIDTypes,
                         mapTgtAttrNameIDType, mapTgtAttrNameAttrType);
+        task.sharedColumns = sharedColumnsCheckBox.isSelected();
+        task.resume = resumeCheckBox.isSelected();
+        task.differentialWrite = differentialWriteCheckBox.isSelected();
+        task.setTaskManager(taskManager);
         final BridgeDbDialog thisDialog = this;
 
         // Execute Task in New Thread; pop open JTask Dialog Box.
@@ -504,12 +600,24 @@ public class BridgeDbDialog extends javax.swing.JDialog {
     }
 
     private void setSupportedSrcTypesInTable() {
-        sourceAttributeSelectionTable.setSupportedIDType();
+        Capabilities capabilities = idMapperClientManager.getCapabilities();
+        sourceAttributeSelectionTable.setSupportedIDType(capabilities);
+        showCapabilityStatus(capabilities);
     }
 
     private void setSupportedTgtTypesInTable() {
         Set<DataSourceWrapper> sourceDss = sourceAttributeSelectionTable.getSelectedIDTypes();
-        targetAttributeSelectionTable.setSupportedIDType(sourceDss);
+        targetAttributeSelectionTable.setSupportedIDType(sourceDss,
+                idMapperClientManager.getCapabilities());
+    }
+
+    private void showCapabilityStatus(Capabilities capabilities) {
+        if (capabilities.isComplete()) {
+            setTitle("BridgeDb");
+        } else {
+            setTitle("BridgeDb (loading ID types: "+capabilities.getAnsweredResources()
+                    +" of "+capabilities.getResources()+" resources answered)");
+        }
     }
 
 //    private void setSelectedNetworkInSrcTable() {
@@ -572,6 +680,13 @@ public class BridgeDbDialog extends javax.swing.JDialog {
     private javax.swing.JButton OKBtn;
     private javax.swing.JComboBox networkComboBox;
 
+    // the row of the options panel, below the source and target tables
+    private static final int OPTIONS_ROW = 3;
+    private javax.swing.JCheckBox allNetworksCheckBox;
+    private javax.swing.JCheckBox sharedColumnsCheckBox;
+    private javax.swing.JCheckBox resumeCheckBox;
+    private javax.swing.JCheckBox differentialWriteCheckBox;
+
     private class ApplySourceChangeTask extends AbstractTask {
 
         public ApplySourceChangeTask() {
@@ -44,8 +44,12 @@ import org.bridgedb.cytoscape.internal.ui.checktree.TreePathSelectable;
 import org.bridgedb.cytoscape.internal.ui.checktree.SelectionChangeListener;
 import org.bridgedb.cytoscape.internal.ui.checktree.SelectionChangeEvent;
 
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.util.HashMap;
+import java.util.Map;
 
 import javax.swing.JDialog;
 import javax.swing.JComponent;
@@ -57,6 +61,7 @@ import javax.swing.tree.DefaultTreeModel;
 import javax.swing.JPopupMenu;
 import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
+import javax.swing.Timer;
 import org.cytoscape.util.swing.FileUtil;
 import org.cytoscape.util.swing.OpenBrowser;
 import org.cytoscape.work.TaskManager;
@@ -91,6 +96,17 @@ class IDMappingSourceSelectionTree extends JTree {
 	private final String ws = "Web Services";
 	private final String file = "Local/Remote Files";
 
+	// refresh the connection states shown while the clients connect
+	private static final int CONNECTION_STATE_REFRESH_MILLIS = 500;
+	private final Map<IDMapperClient, IDMapperClient.ConnectionState> shownStates
+			= new HashMap<IDMapperClient, IDMapperClient.ConnectionState>();
+	private final Timer connectionStateTimer = new Timer(CONNECTION_STATE_REFRESH_MILLIS,
+			new ActionListener() {
+				public void actionPerformed(ActionEvent e) {
+					refreshConnectionStates();
+				}
+			});
+
 	/**
 	 * for using window builder
 	 */
@@ -200,6 +216,67 @@ class IDMappingSourceSelectionTree extends JTree {
 		return modified;
 	}
 
+	@Override
+	public void addNotify() {
+		super.addNotify();
+		connectionStateTimer.start();
+	}
+
+	@Override
+	public void removeNotify() {
+		connectionStateTimer.stop();
+		super.removeNotify();
+	}
+
+	/**
+	 * Show the connection state of a client after its name.
+	 */
+	@Override
+	public String convertValueToText(Object value, boolean selected,
+			boolean expanded, boolean leaf, int row, boolean hasFocus) {
+		String text = super.convertValueToText(value, selected, expanded, leaf,
+				row, hasFocus);
+		if (value instanceof DefaultMutableTreeNode) {
+			Object userObj = ((DefaultMutableTreeNode) value).getUserObject();
+			if (userObj instanceof IDMapperClient) {
+				IDMapperClient client = (IDMapperClient) userObj;
+				switch (client.getConnectionState()) {
+				case CONNECTING:
+					return text + " (connecting...)";
+				case TIMED_OUT:
+					return text + " (connection timed out)";
+				case FAILED:
+					return text + " (connection failed)";
+				default:
+					return text;
+				}
+			}
+		}
+		return text;
+	}
+
+	private void refreshConnectionStates() {
+		if (tree_Model == null)
+			return;
+		DefaultMutableTreeNode[] typeNodes = new DefaultMutableTreeNode[] {
+				dbTreeNode, wsTreeNode, fileTreeNode };
+		for (DefaultMutableTreeNode typeNode : typeNodes) {
+			for (int i = 0; i < typeNode.getChildCount(); i++) {
+				DefaultMutableTreeNode clientNode = (DefaultMutableTreeNode) typeNode
+						.getChildAt(i);
+				Object userObj = clientNode.getUserObject();
+				if (!(userObj instanceof IDMapperClient))
+					continue;
+				IDMapperClient client = (IDMapperClient) userObj;
+				IDMapperClient.ConnectionState state = client.getConnectionState();
+				if (shownStates.put(client, state) != state) {
+					// the label changed its width
+					tree_Model.nodeChanged(clientNode);
+				}
+			}
+		}
+	}
+
 	private void setupTree() {
 		// set up tree
 		rootNode = new DefaultMutableTreeNode(root);
@@ -218,6 +295,7 @@ class IDMappingSourceSelectionTree extends JTree {
 
 		tree_Model = new DefaultTreeModel(rootNode);
 		this.setModel(tree_Model);
+		shownStates.clear();
 
 		boolean expandFile = false;
 		boolean expandWs = false;
@@ -38,6 +38,7 @@ package org.bridgedb.cytoscape.internal.ui;
 import org.cytoscape.model.CyNetwork;
 import org.cytoscape.model.CyNode;
 import org.bridgedb.cytoscape.internal.IDMapperClientManager;
+import org.bridgedb.cytoscape.internal.util.Capabilities;
 import org.bridgedb.cytoscape.internal.util.DataSourceWrapper;
 
 import java.util.ArrayList;
@@ -283,13 +284,12 @@ public final class SourceAttributeSelectionTable extends JTable {
 //            return List.class.isAssignableFrom(type);
 //        }
 
-	void setSupportedIDType() {
+	void setSupportedIDType(Capabilities capabilities) {
 
 		Map<String, Set<DataSourceWrapper>> oldMap = getSourceAttrType();
 
 		supportedIDType = new LinkedHashSet<DataSourceWrapper>();
-		supportedIDType.addAll(new TreeSet<DataSourceWrapper>(idMapperClientManager
-				.getSupportedSrcTypes()));
+		supportedIDType.addAll(new TreeSet<DataSourceWrapper>(capabilities.getSrcTypes()));
 
 		// select the id type previously selected
 		this.setSourceAttrType(oldMap);
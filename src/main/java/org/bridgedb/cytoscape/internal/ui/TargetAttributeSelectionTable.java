@@ -36,6 +36,7 @@
 package org.bridgedb.cytoscape.internal.ui;
 
 import org.bridgedb.cytoscape.internal.IDMapperClientManager;
+import org.bridgedb.cytoscape.internal.util.Capabilities;
 import org.bridgedb.cytoscape.internal.util.DataSourceWrapper;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -152,19 +153,11 @@ public class TargetAttributeSelectionTable extends JTable {
 		setColumnEditorAndCellRenderer();
 	}
 
-	public void setSupportedIDType(Set<DataSourceWrapper> sourceDss) {
+	public void setSupportedIDType(Set<DataSourceWrapper> sourceDss, Capabilities capabilities) {
 		List<DataSourceWrapper> oldDss = this.getTgtIDTypes();
 
-		supportedIDType = new LinkedHashSet<DataSourceWrapper>();
-		for (DataSourceWrapper tgt : new TreeSet<DataSourceWrapper>(
-				idMapperClientManager.getSupportedTgtTypes())) {
-			for (DataSourceWrapper src : sourceDss) {
-				if (idMapperClientManager.isMappingSupported(src, tgt)) {
-					supportedIDType.add(tgt);
-					break;
-				}
-			}
-		}
+		supportedIDType = new LinkedHashSet<DataSourceWrapper>(
+				capabilities.getReachableTgtTypes(sourceDss));
 
 		idTypeComboBoxes.clear();
 		for (int i = 0; i < rowCount; i++) {
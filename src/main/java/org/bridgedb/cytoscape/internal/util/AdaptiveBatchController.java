@@ -0,0 +1,222 @@
+package org.bridgedb.cytoscape.internal.util;
+
+/*******************************************************************************
+ * Copyright 2010-2013 BridgeDb App developing team
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.bridgedb.cytoscape.internal.IDMapperClient;
+
+/**
+ * Tunes the number of xrefs sent to a resource in one request and the number
+ * of requests in flight at the same time, by additive increase and
+ * multiplicative decrease (AIMD): both grow while requests succeed within
+ * the target latency of the resource type, and are halved when a request
+ * fails or is too slow.
+ *
+ * There is one controller per resource, started from the profile of its
+ * client type, so that a local file gets huge batches while a webservice
+ * is probed carefully. Until a client is connected its type is only
+ * guessed from its connection string; the controller is started again
+ * from the right profile once the type is known.
+ */
+public class AdaptiveBatchController {
+
+    /**
+     * Starting point and bounds of the controllers for a client type.
+     */
+    private enum Profile {
+        //          batch: initial, min, max, increment; in flight: initial, max; target latency ms
+        FILE       (10000, 1000, 200000, 10000, 1, 1, 10000),
+        RDB        ( 5000,  500, 100000,  5000, 1, 1, 10000), // SimpleGdb is not thread-safe
+        WEBSERVICE (  100,   10,   2000,    50, 2, 16, 2000),
+        OTHER      (  100,   10,   1000,    50, 1, 1, 5000);
+
+        final int initialBatchSize;
+        final int minBatchSize;
+        final int maxBatchSize;
+        final int batchSizeIncrement;
+        final int initialInFlight;
+        final int maxInFlight;
+        final long targetLatencyMillis;
+
+        Profile(int initialBatchSize, int minBatchSize, int maxBatchSize, int batchSizeIncrement,
+                int initialInFlight, int maxInFlight, long targetLatencyMillis) {
+            this.initialBatchSize = initialBatchSize;
+            this.minBatchSize = minBatchSize;
+            this.maxBatchSize = maxBatchSize;
+            this.batchSizeIncrement = batchSizeIncrement;
+            this.initialInFlight = initialInFlight;
+            this.maxInFlight = maxInFlight;
+            this.targetLatencyMillis = targetLatencyMillis;
+        }
+
+        static Profile of(IDMapperClient.ClientType clientType) {
+            if (clientType==null) {
+                return OTHER;
+            }
+            switch (clientType) {
+                case FILE: return FILE;
+                case RDB: return RDB;
+                case WEBSERVICE: return WEBSERVICE;
+                default: return OTHER;
+            }
+        }
+    }
+
+    private static final Map<String, AdaptiveBatchController> controllers
+            = new HashMap<String, AdaptiveBatchController>();
+
+    /**
+     *
+     * @param client
+     * @return the controller of the resource, shared by all mapping runs
+     *      of the same client type
+     */
+    public static AdaptiveBatchController getInstance(IDMapperClient client) {
+        synchronized (controllers) {
+            String key = client.getConnectionString();
+            Profile profile = Profile.of(client.getClientType());
+            AdaptiveBatchController controller = controllers.get(key);
+            // what was learned from the profile of a wrong guess is dropped
+            if (controller==null || controller.profile!=profile) {
+                controller = new AdaptiveBatchController(profile);
+                controllers.put(key, controller);
+            }
+            return controller;
+        }
+    }
+
+    /**
+     * Forget the controller of a resource, once removed.
+     * @param connStr
+     */
+    public static void remove(String connStr) {
+        synchronized (controllers) {
+            controllers.remove(connStr);
+        }
+    }
+
+    /**
+     * Forget the controllers of all resources, when the app stops.
+     */
+    public static void clear() {
+        synchronized (controllers) {
+            controllers.clear();
+        }
+    }
+
+    /**
+     *
+     * @param clients
+     * @return the largest batch size of the resources, so that each of them
+     * can cut it into requests of its own size
+     */
+    public static int getBatchSize(Collection<IDMapperClient> clients) {
+        int batchSize = Profile.OTHER.initialBatchSize;
+        for (IDMapperClient client : clients) {
+            batchSize = Math.max(batchSize, getInstance(client).getBatchSize());
+        }
+        return batchSize;
+    }
+
+    private final Profile profile;
+    private int batchSize;
+    private int maxInFlight;
+    private int inFlight = 0;
+    private int successesSinceIncrease = 0;
+    private long requests = 0;
+    private long failures = 0;
+
+    private AdaptiveBatchController(Profile profile) {
+        this.profile = profile;
+        this.batchSize = profile.initialBatchSize;
+        this.maxInFlight = profile.initialInFlight;
+    }
+
+    public synchronized int getBatchSize() {
+        return batchSize;
+    }
+
+    public synchronized int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * Wait until one more request may be sent to the resource.
+     * Each call must be followed by {@link #release()}.
+     * @throws InterruptedException
+     */
+    public synchronized void acquire() throws InterruptedException {
+        // no new request once the mapping is cancelled
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        while (inFlight>=maxInFlight) {
+            wait();
+        }
+        inFlight++;
+    }
+
+    public synchronized void release() {
+        inFlight--;
+        notifyAll();
+    }
+
+    /**
+     * Record a request of several xrefs.
+     * @param elapsedNanos
+     * @param failed
+     */
+    public synchronized void recordBatch(long elapsedNanos, boolean failed) {
+        if (failed || elapsedNanos/1000000>profile.targetLatencyMillis) {
+            batchSize = Math.max(profile.minBatchSize, batchSize/2);
+        } else {
+            batchSize = Math.min(profile.maxBatchSize, batchSize+profile.batchSizeIncrement);
+        }
+        recordCall(elapsedNanos, failed);
+    }
+
+    /**
+     * Record a request of a single value.
+     * @param elapsedNanos
+     * @param failed
+     */
+    public synchronized void recordCall(long elapsedNanos, boolean failed) {
+        requests++;
+        if (failed || elapsedNanos/1000000>profile.targetLatencyMillis) {
+            if (failed) {
+                failures++;
+            }
+            maxInFlight = Math.max(1, maxInFlight/2);
+            successesSinceIncrease = 0;
+        } else if (++successesSinceIncrease>=maxInFlight) {
+            // one more request in flight for each round of successful requests
+            maxInFlight = Math.min(profile.maxInFlight, maxInFlight+1);
+            successesSinceIncrease = 0;
+        }
+        notifyAll();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "batch size "+batchSize+", up to "+maxInFlight+" requests in flight, "
+                +failures+" of "+requests+" requests failed";
+    }
+}
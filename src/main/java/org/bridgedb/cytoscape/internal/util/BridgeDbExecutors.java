@@ -0,0 +1,188 @@
+package org.bridgedb.cytoscape.internal.util;
+
+/*******************************************************************************
+ * Copyright 2010-2013 BridgeDb App developing team
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The threads of the app. Background work runs in one bounded pool per
+ * purpose, with named daemon threads that stop when idle. The pools are
+ * created when the app starts and shut down when it stops, along with the
+ * pools of the running mapping jobs.
+ */
+public class BridgeDbExecutors {
+
+    public enum Purpose {
+        /** connecting to resources and reading web services */
+        CONNECT("connect", 8, 64, false),
+        /** discovering the capabilities of resources */
+        CAPABILITY("capability", 8, 256, false),
+        /** querying resources while mapping */
+        MAPPING("mapping", 32, 1024, true);
+
+        private final String name;
+        private final int threads;
+        private final int queueSize;
+        private final boolean callerRunsWhenFull;
+
+        private Purpose(String name, int threads, int queueSize, boolean callerRunsWhenFull) {
+            this.name = name;
+            this.threads = threads;
+            this.queueSize = queueSize;
+            this.callerRunsWhenFull = callerRunsWhenFull;
+        }
+    }
+
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static final Map<Purpose, ThreadPoolExecutor> pools
+            = new EnumMap<Purpose, ThreadPoolExecutor>(Purpose.class);
+    private static final Set<ExecutorService> jobPools
+            = Collections.newSetFromMap(new WeakHashMap<ExecutorService, Boolean>());
+
+    private BridgeDbExecutors() {
+    }
+
+    /**
+     * Create the pools, when the app starts.
+     */
+    public static synchronized void start() {
+        for (Purpose purpose : Purpose.values()) {
+            getPool(purpose);
+        }
+    }
+
+    /**
+     * Stop the threads of the pools and of the running mapping jobs, when
+     * the app stops.
+     */
+    public static synchronized void shutdown() {
+        for (ThreadPoolExecutor pool : pools.values()) {
+            pool.shutdownNow();
+        }
+        pools.clear();
+        for (ExecutorService pool : jobPools) {
+            pool.shutdownNow();
+        }
+        jobPools.clear();
+    }
+
+    /**
+     *
+     * @param purpose
+     * @return the pool for the purpose; created if the app was not started,
+     * e.g. when used as a library
+     */
+    public static synchronized ExecutorService get(Purpose purpose) {
+        return getPool(purpose);
+    }
+
+    /**
+     * Create a pool for the threads of one mapping job, shut down by the
+     * job or when the app stops.
+     * @param name
+     * @param threads
+     * @return
+     */
+    public static synchronized ExecutorService newJobPool(String name, int threads) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("BridgeDb "+name));
+        jobPools.add(pool);
+        return pool;
+    }
+
+    /**
+     *
+     * @param purpose
+     * @return fraction of the threads of the pool busy
+     */
+    public static synchronized double getUtilization(Purpose purpose) {
+        ThreadPoolExecutor pool = pools.get(purpose);
+        return pool==null ? 0 : 1.0*pool.getActiveCount()/purpose.threads;
+    }
+
+    /**
+     *
+     * @return utilization of each pool
+     */
+    public static synchronized String getMetrics() {
+        StringBuilder metrics = new StringBuilder();
+        for (Map.Entry<Purpose, ThreadPoolExecutor> entry : pools.entrySet()) {
+            ThreadPoolExecutor pool = entry.getValue();
+            if (metrics.length()>0) {
+                metrics.append("; ");
+            }
+            metrics.append(entry.getKey().name).append(": ")
+                    .append(pool.getActiveCount()).append(" of ").append(entry.getKey().threads)
+                    .append(" threads busy, ").append(pool.getQueue().size()).append(" queued, ")
+                    .append(pool.getCompletedTaskCount()).append(" done, at most ")
+                    .append(pool.getLargestPoolSize()).append(" threads");
+        }
+        int jobs = 0;
+        for (ExecutorService pool : jobPools) {
+            if (!pool.isShutdown()) {
+                jobs++;
+            }
+        }
+        metrics.append("; ").append(jobs).append(" mapping jobs running");
+        return metrics.toString();
+    }
+
+    private static ThreadPoolExecutor getPool(Purpose purpose) {
+        ThreadPoolExecutor pool = pools.get(purpose);
+        if (pool==null) {
+            RejectedExecutionHandler handler = purpose.callerRunsWhenFull
+                    ? new ThreadPoolExecutor.CallerRunsPolicy()
+                    : new ThreadPoolExecutor.AbortPolicy();
+            pool = new ThreadPoolExecutor(purpose.threads, purpose.threads,
+                    KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(purpose.queueSize),
+                    new NamedThreadFactory("BridgeDb "+purpose.name), handler);
+            pool.allowCoreThreadTimeOut(true);
+            pools.put(purpose, pool);
+        }
+        return pool;
+    }
+
+    private static class NamedThreadFactory implements ThreadFactory {
+        private final String name;
+        private final AtomicInteger count = new AtomicInteger();
+
+        NamedThreadFactory(String name) {
+            this.name = name;
+        }
+
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, name+" #"+count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
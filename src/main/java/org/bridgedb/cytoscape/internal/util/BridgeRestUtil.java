@@ -41,9 +41,10 @@ import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import java.net.URL;
 import java.net.URLConnection;
@@ -55,6 +56,8 @@ import java.net.URLConnection;
 public class BridgeRestUtil {
     private BridgeRestUtil(){}
 
+    private static final int READ_TIMEOUT_SECONDS = 10;
+
     public static String defaultBaseUrl = "http://webservice.bridgedb.org";
 
     public static List<String> supportedOrganisms(String baseUrl) {
@@ -85,36 +88,46 @@ public class BridgeRestUtil {
     }
 
     private static List<String> readUrl(final String strUrl) {
-        final List<String> ret = new ArrayList<String>();
-        
-        ExecutorService executor = Executors.newSingleThreadExecutor();
-        executor.execute(new Runnable() {
-            public void run() {
-                try {
+        Future<List<String>> reading;
+        try {
+            reading = BridgeDbExecutors.get(BridgeDbExecutors.Purpose.CONNECT)
+                    .submit(new Callable<List<String>>() {
+                public List<String> call() throws Exception {
+                    List<String> lines = new ArrayList<String>();
                     URL url = new URL(strUrl);
                     URLConnection yc = url.openConnection();
+                    // do not keep a thread of the pool blocked on a stuck
+                    // web service
+                    yc.setConnectTimeout(READ_TIMEOUT_SECONDS*1000);
+                    yc.setReadTimeout(READ_TIMEOUT_SECONDS*1000);
                     BufferedReader in = new BufferedReader(
                                             new InputStreamReader(
                                             yc.getInputStream()));
-
-                    String inputLine;
-                    while ((inputLine = in.readLine()) != null)
-                        ret.add(inputLine);
-                    in.close();
-                } catch (Exception e) {
-                    e.printStackTrace();
+                    try {
+                        String inputLine;
+                        while ((inputLine = in.readLine()) != null)
+                            lines.add(inputLine);
+                    } finally {
+                        in.close();
+                    }
+                    return lines;
                 }
-            }
-        });
+            });
+        } catch (Exception e) {
+            e.printStackTrace();
+            return new ArrayList<String>();
+        }
 
         try {
-            if (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
-                executor.shutdown();
-            }
+            return reading.get(READ_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            System.err.println("Timed out reading "+strUrl);
+            reading.cancel(true);
+            return new ArrayList<String>();
         } catch (Exception e) {
+            reading.cancel(true);
             e.printStackTrace();
+            return new ArrayList<String>();
         }
-
-        return ret;
     }
 }
@@ -0,0 +1,102 @@
+package org.bridgedb.cytoscape.internal.util;
+
+/*******************************************************************************
+ * Copyright 2010-2013 BridgeDb App developing team
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * The mapping capabilities of the selected resources as known at some point
+ * of their discovery. They are complete once every resource answered or
+ * failed; until then they hold the capabilities last seen and the answers
+ * received so far.
+ */
+public class Capabilities {
+    private final CapabilityIndex index;
+    private final int answeredResources;
+    private final int resources;
+    private final boolean complete;
+
+    public Capabilities(CapabilityIndex index, int answeredResources, int resources,
+            boolean complete) {
+        this.index = index;
+        this.answeredResources = answeredResources;
+        this.resources = resources;
+        this.complete = complete;
+    }
+
+    /**
+     *
+     * @return true if every resource answered or failed
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     *
+     * @return number of resources that answered or failed so far
+     */
+    public int getAnsweredResources() {
+        return answeredResources;
+    }
+
+    /**
+     *
+     * @return number of resources being discovered
+     */
+    public int getResources() {
+        return resources;
+    }
+
+    /**
+     *
+     * @return supported source ID types
+     */
+    public Set<DataSourceWrapper> getSrcTypes() {
+        return index.getSrcTypes();
+    }
+
+    /**
+     *
+     * @return supported target ID types
+     */
+    public Set<DataSourceWrapper> getTgtTypes() {
+        return index.getTgtTypes();
+    }
+
+    public boolean isMappingSupported(DataSourceWrapper srcType, DataSourceWrapper tgtType) {
+        return index.isMappingSupported(srcType, tgtType);
+    }
+
+    /**
+     *
+     * @param srcTypes
+     * @return target ID types supported from at least one of the source
+     * types, sorted
+     */
+    public Set<DataSourceWrapper> getReachableTgtTypes(Collection<DataSourceWrapper> srcTypes) {
+        return index.getReachableTgtTypes(srcTypes);
+    }
+
+    @Override
+    public String toString() {
+        return complete ? "complete"
+                : "partial: "+answeredResources+" of "+resources+" resources answered";
+    }
+}
@@ -0,0 +1,325 @@
+package org.bridgedb.cytoscape.internal.util;
+
+/*******************************************************************************
+ * Copyright 2010-2013 BridgeDb App developing team
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Mapping capabilities of a set of resources. Each ID type or attribute is
+ * given a dense ordinal; the source and target types are kept as bitsets,
+ * and the supported mappings as one bitset of target types per source type,
+ * so that a mapping check is a bit test and the targets reachable from a set
+ * of source types are the union of their rows. Those unions are remembered
+ * until the capabilities change.
+ */
+public class CapabilityIndex {
+    private final Map<DataSourceWrapper, Integer> ordinals = new HashMap<DataSourceWrapper, Integer>();
+    private final List<DataSourceWrapper> types = new ArrayList<DataSourceWrapper>();
+
+    private final BitSet srcTypes = new BitSet();
+    private final BitSet tgtTypes = new BitSet();
+    private final List<BitSet> rows = new ArrayList<BitSet>();
+
+    private final Map<BitSet, Set<DataSourceWrapper>> reachable = new HashMap<BitSet, Set<DataSourceWrapper>>();
+
+    /**
+     * Add the capabilities of a resource.
+     * @param client
+     */
+    public synchronized void add(Client client) {
+        // translate the ordinals of the client to the ones of this index
+        int[] ordinals = new int[client.types.size()];
+        for (int i=0; i<ordinals.length; i++) {
+            ordinals[i] = ordinal(client.types.get(i));
+        }
+
+        for (int i = client.srcTypes.nextSetBit(0); i>=0; i = client.srcTypes.nextSetBit(i+1)) {
+            srcTypes.set(ordinals[i]);
+        }
+        for (int i = client.tgtTypes.nextSetBit(0); i>=0; i = client.tgtTypes.nextSetBit(i+1)) {
+            tgtTypes.set(ordinals[i]);
+        }
+        for (int i=0; i<client.rows.size(); i++) {
+            BitSet row = client.rows.get(i);
+            if (row!=null) {
+                BitSet indexRow = getRow(rows, ordinals[i]);
+                for (int j = row.nextSetBit(0); j>=0; j = row.nextSetBit(j+1)) {
+                    indexRow.set(ordinals[j]);
+                }
+            }
+        }
+        reachable.clear();
+    }
+
+    /**
+     *
+     * @return the types that can be mapped from
+     */
+    public synchronized Set<DataSourceWrapper> getSrcTypes() {
+        return toSet(srcTypes);
+    }
+
+    /**
+     *
+     * @return the types that can be mapped to
+     */
+    public synchronized Set<DataSourceWrapper> getTgtTypes() {
+        return toSet(tgtTypes);
+    }
+
+    public synchronized boolean isMappingSupported(DataSourceWrapper srcType, DataSourceWrapper tgtType) {
+        Integer src = ordinals.get(srcType);
+        Integer tgt = ordinals.get(tgtType);
+        if (src==null || tgt==null || src>=rows.size()) {
+            return false;
+        }
+        BitSet row = rows.get(src);
+        return row!=null && row.get(tgt);
+    }
+
+    /**
+     *
+     * @param srcTypes
+     * @return the types that can be mapped to from at least one of the
+     * source types, sorted
+     */
+    public synchronized Set<DataSourceWrapper> getReachableTgtTypes(Collection<DataSourceWrapper> srcTypes) {
+        BitSet srcs = new BitSet();
+        for (DataSourceWrapper srcType : srcTypes) {
+            Integer src = ordinals.get(srcType);
+            if (src!=null) {
+                srcs.set(src);
+            }
+        }
+
+        Set<DataSourceWrapper> tgts = reachable.get(srcs);
+        if (tgts==null) {
+            BitSet union = new BitSet();
+            for (int src = srcs.nextSetBit(0); src>=0 && src<rows.size(); src = srcs.nextSetBit(src+1)) {
+                BitSet row = rows.get(src);
+                if (row!=null) {
+                    union.or(row);
+                }
+            }
+            tgts = Collections.unmodifiableSet(new LinkedHashSet<DataSourceWrapper>(
+                    new TreeSet<DataSourceWrapper>(toSet(union))));
+            reachable.put(srcs, tgts);
+        }
+        return tgts;
+    }
+
+    private int ordinal(DataSourceWrapper type) {
+        return ordinal(type, ordinals, types);
+    }
+
+    private static int ordinal(DataSourceWrapper type, Map<DataSourceWrapper, Integer> ordinals,
+            List<DataSourceWrapper> types) {
+        Integer ordinal = ordinals.get(type);
+        if (ordinal==null) {
+            ordinal = types.size();
+            ordinals.put(type, ordinal);
+            types.add(type);
+        }
+        return ordinal;
+    }
+
+    private Set<DataSourceWrapper> toSet(BitSet bits) {
+        return toSet(bits, types);
+    }
+
+    private static Set<DataSourceWrapper> toSet(BitSet bits, List<DataSourceWrapper> types) {
+        Set<DataSourceWrapper> set = new LinkedHashSet<DataSourceWrapper>(bits.cardinality()*2);
+        for (int i = bits.nextSetBit(0); i>=0; i = bits.nextSetBit(i+1)) {
+            set.add(types.get(i));
+        }
+        return set;
+    }
+
+    private static BitSet getRow(List<BitSet> rows, int src) {
+        while (rows.size()<=src) {
+            rows.add(null);
+        }
+        BitSet row = rows.get(src);
+        if (row==null) {
+            row = new BitSet();
+            rows.set(src, row);
+        }
+        return row;
+    }
+
+    /**
+     * Capabilities of one resource, filled in by a single thread. The
+     * ordinals of a client are its own, so that it can be kept apart from
+     * any index, compared and persisted.
+     */
+    public static class Client {
+        private final Map<DataSourceWrapper, Integer> ordinals = new HashMap<DataSourceWrapper, Integer>();
+        private final List<DataSourceWrapper> types = new ArrayList<DataSourceWrapper>();
+        private final BitSet srcTypes = new BitSet();
+        private final BitSet tgtTypes = new BitSet();
+        private final List<BitSet> rows = new ArrayList<BitSet>();
+
+        /**
+         *
+         * @param type
+         * @return the ordinal of the type, without recording it as a source
+         * or target type
+         */
+        public int getOrdinal(DataSourceWrapper type) {
+            return ordinal(type, ordinals, types);
+        }
+
+        /**
+         *
+         * @param type
+         * @return the ordinal of the type, for the other methods
+         */
+        public int addSrcType(DataSourceWrapper type) {
+            int ordinal = getOrdinal(type);
+            srcTypes.set(ordinal);
+            return ordinal;
+        }
+
+        /**
+         *
+         * @param type
+         * @return the ordinal of the type, for the other methods
+         */
+        public int addTgtType(DataSourceWrapper type) {
+            int ordinal = getOrdinal(type);
+            tgtTypes.set(ordinal);
+            return ordinal;
+        }
+
+        /**
+         * Record that the source type can be mapped to the target type.
+         * @param src ordinal of the source type
+         * @param tgt ordinal of the target type
+         */
+        public void addMapping(int src, int tgt) {
+            getRow(rows, src).set(tgt);
+        }
+
+        /**
+         * Write the capabilities; see {@link #read(DataInputStream)}.
+         * @param out
+         * @throws IOException
+         */
+        public void write(DataOutputStream out) throws IOException {
+            out.writeInt(types.size());
+            for (DataSourceWrapper type : types) {
+                PersistentMappingCache.writeDataSource(out, type);
+            }
+            writeBits(out, srcTypes);
+            writeBits(out, tgtTypes);
+            for (int i=0; i<rows.size(); i++) {
+                if (rows.get(i)!=null) {
+                    out.writeInt(i);
+                    writeBits(out, rows.get(i));
+                }
+            }
+            out.writeInt(-1);
+        }
+
+        /**
+         *
+         * @param in
+         * @return the capabilities written by {@link #write(DataOutputStream)}
+         * @throws IOException
+         */
+        public static Client read(DataInputStream in) throws IOException {
+            Client client = new Client();
+            int n = in.readInt();
+            for (int i=0; i<n; i++) {
+                client.getOrdinal(PersistentMappingCache.readDataSource(in));
+            }
+            readBits(in, client.srcTypes, n);
+            readBits(in, client.tgtTypes, n);
+            int src;
+            while ((src=in.readInt())>=0) {
+                if (src>=n) {
+                    throw new IOException("Bad source type in capabilities");
+                }
+                readBits(in, getRow(client.rows, src), n);
+            }
+            return client;
+        }
+
+        private static void writeBits(DataOutputStream out, BitSet bits) throws IOException {
+            out.writeInt(bits.cardinality());
+            for (int i = bits.nextSetBit(0); i>=0; i = bits.nextSetBit(i+1)) {
+                out.writeInt(i);
+            }
+        }
+
+        private static void readBits(DataInputStream in, BitSet bits, int n) throws IOException {
+            int count = in.readInt();
+            for (int i=0; i<count; i++) {
+                int bit = in.readInt();
+                if (bit<0 || bit>=n) {
+                    throw new IOException("Bad type in capabilities");
+                }
+                bits.set(bit);
+            }
+        }
+
+        private Map<DataSourceWrapper, Set<DataSourceWrapper>> getMappings() {
+            Map<DataSourceWrapper, Set<DataSourceWrapper>> mappings
+                    = new HashMap<DataSourceWrapper, Set<DataSourceWrapper>>();
+            for (int i=0; i<rows.size(); i++) {
+                BitSet row = rows.get(i);
+                if (row!=null && !row.isEmpty()) {
+                    mappings.put(types.get(i), toSet(row, types));
+                }
+            }
+            return mappings;
+        }
+
+        /**
+         * Two clients are equal if they have the same source and target
+         * types and mappings, whatever their ordinals.
+         */
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Client)) {
+                return false;
+            }
+            Client other = (Client)o;
+            return toSet(srcTypes, types).equals(toSet(other.srcTypes, other.types))
+                    && toSet(tgtTypes, types).equals(toSet(other.tgtTypes, other.types))
+                    && getMappings().equals(other.getMappings());
+        }
+
+        @Override
+        public int hashCode() {
+            return toSet(srcTypes, types).hashCode()*31 + toSet(tgtTypes, types).hashCode();
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package org.bridgedb.cytoscape.internal.util;
+
+/*******************************************************************************
+ * Copyright 2010-2013 BridgeDb App developing team
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The capabilities of the resources last seen, by connection string, kept
+ * in a file so that the supported types are known at startup before the
+ * resources are connected.
+ */
+public class CapabilitySnapshot {
+    private static final int MAGIC = 0xB1D6EC03;
+
+    private final File file;
+    private final Map<String, CapabilityIndex.Client> clients
+            = new HashMap<String, CapabilityIndex.Client>();
+
+    /**
+     *
+     * @param file
+     * @return the snapshot in the file; empty if the file does not exist or
+     * cannot be read
+     */
+    public static CapabilitySnapshot load(File file) {
+        CapabilitySnapshot snapshot = new CapabilitySnapshot(file);
+        if (file.length()>0) {
+            try {
+                snapshot.read();
+            } catch (IOException ex) {
+                ex.printStackTrace();
+                snapshot.clients.clear();
+            }
+        }
+        return snapshot;
+    }
+
+    private CapabilitySnapshot(File file) {
+        this.file = file;
+    }
+
+    /**
+     *
+     * @param connStr
+     * @return the capabilities last seen for the resource; null if unknown
+     */
+    public synchronized CapabilityIndex.Client get(String connStr) {
+        return clients.get(connStr);
+    }
+
+    /**
+     * Replace the capabilities of resources.
+     * @param capabilities by connection string
+     * @return true if any of them differed from the ones kept
+     */
+    public synchronized boolean putAll(Map<String, CapabilityIndex.Client> capabilities) {
+        boolean changed = false;
+        for (Map.Entry<String, CapabilityIndex.Client> entry : capabilities.entrySet()) {
+            CapabilityIndex.Client old = clients.put(entry.getKey(), entry.getValue());
+            if (!entry.getValue().equals(old)) {
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Write the snapshot to its file.
+     */
+    public synchronized void save() {
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(clients.size());
+                for (Map.Entry<String, CapabilityIndex.Client> entry : clients.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    entry.getValue().write(out);
+                }
+            } finally {
+                out.close();
+            }
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    private void read() throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt()!=MAGIC) {
+                return;
+            }
+            int n = in.readInt();
+            for (int i=0; i<n; i++) {
+                String connStr = in.readUTF();
+                clients.put(connStr, CapabilityIndex.Client.read(in));
+            }
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -35,6 +35,8 @@
 
 package org.bridgedb.cytoscape.internal.util;
 
+import org.bridgedb.DataSource;
+
 import java.util.Map;
 import java.util.HashMap;
 
@@ -45,6 +47,7 @@ import java.util.HashMap;
 public class DataSourceWrapper implements Comparable<DataSourceWrapper> {
         private String value;
         private DsAttr da;
+        private DataSource dataSource = null;
 
         static private Map<String, DataSourceWrapper> dataSourceWrappers
                 = new HashMap();
@@ -79,7 +82,7 @@ public class DataSourceWrapper implements Comparable<DataSourceWrapper> {
             return getInstance(value, da, true);
         }
 
-        public static DataSourceWrapper getInstance(String value, DsAttr da,
+        public static synchronized DataSourceWrapper getInstance(String value, DsAttr da,
                 boolean createIfNull) {
             if (value==null || da==null) {
                 return null;
@@ -120,6 +123,21 @@ public class DataSourceWrapper implements Comparable<DataSourceWrapper> {
             return value;
         }
 
+        /**
+         *
+         * @return the BridgeDb data source of this ID type, looked up once;
+         * null for attributes
+         */
+        public DataSource toDataSource() {
+            if (da!=DsAttr.DATASOURCE) {
+                return null;
+            }
+            if (dataSource==null) {
+                dataSource = DataSource.getByFullName(value);
+            }
+            return dataSource;
+        }
+
         @Override
         public String toString() {
             return da==DsAttr.DATASOURCE ? value : "Attribute: "+value;
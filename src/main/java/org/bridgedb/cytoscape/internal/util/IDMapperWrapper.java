@@ -35,14 +35,28 @@
 
 package org.bridgedb.cytoscape.internal.util;
 
+import java.io.File;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import org.bridgedb.cytoscape.internal.IDMapperClient;
 import org.bridgedb.cytoscape.internal.IDMapperClientManager;
 
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.bridgedb.DataSource;
 import org.bridgedb.IDMapperStack;
@@ -54,14 +68,41 @@ import org.bridgedb.Xref;
  */
 public class IDMapperWrapper {
     private final IDMapperClientManager idMapperClientManager;
+    private final Map<IDMapperClient, ResourceTiming> resourceTimings;
+    private final Set<Future<?>> inFlight = new HashSet<Future<?>>();
+    private long cachedXrefCount = 0;
+    private long skippedLookupCount = 0;
+    private long resumedXrefCount = 0;
+    // mapping of the source xrefs resolved by a resumed job
+    private Map<XrefWrapper, Set<XrefWrapper>> resumedMapping = Collections.emptyMap();
+
+    // wait for the selected resources to connect before querying them
+    private static final int CONNECT_WAIT_SECONDS = 5;
 
     public IDMapperWrapper(IDMapperClientManager idMapperClientManager) {
         this.idMapperClientManager = idMapperClientManager;
+        this.resourceTimings = new LinkedHashMap<IDMapperClient, ResourceTiming>();
     }
     
+    /**
+     * Queries the selected resources, once connected; not to be called on
+     * the event dispatch thread.
+     * @param xref
+     * @return true if a selected resource knows the xref
+     */
     public boolean xrefExists(XrefWrapper xref) {
         if (xref==null)
             throw new NullPointerException();
+        try {
+            idMapperClientManager.discoverCapabilities().get(CONNECT_WAIT_SECONDS, TimeUnit.SECONDS);
+        } catch (TimeoutException ex) {
+            // ask the resources connected so far
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException ex) {
+            ex.printStackTrace();
+        }
         IDMapperStack idMapperStack = idMapperClientManager.selectedIDMapperStack();
         DataSourceWrapper dsw = xref.getDataSource();
         if (dsw.getDsAttr() == DataSourceWrapper.DsAttr.DATASOURCE) {
@@ -82,128 +123,316 @@ public class IDMapperWrapper {
         }
     }
 
+    /**
+     * Take the mapping of the xrefs resolved by a resumed job instead of
+     * mapping them again.
+     * @param resumedMapping mapping of the resolved xrefs, including the
+     * ones with no targets
+     */
+    public void setResumedMapping(Map<XrefWrapper, Set<XrefWrapper>> resumedMapping) {
+        this.resumedMapping = resumedMapping;
+    }
+
+    /**
+     * Map the source xrefs with the selected resources. Results of previous
+     * mappings with the same resources are taken from the cache of the
+     * manager, including the xrefs known not to map to a target type; only
+     * the xrefs not cached for all target types are sent to the resources.
+     */
     public Map<XrefWrapper, Set<XrefWrapper>> mapID(
             Collection<XrefWrapper> srcXrefs,
             Set<DataSourceWrapper> tgtDataSources) {
+        return mapID(srcXrefs, tgtDataSources, new AtomicBoolean());
+    }
+
+    /**
+     * Map the source xrefs with the selected resources.
+     * @param failed set if a resource could not be queried, so that the
+     * xrefs not in the result may have targets
+     */
+    public Map<XrefWrapper, Set<XrefWrapper>> mapID(
+            Collection<XrefWrapper> srcXrefs,
+            Set<DataSourceWrapper> tgtDataSources, AtomicBoolean failed) {
+        MappingResultCache cache = idMapperClientManager.getMappingResultCache();
+        String fingerprint = MappingResultCache.fingerprint(
+                new ArrayList<IDMapperClient>(idMapperClientManager.selectedClients()));
+
+        Map<XrefWrapper, Set<XrefWrapper>> result = new HashMap();
+        List<XrefWrapper> uncachedXrefs = new ArrayList<XrefWrapper>();
+        int cachedXrefs = 0;
+        int skippedLookups = 0;
+        int resumedXrefs = 0;
+        for (XrefWrapper srcXref : srcXrefs) {
+            Set<XrefWrapper> resumedTgtXrefs = resumedMapping.get(srcXref);
+            if (resumedTgtXrefs!=null) {
+                resumedXrefs++;
+                if (!resumedTgtXrefs.isEmpty()) {
+                    result.put(srcXref, new HashSet<XrefWrapper>(resumedTgtXrefs));
+                }
+                continue;
+            }
+
+            Set<XrefWrapper> tgtXrefs = new HashSet<XrefWrapper>();
+            boolean cached = true;
+            int unmappableTypes = 0;
+            for (DataSourceWrapper tgtDataSource : tgtDataSources) {
+                Set<XrefWrapper> cachedTgtXrefs = cache.get(fingerprint, srcXref, tgtDataSource);
+                if (cachedTgtXrefs!=null) {
+                    tgtXrefs.addAll(cachedTgtXrefs);
+                } else if (cache.isUnmappable(fingerprint, srcXref, tgtDataSource)) {
+                    unmappableTypes++;
+                } else {
+                    cached = false;
+                    break;
+                }
+            }
+
+            if (!cached) {
+                uncachedXrefs.add(srcXref);
+                continue;
+            }
+
+            cachedXrefs++;
+            skippedLookups += unmappableTypes;
+            if (!tgtXrefs.isEmpty()) {
+                result.put(srcXref, tgtXrefs);
+            }
+        }
+
+        synchronized (this) {
+            cachedXrefCount += cachedXrefs;
+            skippedLookupCount += skippedLookups;
+            resumedXrefCount += resumedXrefs;
+        }
+
+        if (uncachedXrefs.isEmpty()) {
+            return result;
+        }
+
+        Map<XrefWrapper, Set<XrefWrapper>> mapped = mapIDWithResources(uncachedXrefs, tgtDataSources, failed);
+
+        // only trust the results if all resources answered: the targets of
+        // a resource that failed or was cancelled are missing, and would be
+        // for as long as they are cached
+        if (!failed.get()) {
+            cache(cache, fingerprint, uncachedXrefs, tgtDataSources, mapped);
+        }
+
+        ResourceIDMapper.union(result, mapped);
+        return result;
+    }
+
+    /**
+     * Cache the targets found for each target type, and the target types
+     * with none.
+     */
+    private static void cache(MappingResultCache cache, String fingerprint,
+            Collection<XrefWrapper> srcXrefs, Set<DataSourceWrapper> tgtDataSources,
+            Map<XrefWrapper, Set<XrefWrapper>> mapped) {
+        for (XrefWrapper srcXref : srcXrefs) {
+            Map<DataSourceWrapper, Set<XrefWrapper>> tgtXrefsByType = new HashMap();
+            Set<XrefWrapper> tgtXrefs = mapped.get(srcXref);
+            if (tgtXrefs!=null) {
+                for (XrefWrapper tgtXref : tgtXrefs) {
+                    Set<XrefWrapper> tgtXrefsOfType = tgtXrefsByType.get(tgtXref.getDataSource());
+                    if (tgtXrefsOfType==null) {
+                        tgtXrefsOfType = new HashSet<XrefWrapper>();
+                        tgtXrefsByType.put(tgtXref.getDataSource(), tgtXrefsOfType);
+                    }
+                    tgtXrefsOfType.add(tgtXref);
+                }
+            }
+
+            for (DataSourceWrapper tgtDataSource : tgtDataSources) {
+                Set<XrefWrapper> tgtXrefsOfType = tgtXrefsByType.get(tgtDataSource);
+                if (tgtXrefsOfType!=null) {
+                    cache.put(fingerprint, srcXref, tgtDataSource, tgtXrefsOfType);
+                } else {
+                    cache.putUnmappable(fingerprint, srcXref, tgtDataSource);
+                }
+            }
+        }
+    }
+
+    private Map<XrefWrapper, Set<XrefWrapper>> mapIDWithResources(
+            Collection<XrefWrapper> srcXrefs,
+            Set<DataSourceWrapper> tgtDataSources, final AtomicBoolean failed) {
         // separate xrefs
-        Set<Xref> idXrefs = new HashSet();
-        Set<XrefWrapper> attrXrefs = new HashSet();
+        final Set<Xref> idXrefs = new HashSet();
+        final Set<XrefWrapper> attrXrefs = new HashSet();
         for (XrefWrapper xref : srcXrefs) {
             DataSourceWrapper ds = xref.getDataSource();
             if (ds.getDsAttr()==DataSourceWrapper.DsAttr.DATASOURCE) {
-                idXrefs.add(new Xref(xref.getValue(),DataSource.getByFullName(ds.value())));
+                idXrefs.add(xref.toXref());
             } else if (ds.getDsAttr()==DataSourceWrapper.DsAttr.ATTRIBUTE) {
                 attrXrefs.add(xref);
             }
         }
 
         // separate datasources
-        Set<DataSource> idTypes = new HashSet();
-        Set<DataSourceWrapper> attrTypes = new HashSet();
+        final Set<DataSource> idTypes = new HashSet();
+        final Set<DataSourceWrapper> attrTypes = new HashSet();
         for (DataSourceWrapper ds : tgtDataSources) {
             if (ds.getDsAttr()==DataSourceWrapper.DsAttr.DATASOURCE) {
-                idTypes.add(DataSource.getByFullName(ds.value()));
+                idTypes.add(ds.toDataSource());
             } else if (ds.getDsAttr()==DataSourceWrapper.DsAttr.ATTRIBUTE) {
                 attrTypes.add(ds);
             }
         }
 
+        List<ResourceIDMapper> resourceMappers = selectedResourceMappers();
+        if (resourceMappers.size()==1) {
+            return mapID(resourceMappers.get(0), idXrefs, idTypes, attrXrefs, attrTypes, failed);
+        }
+
         Map<XrefWrapper, Set<XrefWrapper>> result = new HashMap();
-        
-        IDMapperStack idMapperStack = idMapperClientManager.selectedIDMapperStack();
 
-        // mapping id to id
-        if (!idXrefs.isEmpty() && !idTypes.isEmpty()) {
-            Map<Xref,Set<Xref>> mappingId2Id = null;
-            try {
-                 mappingId2Id = idMapperStack.mapID(idXrefs, idTypes.toArray(new DataSource[0]));
-            } catch (Exception ex) {
-                ex.printStackTrace();
+        // query all resources at the same time and union the results as they arrive
+        CompletionService<Map<XrefWrapper, Set<XrefWrapper>>> completionService
+                = new ExecutorCompletionService<Map<XrefWrapper, Set<XrefWrapper>>>(getExecutor());
+        List<Future<Map<XrefWrapper, Set<XrefWrapper>>>> futures
+                = new ArrayList<Future<Map<XrefWrapper, Set<XrefWrapper>>>>(resourceMappers.size());
+        for (final ResourceIDMapper resourceMapper : resourceMappers) {
+            futures.add(completionService.submit(new Callable<Map<XrefWrapper, Set<XrefWrapper>>>() {
+                public Map<XrefWrapper, Set<XrefWrapper>> call() {
+                    return mapID(resourceMapper, idXrefs, idTypes, attrXrefs, attrTypes, failed);
+                }
+            }));
+        }
+        synchronized (inFlight) {
+            inFlight.addAll(futures);
+        }
+
+        try {
+            collect(completionService, futures, result, failed);
+        } finally {
+            synchronized (inFlight) {
+                inFlight.removeAll(futures);
             }
+        }
 
-            if (mappingId2Id!=null) {
-                for (Map.Entry<Xref,Set<Xref>> entry : mappingId2Id.entrySet()) {
-                    Xref srcXref = entry.getKey();
-                    Set<Xref> tgtXrefs = entry.getValue();
+        return result;
+    }
 
-                    XrefWrapper srcXrefWrapper = new XrefWrapper(srcXref);
-                    Set<XrefWrapper> tgtXrefWrappers = result.get(srcXrefWrapper);
-                    if (tgtXrefWrappers==null) {
-                        tgtXrefWrappers = new HashSet(tgtXrefs.size());
-                        result.put(srcXrefWrapper, tgtXrefWrappers);
-                    }
-                    
-                    for (Xref tgtXref : tgtXrefs) {
-                        tgtXrefWrappers.add(new XrefWrapper(tgtXref));
-                    }                    
+    private static void collect(CompletionService<Map<XrefWrapper, Set<XrefWrapper>>> completionService,
+            List<Future<Map<XrefWrapper, Set<XrefWrapper>>>> futures,
+            Map<XrefWrapper, Set<XrefWrapper>> result, AtomicBoolean failed) {
+        for (int i=0; i<futures.size(); i++) {
+            try {
+                ResourceIDMapper.union(result, completionService.take().get());
+            } catch (ExecutionException ex) {
+                failed.set(true);
+                ex.getCause().printStackTrace();
+            } catch (InterruptedException ex) {
+                // keep the results received so far, and interrupt the other requests
+                failed.set(true);
+                for (Future<Map<XrefWrapper, Set<XrefWrapper>>> future : futures) {
+                    future.cancel(true);
                 }
+                Thread.currentThread().interrupt();
+                break;
             }
         }
+    }
 
-        // mapping id to attribute
-        if (!idXrefs.isEmpty() && !attrTypes.isEmpty()) {
-            for (Xref srcXref : idXrefs) {
-                XrefWrapper srcXrefWrapper = new XrefWrapper(srcXref);
-                Set<XrefWrapper> tgtXrefWrappers = result.get(srcXrefWrapper);
-                if (tgtXrefWrappers==null) {
-                    tgtXrefWrappers = new HashSet();
-                    result.put(srcXrefWrapper, tgtXrefWrappers);
-                }
-
-                for (DataSourceWrapper dsw : attrTypes) {
-                    String attrType = dsw.value();
-                    Set<String> tgtAttrValues;
-                    try {
-                        tgtAttrValues = idMapperStack.getAttributes(srcXref, attrType);
-                    } catch (Exception ex) {
-                        ex.printStackTrace();
-                        continue;
-                    }
+    private Map<XrefWrapper, Set<XrefWrapper>> mapID(ResourceIDMapper resourceMapper,
+            Set<Xref> idXrefs, Set<DataSource> idTypes,
+            Set<XrefWrapper> attrXrefs, Set<DataSourceWrapper> attrTypes, AtomicBoolean failed) {
+        long start = System.nanoTime();
+        Map<XrefWrapper, Set<XrefWrapper>> result = resourceMapper.mapID(idXrefs, idTypes,
+                attrXrefs, attrTypes, failed);
+        getResourceTiming(resourceMapper.getClient()).record(idXrefs.size()+attrXrefs.size(),
+                System.nanoTime()-start);
+        return result;
+    }
 
-                    for (String tgtAttrValue : tgtAttrValues) {
-                        tgtXrefWrappers.add(new XrefWrapper(tgtAttrValue, dsw));
-                    }
-                }
-            }
+    /**
+     *
+     * @return the mappers of the selected resources; each one connects its
+     * resource only for the xrefs not in its persistent cache, and fails
+     * for them if the resource cannot be connected
+     */
+    private List<ResourceIDMapper> selectedResourceMappers() {
+        List<ResourceIDMapper> resourceMappers = new ArrayList<ResourceIDMapper>();
+        File cacheDir = idMapperClientManager.getMappingCacheDirectory();
+        for (IDMapperClient client : new ArrayList<IDMapperClient>(idMapperClientManager.selectedClients())) {
+            resourceMappers.add(new ResourceIDMapper(client, null, getExecutor(),
+                    PersistentMappingCache.getInstance(cacheDir, client)));
         }
+        return resourceMappers;
+    }
 
-        // mapping attribute to id
-        if (!attrXrefs.isEmpty() && !idTypes.isEmpty()) {
-            for (XrefWrapper xrw : attrXrefs) {
-                String srcAttrValue = xrw.getValue();
-                String srcAttrType = xrw.getDataSource().value();
-                Map<Xref,String> mapTgtXrefs;
-                try {
-                    mapTgtXrefs = idMapperStack.freeAttributeSearch(srcAttrValue, srcAttrType, -1);
-                } catch (Exception ex) {
-                    ex.printStackTrace();
-                    continue;
-                }
+    private ExecutorService getExecutor() {
+        return BridgeDbExecutors.get(BridgeDbExecutors.Purpose.MAPPING);
+    }
 
-                Set<Xref> tgtXrefs = new HashSet();
-                for (Map.Entry<Xref,String> entry : mapTgtXrefs.entrySet()) {
-                    Xref tgtXref = entry.getKey();
-                    String tgtType = entry.getValue();
-                    if (idTypes.contains(tgtXref.getDataSource())) {
-                            //&& tgtType.equals(srcAttrValue)) { // TODO: should we require exact match
-                        tgtXrefs.add(entry.getKey());
-                    }
-                }
+    /**
+     * Cancel the requests still running in the shared mapping threads.
+     */
+    public void shutdown() {
+        synchronized (inFlight) {
+            for (Future<?> future : inFlight) {
+                future.cancel(true);
+            }
+            inFlight.clear();
+        }
+    }
 
-                Set<XrefWrapper> tgtXrefWrappers = result.get(xrw);
-                if (tgtXrefWrappers==null) {
-                    tgtXrefWrappers = new HashSet(tgtXrefs.size());
-                    result.put(xrw, tgtXrefWrappers);
-                }
+    private ResourceTiming getResourceTiming(IDMapperClient client) {
+        synchronized (resourceTimings) {
+            ResourceTiming timing = resourceTimings.get(client);
+            if (timing==null) {
+                timing = new ResourceTiming();
+                resourceTimings.put(client, timing);
+            }
+            return timing;
+        }
+    }
 
-                for (Xref tgtXref : tgtXrefs) {
-                    tgtXrefWrappers.add(new XrefWrapper(tgtXref));
-                }
+    /**
+     *
+     * @return time spent in each of the resources queried by this wrapper
+     */
+    public String getResourceTimingReport() {
+        StringBuilder report = new StringBuilder();
+        synchronized (this) {
+            report.append(cachedXrefCount).append(" identifiers taken from the mapping cache, ")
+                    .append(skippedLookupCount)
+                    .append(" lookups of identifiers known not to map skipped");
+            if (resumedXrefCount>0) {
+                report.append(", ").append(resumedXrefCount)
+                        .append(" identifiers taken from the resumed job");
+            }
+        }
+        report.append("\nMapping cache: ").append(idMapperClientManager.getMappingResultCache());
+        synchronized (resourceTimings) {
+            for (Map.Entry<IDMapperClient, ResourceTiming> entry : resourceTimings.entrySet()) {
+                report.append("\n");
+                report.append(entry.getKey().getDisplayName()).append(": ")
+                        .append(entry.getValue()).append(" (")
+                        .append(AdaptiveBatchController.getInstance(entry.getKey()))
+                        .append("; ")
+                        .append(SingleFlight.getInstance(entry.getKey().getConnectionString()))
+                        .append(")");
             }
         }
+        return report.toString();
+    }
 
-        // mapping attribute to attribute is not supported
+    private static class ResourceTiming {
+        private int calls = 0;
+        private long xrefs = 0;
+        private long nanos = 0;
 
-        return result;
+        synchronized void record(int nXrefs, long elapsedNanos) {
+            calls++;
+            xrefs += nXrefs;
+            nanos += elapsedNanos;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return String.format("%d identifiers in %d calls, %.2f s", xrefs, calls, nanos/1e9);
+        }
     }
 }
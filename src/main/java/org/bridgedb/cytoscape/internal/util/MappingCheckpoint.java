@@ -0,0 +1,234 @@
+package org.bridgedb.cytoscape.internal.util;
+
+/*******************************************************************************
+ * Copyright 2010-2013 BridgeDb App developing team
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Progress of a mapping job, kept in a file so that a cancelled or crashed
+ * job can be resumed. After each batch is written, the position up to which
+ * all nodes were written and the mapping of the source xrefs of the batch
+ * are appended to the file. The file is deleted when the job completes.
+ *
+ * A job is identified by a key computed from its networks and settings; a
+ * job can only resume from a checkpoint with the same key. Checkpoints of
+ * jobs that were not resumed for a week are deleted.
+ */
+public class MappingCheckpoint {
+    private static final int MAGIC = 0xB1D6EC02;
+    private static final String PREFIX = "job-";
+    private static final String SUFFIX = ".bin";
+    static final long STALE_MILLIS = 7L*24*60*60*1000;
+
+    private final File file;
+    private final long jobKey;
+    private int resumePosition = 0;
+    private final Map<XrefWrapper, Set<XrefWrapper>> resolved
+            = new HashMap<XrefWrapper, Set<XrefWrapper>>();
+    private DataOutputStream out = null;
+
+    /**
+     *
+     * @param dir directory of the checkpoints
+     * @param jobKey
+     * @param resume if true, load the checkpoint of the job if any;
+     * otherwise start over
+     * @return the checkpoint of the job
+     */
+    public static MappingCheckpoint open(File dir, long jobKey, boolean resume) {
+        if (!dir.exists() && !dir.mkdirs()) {
+            System.err.println("Failed to create the checkpoint directory "+dir);
+        }
+
+        MappingCheckpoint checkpoint = new MappingCheckpoint(
+                new File(dir, PREFIX+Long.toHexString(jobKey)+SUFFIX), jobKey);
+        deleteStale(dir, checkpoint.file);
+        if (resume && checkpoint.file.exists()) {
+            try {
+                checkpoint.load();
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        }
+
+        // start a compact file holding what was loaded
+        try {
+            checkpoint.rewrite();
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            checkpoint.close();
+        }
+        return checkpoint;
+    }
+
+    /**
+     * Delete the checkpoints of the other jobs, cancelled or interrupted,
+     * that were not written for a while.
+     */
+    private static void deleteStale(File dir, File current) {
+        File[] files = dir.listFiles();
+        if (files==null) {
+            return;
+        }
+
+        long staleBefore = System.currentTimeMillis()-STALE_MILLIS;
+        for (File file : files) {
+            String name = file.getName();
+            if (name.startsWith(PREFIX) && name.endsWith(SUFFIX) && !file.equals(current)
+                    && file.lastModified()<staleBefore && !file.delete()) {
+                System.err.println("Failed to delete the stale checkpoint "+file);
+            }
+        }
+    }
+
+    private MappingCheckpoint(File file, long jobKey) {
+        this.file = file;
+        this.jobKey = jobKey;
+    }
+
+    /**
+     *
+     * @return position of the first node not written by the resumed job; 0
+     * if not resumed
+     */
+    public int getResumePosition() {
+        return resumePosition;
+    }
+
+    /**
+     *
+     * @return mapping of the source xrefs resolved by the resumed job
+     */
+    public Map<XrefWrapper, Set<XrefWrapper>> getResolved() {
+        return resolved;
+    }
+
+    /**
+     * Record a written batch.
+     * @param endPosition position following the last node of the batch, if
+     * all nodes before it were written; -1 otherwise
+     * @param mapping mapping of the source xrefs of the batch, including
+     * the ones with no targets
+     */
+    public synchronized void append(int endPosition, Map<XrefWrapper, Set<XrefWrapper>> mapping) {
+        if (out==null) {
+            return;
+        }
+
+        try {
+            writeRecord(out, endPosition, mapping);
+            out.flush();
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            close();
+        }
+    }
+
+    /**
+     * Keep the file for the job to be resumed.
+     */
+    public synchronized void close() {
+        if (out!=null) {
+            try {
+                out.close();
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+            out = null;
+        }
+    }
+
+    /**
+     * Delete the file once the job is completed.
+     */
+    public synchronized void delete() {
+        close();
+        if (file.exists() && !file.delete()) {
+            System.err.println("Failed to delete the checkpoint "+file);
+        }
+    }
+
+    private void load() throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            try {
+                if (in.readInt()!=MAGIC || in.readLong()!=jobKey) {
+                    return;
+                }
+
+                while (true) {
+                    int endPosition = in.readInt();
+                    int n = in.readInt();
+                    Map<XrefWrapper, Set<XrefWrapper>> mapping
+                            = new HashMap<XrefWrapper, Set<XrefWrapper>>(n*2);
+                    for (int i=0; i<n; i++) {
+                        XrefWrapper srcXref = PersistentMappingCache.readXref(in);
+                        int m = in.readInt();
+                        Set<XrefWrapper> tgtXrefs = new HashSet<XrefWrapper>(m*2);
+                        for (int j=0; j<m; j++) {
+                            tgtXrefs.add(PersistentMappingCache.readXref(in));
+                        }
+                        mapping.put(srcXref, tgtXrefs);
+                    }
+
+                    // only complete records count
+                    resolved.putAll(mapping);
+                    resumePosition = Math.max(resumePosition, endPosition);
+                }
+            } catch (IOException ex) {
+                // end of the file, or the last record was not completely written
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private void rewrite() throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        out.writeInt(MAGIC);
+        out.writeLong(jobKey);
+        if (!resolved.isEmpty() || resumePosition>0) {
+            writeRecord(out, resumePosition, resolved);
+        }
+        out.flush();
+    }
+
+    private static void writeRecord(DataOutputStream out, int endPosition,
+            Map<XrefWrapper, Set<XrefWrapper>> mapping) throws IOException {
+        out.writeInt(endPosition);
+        out.writeInt(mapping.size());
+        for (Map.Entry<XrefWrapper, Set<XrefWrapper>> entry : mapping.entrySet()) {
+            PersistentMappingCache.writeXref(out, entry.getKey());
+            out.writeInt(entry.getValue().size());
+            for (XrefWrapper tgtXref : entry.getValue()) {
+                PersistentMappingCache.writeXref(out, tgtXref);
+            }
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package org.bridgedb.cytoscape.internal.util;
+
+/*******************************************************************************
+ * Copyright 2010-2013 BridgeDb App developing team
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bridgedb.cytoscape.internal.IDMapperClient;
+
+/**
+ * In-memory cache of mapping results, keyed by source xref, target type and
+ * the set of resources the result was obtained from. The least recently used
+ * entries are evicted when the cache is full, and entries expire after a
+ * while so that updated resources are eventually queried again.
+ *
+ * Source xrefs that could not be mapped to a target type are kept apart,
+ * with their own capacity and time to live, so that the many identifiers
+ * that never map do not push the mapped ones out of the cache.
+ */
+public class MappingResultCache {
+    public static final int DEFAULT_MAX_ENTRIES = 200000;
+    public static final long DEFAULT_TIME_TO_LIVE_MILLIS = 60*60*1000L;
+    public static final int DEFAULT_MAX_UNMAPPABLE = 500000;
+    public static final long DEFAULT_UNMAPPABLE_TIME_TO_LIVE_MILLIS = 24*60*60*1000L;
+
+    private final int maxEntries;
+    private final long timeToLiveMillis;
+    private final LinkedHashMap<Key, CachedXrefs> entries;
+    private final int maxUnmappable;
+    private final long unmappableTimeToLiveMillis;
+    // value: expiration time
+    private final LinkedHashMap<Key, Long> unmappable;
+    private long hits = 0;
+    private long misses = 0;
+    private long unmappableHits = 0;
+    private long evictions = 0;
+
+    public MappingResultCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_TIME_TO_LIVE_MILLIS,
+                DEFAULT_MAX_UNMAPPABLE, DEFAULT_UNMAPPABLE_TIME_TO_LIVE_MILLIS);
+    }
+
+    public MappingResultCache(final int maxEntries, long timeToLiveMillis,
+            final int maxUnmappable, long unmappableTimeToLiveMillis) {
+        this.maxEntries = maxEntries;
+        this.timeToLiveMillis = timeToLiveMillis;
+        this.maxUnmappable = maxUnmappable;
+        this.unmappableTimeToLiveMillis = unmappableTimeToLiveMillis;
+        this.unmappable = new LinkedHashMap<Key, Long>(1024, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Long> eldest) {
+                return size()>maxUnmappable;
+            }
+        };
+        this.entries = new LinkedHashMap<Key, CachedXrefs>(1024, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, CachedXrefs> eldest) {
+                if (size()>maxEntries) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     *
+     * @param clients
+     * @return a string identifying the set of resources, whatever their order
+     */
+    public static String fingerprint(Collection<IDMapperClient> clients) {
+        List<String> connStrs = new ArrayList<String>(clients.size());
+        for (IDMapperClient client : clients) {
+            connStrs.add(client.getConnectionString());
+        }
+        Collections.sort(connStrs);
+        return connStrs.toString();
+    }
+
+    /**
+     *
+     * @param fingerprint
+     * @param srcXref
+     * @param tgtType
+     * @return the cached target xrefs, or null if not cached or expired
+     */
+    public synchronized Set<XrefWrapper> get(String fingerprint, XrefWrapper srcXref,
+            DataSourceWrapper tgtType) {
+        Key key = new Key(fingerprint, srcXref, tgtType);
+        CachedXrefs entry = entries.get(key);
+        if (entry!=null && entry.expires<System.currentTimeMillis()) {
+            entries.remove(key);
+            entry = null;
+        }
+
+        if (entry==null) {
+            misses++;
+            return null;
+        }
+
+        hits++;
+        return entry.tgtXrefs;
+    }
+
+    public synchronized void put(String fingerprint, XrefWrapper srcXref,
+            DataSourceWrapper tgtType, Set<XrefWrapper> tgtXrefs) {
+        entries.put(new Key(fingerprint, srcXref, tgtType),
+                new CachedXrefs(Collections.unmodifiableSet(tgtXrefs),
+                        System.currentTimeMillis()+timeToLiveMillis));
+    }
+
+    /**
+     *
+     * @param fingerprint
+     * @param srcXref
+     * @param tgtType
+     * @return true if the source xref could not be mapped to the target type
+     * by the same resources recently
+     */
+    public synchronized boolean isUnmappable(String fingerprint, XrefWrapper srcXref,
+            DataSourceWrapper tgtType) {
+        Key key = new Key(fingerprint, srcXref, tgtType);
+        Long expires = unmappable.get(key);
+        if (expires==null) {
+            return false;
+        }
+
+        if (expires.longValue()<System.currentTimeMillis()) {
+            unmappable.remove(key);
+            return false;
+        }
+
+        unmappableHits++;
+        return true;
+    }
+
+    public synchronized void putUnmappable(String fingerprint, XrefWrapper srcXref,
+            DataSourceWrapper tgtType) {
+        unmappable.put(new Key(fingerprint, srcXref, tgtType),
+                System.currentTimeMillis()+unmappableTimeToLiveMillis);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        unmappable.clear();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return hits+" hits, "+misses+" misses, "+entries.size()+" of "+maxEntries
+                +" entries, "+evictions+" evicted; "+unmappableHits+" hits on "
+                +unmappable.size()+" of "+maxUnmappable+" unmappable entries";
+    }
+
+    private static class Key {
+        private final String fingerprint;
+        private final XrefWrapper srcXref;
+        private final DataSourceWrapper tgtType;
+        private final int hash;
+
+        Key(String fingerprint, XrefWrapper srcXref, DataSourceWrapper tgtType) {
+            this.fingerprint = fingerprint;
+            this.srcXref = srcXref;
+            this.tgtType = tgtType;
+            this.hash = (fingerprint.hashCode()*31+srcXref.hashCode())*31+tgtType.hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key)o;
+            return hash==other.hash && srcXref.equals(other.srcXref)
+                    && tgtType.equals(other.tgtType) && fingerprint.equals(other.fingerprint);
+        }
+    }
+
+    private static class CachedXrefs {
+        private final Set<XrefWrapper> tgtXrefs;
+        private final long expires;
+
+        CachedXrefs(Set<XrefWrapper> tgtXrefs, long expires) {
+            this.tgtXrefs = tgtXrefs;
+            this.expires = expires;
+        }
+    }
+}
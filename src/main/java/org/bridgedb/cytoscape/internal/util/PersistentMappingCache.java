@@ -0,0 +1,469 @@
+package org.bridgedb.cytoscape.internal.util;
+
+/*******************************************************************************
+ * Copyright 2010-2013 BridgeDb App developing team
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bridgedb.cytoscape.internal.IDMapperClient;
+
+/**
+ * Mapping results of one resource, kept in a file so that they survive
+ * restarts of Cytoscape. The file is read when the cache is opened and new
+ * results are appended to it. It is named after a digest of the connection
+ * string, which is also checked in its header. It is discarded when
+ * the resource changes: for local databases and text files, when the file
+ * is modified; for webservices, after a week. When the file grows beyond
+ * its size limit, it is compacted to the most recent half of the results.
+ */
+public class PersistentMappingCache {
+    private static final int MAGIC = 0xB1D6EC01;
+    private static final long MAX_BYTES = 32L*1024*1024;
+    private static final long WEBSERVICE_MAX_AGE_MILLIS = 7L*24*60*60*1000;
+
+    private static final Map<String, PersistentMappingCache> caches
+            = new HashMap<String, PersistentMappingCache>();
+
+    /**
+     *
+     * @param dir directory of the cache files
+     * @param client
+     * @return the cache of the resource, or null if dir is null
+     */
+    public static PersistentMappingCache getInstance(File dir, IDMapperClient client) {
+        if (dir==null) {
+            return null;
+        }
+
+        String connStr = client.getConnectionString();
+        synchronized (caches) {
+            PersistentMappingCache cache = caches.get(connStr);
+            if (cache==null) {
+                cache = new PersistentMappingCache(new File(dir,
+                        "cache-"+digest(connStr)+".bin"), connStr);
+                caches.put(connStr, cache);
+
+                // the file of older versions, named after the hash code of
+                // the connection string, which other resources may share
+                File legacyFile = new File(dir, "cache-"+Integer.toHexString(connStr.hashCode())+".bin");
+                if (legacyFile.exists() && !legacyFile.delete()) {
+                    System.err.println("Failed to delete mapping cache "+legacyFile);
+                }
+            }
+            cache.validate();
+            return cache;
+        }
+    }
+
+    /**
+     * Flush and close the files of all caches.
+     */
+    public static void closeAll() {
+        synchronized (caches) {
+            for (PersistentMappingCache cache : caches.values()) {
+                cache.close();
+            }
+            caches.clear();
+        }
+    }
+
+    private final File file;
+    private final String connStr;
+    // key: [source xref, target type]; in the order they were written
+    private final LinkedHashMap<List<Object>, Set<XrefWrapper>> entries;
+    private String token = null;
+    private long created;
+    private long bytes = 0;
+    private DataOutputStream out = null;
+    private boolean loaded = false;
+
+    private PersistentMappingCache(File file, String connStr) {
+        this.file = file;
+        this.connStr = connStr;
+        this.entries = new LinkedHashMap<List<Object>, Set<XrefWrapper>>();
+    }
+
+    /**
+     *
+     * @param srcXref
+     * @param tgtType
+     * @return the target xrefs found in the resource, empty if there was none,
+     * or null if the source xref has not been mapped to the target type
+     */
+    public synchronized Set<XrefWrapper> get(XrefWrapper srcXref, DataSourceWrapper tgtType) {
+        return entries.get(Arrays.<Object>asList(srcXref, tgtType));
+    }
+
+    /**
+     * Store the results of a complete mapping of the source xrefs.
+     * @param srcXrefs the source xrefs that were sent to the resource
+     * @param tgtTypes the target types they were mapped to
+     * @param result mapping of the source xrefs found in the resource
+     */
+    public synchronized void putAll(Collection<XrefWrapper> srcXrefs, Collection<DataSourceWrapper> tgtTypes,
+            Map<XrefWrapper, Set<XrefWrapper>> result) {
+        try {
+            DataOutputStream out = getOutputStream();
+            for (XrefWrapper srcXref : srcXrefs) {
+                Set<XrefWrapper> tgtXrefs = result.get(srcXref);
+                for (DataSourceWrapper tgtType : tgtTypes) {
+                    Set<XrefWrapper> tgtXrefsOfType = new HashSet<XrefWrapper>();
+                    if (tgtXrefs!=null) {
+                        for (XrefWrapper tgtXref : tgtXrefs) {
+                            if (tgtXref.getDataSource().equals(tgtType)) {
+                                tgtXrefsOfType.add(tgtXref);
+                            }
+                        }
+                    }
+                    put(srcXref, tgtType, tgtXrefsOfType);
+                    bytes += writeEntry(out, srcXref, tgtType, tgtXrefsOfType);
+                }
+            }
+            out.flush();
+
+            if (bytes>MAX_BYTES) {
+                compact();
+            }
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            close();
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private void put(XrefWrapper srcXref, DataSourceWrapper tgtType, Set<XrefWrapper> tgtXrefs) {
+        List<Object> key = Arrays.<Object>asList(srcXref, tgtType);
+        // re-insert to keep the entries in the order they were written
+        entries.remove(key);
+        entries.put(key, Collections.unmodifiableSet(tgtXrefs));
+    }
+
+    private synchronized void validate() {
+        String currentToken = resourceToken(connStr);
+        if (loaded && currentToken.equals(token) && !expired()) {
+            return;
+        }
+
+        close();
+        entries.clear();
+        token = currentToken;
+        created = System.currentTimeMillis();
+        bytes = 0;
+        loaded = true;
+
+        if (file.exists()) {
+            try {
+                if (!load() || expired()) {
+                    entries.clear();
+                    bytes = 0;
+                    created = System.currentTimeMillis();
+                    if (!file.delete()) {
+                        System.err.println("Failed to delete mapping cache "+file);
+                    }
+                }
+            } catch (IOException ex) {
+                ex.printStackTrace();
+                entries.clear();
+                file.delete();
+            }
+        }
+    }
+
+    private boolean expired() {
+        return token.length()==0
+                && System.currentTimeMillis()-created>WEBSERVICE_MAX_AGE_MILLIS;
+    }
+
+    /**
+     *
+     * @return false if the file was written for another resource or
+     * another version of the resource
+     */
+    private boolean load() throws IOException {
+        long goodBytes;
+        long length = file.length();
+        CountingInputStream counter = new CountingInputStream(
+                new BufferedInputStream(new FileInputStream(file)));
+        DataInputStream in = new DataInputStream(counter);
+        try {
+            try {
+                if (in.readInt()!=MAGIC || !connStr.equals(in.readUTF())
+                        || !token.equals(in.readUTF())) {
+                    return false;
+                }
+                created = in.readLong();
+            } catch (IOException ex) {
+                return false;
+            }
+
+            goodBytes = counter.count;
+            try {
+                while (counter.count<length) {
+                    XrefWrapper srcXref = readXref(in);
+                    DataSourceWrapper tgtType = readDataSource(in);
+                    int n = in.readInt();
+                    Set<XrefWrapper> tgtXrefs = new HashSet<XrefWrapper>(n*2);
+                    for (int i=0; i<n; i++) {
+                        tgtXrefs.add(readXref(in));
+                    }
+                    put(srcXref, tgtType, tgtXrefs);
+                    goodBytes = counter.count;
+                }
+            } catch (IOException ex) {
+                // the last entry was not completely written
+            }
+        } finally {
+            in.close();
+        }
+
+        bytes = goodBytes;
+        if (goodBytes<file.length()) {
+            RandomAccessFile truncate = new RandomAccessFile(file, "rw");
+            try {
+                truncate.setLength(goodBytes);
+            } finally {
+                truncate.close();
+            }
+        }
+        return true;
+    }
+
+    private DataOutputStream getOutputStream() throws IOException {
+        if (out==null) {
+            if (!file.exists() || file.length()==0) {
+                File dir = file.getParentFile();
+                if (!dir.exists() && !dir.mkdirs()) {
+                    System.err.println("Failed to create mapping cache dir "+dir);
+                }
+                out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+                bytes = writeHeader(out);
+            } else {
+                out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Rewrite the file with the most recent entries, up to half the size limit.
+     */
+    private void compact() throws IOException {
+        close();
+
+        List<Map.Entry<List<Object>, Set<XrefWrapper>>> newest
+                = new ArrayList<Map.Entry<List<Object>, Set<XrefWrapper>>>();
+        List<Map.Entry<List<Object>, Set<XrefWrapper>>> all
+                = new ArrayList<Map.Entry<List<Object>, Set<XrefWrapper>>>(entries.entrySet());
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        DataOutputStream counter = new DataOutputStream(buf);
+        long kept = 0;
+        for (int i=all.size()-1; i>=0 && kept<MAX_BYTES/2; i--) {
+            Map.Entry<List<Object>, Set<XrefWrapper>> entry = all.get(i);
+            buf.reset();
+            kept += writeEntry(counter, (XrefWrapper)entry.getKey().get(0),
+                    (DataSourceWrapper)entry.getKey().get(1), entry.getValue());
+            newest.add(entry);
+        }
+        Collections.reverse(newest);
+
+        File tmp = new File(file.getPath()+".tmp");
+        DataOutputStream tmpOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        long written;
+        try {
+            written = writeHeader(tmpOut);
+            for (Map.Entry<List<Object>, Set<XrefWrapper>> entry : newest) {
+                written += writeEntry(tmpOut, (XrefWrapper)entry.getKey().get(0),
+                        (DataSourceWrapper)entry.getKey().get(1), entry.getValue());
+            }
+        } finally {
+            tmpOut.close();
+        }
+
+        if ((file.exists() && !file.delete()) || !tmp.renameTo(file)) {
+            throw new IOException("Failed to replace mapping cache "+file);
+        }
+
+        entries.clear();
+        for (Map.Entry<List<Object>, Set<XrefWrapper>> entry : newest) {
+            entries.put(entry.getKey(), entry.getValue());
+        }
+        bytes = written;
+    }
+
+    private synchronized void close() {
+        if (out!=null) {
+            try {
+                out.close();
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+            out = null;
+        }
+    }
+
+    private int writeHeader(DataOutputStream out) throws IOException {
+        int start = out.size();
+        out.writeInt(MAGIC);
+        out.writeUTF(connStr);
+        out.writeUTF(token);
+        out.writeLong(created);
+        return out.size()-start;
+    }
+
+    private static int writeEntry(DataOutputStream out, XrefWrapper srcXref,
+            DataSourceWrapper tgtType, Set<XrefWrapper> tgtXrefs) throws IOException {
+        int start = out.size();
+        writeXref(out, srcXref);
+        writeDataSource(out, tgtType);
+        out.writeInt(tgtXrefs.size());
+        for (XrefWrapper tgtXref : tgtXrefs) {
+            writeXref(out, tgtXref);
+        }
+        return out.size()-start;
+    }
+
+    static void writeXref(DataOutputStream out, XrefWrapper xref) throws IOException {
+        writeDataSource(out, xref.getDataSource());
+        out.writeUTF(xref.getValue());
+    }
+
+    static void writeDataSource(DataOutputStream out, DataSourceWrapper dsw) throws IOException {
+        out.writeBoolean(dsw.getDsAttr()==DataSourceWrapper.DsAttr.ATTRIBUTE);
+        out.writeUTF(dsw.value());
+    }
+
+    static XrefWrapper readXref(DataInputStream in) throws IOException {
+        DataSourceWrapper dsw = readDataSource(in);
+        return new XrefWrapper(in.readUTF(), dsw);
+    }
+
+    static DataSourceWrapper readDataSource(DataInputStream in) throws IOException {
+        DataSourceWrapper.DsAttr dsAttr = in.readBoolean() ? DataSourceWrapper.DsAttr.ATTRIBUTE
+                : DataSourceWrapper.DsAttr.DATASOURCE;
+        return DataSourceWrapper.getInstance(in.readUTF(), dsAttr);
+    }
+
+    /**
+     *
+     * @param connStr
+     * @return the size and modification time of the file of local
+     * resources, or an empty string for remote resources
+     */
+    private static String resourceToken(String connStr) {
+        File resourceFile = null;
+        if (connStr.startsWith("idmapper-pgdb:")) {
+            resourceFile = new File(connStr.substring("idmapper-pgdb:".length()));
+        } else if (connStr.startsWith("idmapper-text:")) {
+            String url = connStr.substring(connStr.lastIndexOf('@')+1);
+            if (url.startsWith("file:")) {
+                try {
+                    resourceFile = new File(new URL(url).toURI());
+                } catch (Exception ex) {
+                    resourceFile = new File(url.substring("file:".length()));
+                }
+            }
+        }
+
+        if (resourceFile==null) {
+            return "";
+        }
+
+        return resourceFile.length()+"@"+resourceFile.lastModified();
+    }
+
+    /**
+     *
+     * @param connStr
+     * @return hex SHA-1 digest of the connection string
+     */
+    private static String digest(String connStr) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(connStr.getBytes("UTF-8"));
+            StringBuilder hex = new StringBuilder(digest.length*2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b>>4) & 0xF, 16))
+                        .append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        } catch (UnsupportedEncodingException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        private long count = 0;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b!=-1) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n>0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+}
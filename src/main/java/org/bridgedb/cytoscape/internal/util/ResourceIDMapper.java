@@ -0,0 +1,555 @@
+package org.bridgedb.cytoscape.internal.util;
+
+/*******************************************************************************
+ * Copyright 2010-2013 BridgeDb App developing team
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.nio.channels.ClosedByInterruptException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.bridgedb.AttributeMapper;
+import org.bridgedb.DataSource;
+import org.bridgedb.IDMapper;
+import org.bridgedb.Xref;
+import org.bridgedb.cytoscape.internal.IDMapperClient;
+
+/**
+ * Maps identifiers against a single ID mapping resource, the way
+ * IDMapperStack does for each of its mappers.
+ */
+public class ResourceIDMapper {
+    // lookups that failed in other callers are sent again at most this
+    // many times
+    private static final int MAX_FLIGHT_ATTEMPTS = 3;
+
+    private final IDMapperClient client;
+    // connected only when xrefs are not in the persistent cache
+    private IDMapper idMapper;
+    private final ExecutorService executor;
+    // of the client type known once connected
+    private AdaptiveBatchController controller;
+    private final PersistentMappingCache persistentCache;
+
+    public ResourceIDMapper(IDMapperClient client, IDMapper idMapper) {
+        this(client, idMapper, null, null);
+    }
+
+    /**
+     *
+     * @param client
+     * @param idMapper connected mapper of the client; if null, the client
+     *      is only connected if some xrefs are not in the persistent cache
+     * @param executor used to send requests concurrently; if null,
+     *      requests are sent one by one
+     * @param persistentCache results of previous mappings with this resource;
+     *      if null, all xrefs are sent to the resource
+     */
+    public ResourceIDMapper(IDMapperClient client, IDMapper idMapper, ExecutorService executor,
+            PersistentMappingCache persistentCache) {
+        if (client==null) {
+            throw new NullPointerException();
+        }
+        this.client = client;
+        this.idMapper = idMapper;
+        this.executor = executor;
+        this.controller = AdaptiveBatchController.getInstance(client);
+        this.persistentCache = persistentCache;
+    }
+
+    public IDMapperClient getClient() {
+        return client;
+    }
+
+    /**
+     *
+     * @return mapper of the client; null until some xrefs were looked up
+     *      in the resource, if not given to the constructor
+     */
+    public IDMapper getIDMapper() {
+        return idMapper;
+    }
+
+    /**
+     *
+     * @param idXrefs source xrefs of ID types
+     * @param idTypes target ID types
+     * @param attrXrefs source xrefs of attribute types
+     * @param attrTypes target attribute types
+     * @return mapping from source xrefs to the target xrefs found in this resource
+     */
+    public Map<XrefWrapper, Set<XrefWrapper>> mapID(Set<Xref> idXrefs, final Set<DataSource> idTypes,
+            Set<XrefWrapper> attrXrefs, final Set<DataSourceWrapper> attrTypes) {
+        return mapID(idXrefs, idTypes, attrXrefs, attrTypes, new AtomicBoolean());
+    }
+
+    /**
+     *
+     * @param idXrefs source xrefs of ID types
+     * @param idTypes target ID types
+     * @param attrXrefs source xrefs of attribute types
+     * @param attrTypes target attribute types
+     * @param failed set to true if the resource could not be queried for
+     *      some of the xrefs, i.e. if the result may be incomplete; this
+     *      includes a caller interrupted while the resource was queried,
+     *      even if the resource returned normally
+     * @return mapping from source xrefs to the target xrefs found in this resource
+     */
+    public Map<XrefWrapper, Set<XrefWrapper>> mapID(Set<Xref> idXrefs, final Set<DataSource> idTypes,
+            Set<XrefWrapper> attrXrefs, final Set<DataSourceWrapper> attrTypes, AtomicBoolean failed) {
+        Map<XrefWrapper, Set<XrefWrapper>> result = new HashMap();
+
+        Set<DataSourceWrapper> tgtTypes = new HashSet<DataSourceWrapper>(attrTypes);
+        for (DataSource idType : idTypes) {
+            tgtTypes.add(DataSourceWrapper.getInstance(DataSourceUtil.getName(idType),
+                    DataSourceWrapper.DsAttr.DATASOURCE));
+        }
+
+        // only send the xrefs that were not mapped to all target types before
+        Map<XrefWrapper, Xref> uncachedIdXrefs = new HashMap<XrefWrapper, Xref>();
+        Set<XrefWrapper> uncachedXrefs = new HashSet<XrefWrapper>();
+        for (Xref idXref : idXrefs) {
+            XrefWrapper srcXref = new XrefWrapper(idXref);
+            if (persistentCache==null || !getCached(srcXref, tgtTypes, result)) {
+                uncachedIdXrefs.put(srcXref, idXref);
+                uncachedXrefs.add(srcXref);
+            }
+        }
+        for (XrefWrapper attrXref : attrXrefs) {
+            if (persistentCache==null || !getCached(attrXref, tgtTypes, result)) {
+                uncachedXrefs.add(attrXref);
+            }
+        }
+
+        if (uncachedXrefs.isEmpty()) {
+            return result;
+        }
+
+        // the cached xrefs are served even if the resource is unreachable
+        if (idMapper==null) {
+            idMapper = client.getIDMapper();
+            controller = AdaptiveBatchController.getInstance(client);
+        }
+        if (idMapper==null || !idMapper.isConnected()) {
+            failed.set(true);
+            return result;
+        }
+
+        // only send the lookups no other caller has in flight; send again
+        // the ones that failed in another caller, e.g. because it was
+        // cancelled
+        SingleFlight singleFlight = SingleFlight.getInstance(client.getConnectionString());
+        Set<XrefWrapper> pendingXrefs = uncachedXrefs;
+        for (int attempt=0; !pendingXrefs.isEmpty(); attempt++) {
+            if (attempt==MAX_FLIGHT_ATTEMPTS || Thread.currentThread().isInterrupted()) {
+                failed.set(true);
+                break;
+            }
+
+            SingleFlight.Calls calls = singleFlight.join(pendingXrefs, tgtTypes);
+            Set<XrefWrapper> ledXrefs = calls.getLedXrefs();
+            Set<Xref> ledIdXrefs = new HashSet<Xref>();
+            Set<XrefWrapper> ledAttrXrefs = new HashSet<XrefWrapper>();
+            for (XrefWrapper srcXref : ledXrefs) {
+                Xref idXref = uncachedIdXrefs.get(srcXref);
+                if (idXref!=null) {
+                    ledIdXrefs.add(idXref);
+                } else {
+                    ledAttrXrefs.add(srcXref);
+                }
+            }
+
+            Map<XrefWrapper, Set<XrefWrapper>> mapped = new HashMap();
+            AtomicBoolean mappingFailed = new AtomicBoolean();
+            try {
+                if (!ledXrefs.isEmpty()) {
+                    mapIDWithResource(ledIdXrefs, idTypes, ledAttrXrefs, attrTypes, mapped, mappingFailed);
+                }
+            } finally {
+                // a cancelled lookup may have returned before completing
+                if (Thread.currentThread().isInterrupted()) {
+                    mappingFailed.set(true);
+                }
+                singleFlight.complete(calls, mapped, mappingFailed.get());
+            }
+
+            if (mappingFailed.get()) {
+                failed.set(true);
+            } else if (persistentCache!=null && !ledXrefs.isEmpty()) {
+                persistentCache.putAll(ledXrefs, tgtTypes, mapped);
+            }
+            union(result, mapped);
+
+            try {
+                pendingXrefs = calls.await(result);
+            } catch (InterruptedException ex) {
+                failed.set(true);
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     *
+     * @return true if the xref was mapped to all the target types before
+     */
+    private boolean getCached(XrefWrapper srcXref, Set<DataSourceWrapper> tgtTypes,
+            Map<XrefWrapper, Set<XrefWrapper>> result) {
+        Set<XrefWrapper> tgtXrefs = new HashSet<XrefWrapper>();
+        for (DataSourceWrapper tgtType : tgtTypes) {
+            Set<XrefWrapper> cachedXrefs = persistentCache.get(srcXref, tgtType);
+            if (cachedXrefs==null) {
+                return false;
+            }
+            tgtXrefs.addAll(cachedXrefs);
+        }
+
+        if (!tgtXrefs.isEmpty()) {
+            result.put(srcXref, tgtXrefs);
+        }
+        return true;
+    }
+
+    private void mapIDWithResource(Set<Xref> idXrefs, final Set<DataSource> idTypes,
+            Set<XrefWrapper> attrXrefs, final Set<DataSourceWrapper> attrTypes,
+            Map<XrefWrapper, Set<XrefWrapper>> result, final AtomicBoolean failed) {
+        // mapping id to id, in requests of the size the resource is tuned to
+        if (!idXrefs.isEmpty() && !idTypes.isEmpty()) {
+            final DataSource[] tgtDataSources = idTypes.toArray(new DataSource[0]);
+            List<List<Xref>> requests = partition(idXrefs, controller.getBatchSize());
+            lookUp(requests, new Lookup<List<Xref>>() {
+                public void lookUp(List<Xref> srcXrefs, Map<XrefWrapper, Set<XrefWrapper>> result)
+                        throws InterruptedException {
+                    mapIDToIDs(srcXrefs, tgtDataSources, result, failed);
+                }
+            }, result, failed);
+        }
+
+        if (!(idMapper instanceof AttributeMapper)) {
+            return;
+        }
+
+        final AttributeMapper attributeMapper = (AttributeMapper)idMapper;
+
+        // mapping id to attribute
+        if (!idXrefs.isEmpty() && !attrTypes.isEmpty()) {
+            lookUp(idXrefs, new Lookup<Xref>() {
+                public void lookUp(Xref srcXref, Map<XrefWrapper, Set<XrefWrapper>> result)
+                        throws InterruptedException {
+                    mapIDToAttributes(attributeMapper, srcXref, attrTypes, result, failed);
+                }
+            }, result, failed);
+        }
+
+        // mapping attribute to id
+        if (!attrXrefs.isEmpty() && !idTypes.isEmpty()
+                && attributeMapper.isFreeAttributeSearchSupported()) {
+            lookUp(attrXrefs, new Lookup<XrefWrapper>() {
+                public void lookUp(XrefWrapper srcXref, Map<XrefWrapper, Set<XrefWrapper>> result)
+                        throws InterruptedException {
+                    mapAttributeToIDs(attributeMapper, srcXref, idTypes, result, failed);
+                }
+            }, result, failed);
+        }
+
+        // mapping attribute to attribute is not supported
+    }
+
+    private void mapIDToIDs(List<Xref> srcXrefs, DataSource[] tgtDataSources,
+            Map<XrefWrapper, Set<XrefWrapper>> result, AtomicBoolean failed)
+            throws InterruptedException {
+        Map<Xref,Set<Xref>> mappingId2Id;
+        controller.acquire();
+        long start = System.nanoTime();
+        try {
+            mappingId2Id = idMapper.mapID(srcXrefs, tgtDataSources);
+            if (!isCancelled(null)) {
+                controller.recordBatch(System.nanoTime()-start, false);
+            }
+        } catch (Exception ex) {
+            if (!isCancelled(ex)) {
+                controller.recordBatch(System.nanoTime()-start, true);
+                ex.printStackTrace();
+            }
+            failed.set(true);
+            return;
+        } finally {
+            controller.release();
+        }
+
+        if (mappingId2Id==null) {
+            return;
+        }
+
+        for (Map.Entry<Xref,Set<Xref>> entry : mappingId2Id.entrySet()) {
+            Set<Xref> tgtXrefs = entry.getValue();
+            Set<XrefWrapper> tgtXrefWrappers = getTgtXrefs(result, new XrefWrapper(entry.getKey()));
+            for (Xref tgtXref : tgtXrefs) {
+                tgtXrefWrappers.add(new XrefWrapper(tgtXref));
+            }
+        }
+    }
+
+    private void mapIDToAttributes(AttributeMapper attributeMapper, Xref srcXref,
+            Set<DataSourceWrapper> attrTypes, Map<XrefWrapper, Set<XrefWrapper>> result,
+            AtomicBoolean failed) throws InterruptedException {
+        Set<XrefWrapper> tgtXrefWrappers = getTgtXrefs(result, new XrefWrapper(srcXref));
+
+        if (attrTypes.size()>1) {
+            // retrieve all attributes at once instead of one call per attribute
+            Map<String,Set<String>> mapAttrValues;
+            controller.acquire();
+            long start = System.nanoTime();
+            try {
+                mapAttrValues = attributeMapper.getAttributes(srcXref);
+                if (!isCancelled(null)) {
+                    controller.recordCall(System.nanoTime()-start, false);
+                }
+            } catch (Exception ex) {
+                if (!isCancelled(ex)) {
+                    controller.recordCall(System.nanoTime()-start, true);
+                    ex.printStackTrace();
+                }
+                failed.set(true);
+                return;
+            } finally {
+                controller.release();
+            }
+
+            if (mapAttrValues==null) {
+                return;
+            }
+
+            for (DataSourceWrapper dsw : attrTypes) {
+                Set<String> tgtAttrValues = mapAttrValues.get(dsw.value());
+                if (tgtAttrValues!=null) {
+                    for (String tgtAttrValue : tgtAttrValues) {
+                        tgtXrefWrappers.add(new XrefWrapper(tgtAttrValue, dsw));
+                    }
+                }
+            }
+            return;
+        }
+
+        for (DataSourceWrapper dsw : attrTypes) {
+            String attrType = dsw.value();
+            Set<String> tgtAttrValues;
+            controller.acquire();
+            long start = System.nanoTime();
+            try {
+                tgtAttrValues = attributeMapper.getAttributes(srcXref, attrType);
+                if (!isCancelled(null)) {
+                    controller.recordCall(System.nanoTime()-start, false);
+                }
+            } catch (Exception ex) {
+                if (!isCancelled(ex)) {
+                    controller.recordCall(System.nanoTime()-start, true);
+                    ex.printStackTrace();
+                }
+                failed.set(true);
+                continue;
+            } finally {
+                controller.release();
+            }
+
+            if (tgtAttrValues!=null) {
+                for (String tgtAttrValue : tgtAttrValues) {
+                    tgtXrefWrappers.add(new XrefWrapper(tgtAttrValue, dsw));
+                }
+            }
+        }
+    }
+
+    private void mapAttributeToIDs(AttributeMapper attributeMapper, XrefWrapper srcXref,
+            Set<DataSource> idTypes, Map<XrefWrapper, Set<XrefWrapper>> result,
+            AtomicBoolean failed) throws InterruptedException {
+        String srcAttrValue = srcXref.getValue();
+        String srcAttrType = srcXref.getDataSource().value();
+        Map<Xref,String> mapTgtXrefs;
+        controller.acquire();
+        long start = System.nanoTime();
+        try {
+            mapTgtXrefs = attributeMapper.freeAttributeSearch(srcAttrValue, srcAttrType, -1);
+            if (!isCancelled(null)) {
+                controller.recordCall(System.nanoTime()-start, false);
+            }
+        } catch (Exception ex) {
+            if (!isCancelled(ex)) {
+                controller.recordCall(System.nanoTime()-start, true);
+                ex.printStackTrace();
+            }
+            failed.set(true);
+            return;
+        } finally {
+            controller.release();
+        }
+
+        if (mapTgtXrefs==null) {
+            return;
+        }
+
+        Set<XrefWrapper> tgtXrefWrappers = getTgtXrefs(result, srcXref);
+        for (Map.Entry<Xref,String> entry : mapTgtXrefs.entrySet()) {
+            Xref tgtXref = entry.getKey();
+            if (idTypes.contains(tgtXref.getDataSource())) {
+                    //&& entry.getValue().equals(srcAttrValue)) { // TODO: should we require exact match
+                tgtXrefWrappers.add(new XrefWrapper(tgtXref));
+            }
+        }
+    }
+
+    /**
+     *
+     * @param ex exception of the request, if any
+     * @return true if the request was cut short by the cancellation of the
+     *      mapping, which says nothing of the resource
+     */
+    private static boolean isCancelled(Exception ex) {
+        if (Thread.currentThread().isInterrupted()) {
+            return true;
+        }
+        for (Throwable cause = ex; cause!=null; cause = cause.getCause()) {
+            // a timeout is a failure of the resource, not a cancellation
+            if (cause instanceof InterruptedException || cause instanceof ClosedByInterruptException
+                    || (cause instanceof InterruptedIOException
+                        && !(cause instanceof SocketTimeoutException))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Set<XrefWrapper> getTgtXrefs(Map<XrefWrapper, Set<XrefWrapper>> result,
+            XrefWrapper srcXref) {
+        Set<XrefWrapper> tgtXrefs = result.get(srcXref);
+        if (tgtXrefs==null) {
+            tgtXrefs = new HashSet();
+            result.put(srcXref, tgtXrefs);
+        }
+        return tgtXrefs;
+    }
+
+    /**
+     * Look up the items one by one. Items of resources that can be queried
+     * concurrently are split over as many workers as the resource allows
+     * requests in flight.
+     */
+    private <T> void lookUp(Collection<T> items, final Lookup<T> lookup,
+            Map<XrefWrapper, Set<XrefWrapper>> result, AtomicBoolean failed) {
+        int workers = executor==null ? 1 : Math.min(controller.getMaxInFlight(), items.size());
+        if (workers<=1) {
+            try {
+                for (T item : items) {
+                    lookup.lookUp(item, result);
+                }
+            } catch (InterruptedException ex) {
+                failed.set(true);
+                Thread.currentThread().interrupt();
+            }
+            return;
+        }
+
+        List<List<T>> partitions = new ArrayList<List<T>>(workers);
+        for (int i=0; i<workers; i++) {
+            partitions.add(new ArrayList<T>(items.size()/workers+1));
+        }
+        int i = 0;
+        for (T item : items) {
+            partitions.get(i++%workers).add(item);
+        }
+
+        List<FutureTask<Map<XrefWrapper, Set<XrefWrapper>>>> futures
+                = new ArrayList<FutureTask<Map<XrefWrapper, Set<XrefWrapper>>>>(workers);
+        for (final List<T> partition : partitions) {
+            FutureTask<Map<XrefWrapper, Set<XrefWrapper>>> future
+                    = new FutureTask<Map<XrefWrapper, Set<XrefWrapper>>>(
+                    new Callable<Map<XrefWrapper, Set<XrefWrapper>>>() {
+                public Map<XrefWrapper, Set<XrefWrapper>> call() throws InterruptedException {
+                    Map<XrefWrapper, Set<XrefWrapper>> partialResult = new HashMap();
+                    for (T item : partition) {
+                        lookup.lookUp(item, partialResult);
+                    }
+                    return partialResult;
+                }
+            });
+            executor.execute(future);
+            futures.add(future);
+        }
+
+        try {
+            for (FutureTask<Map<XrefWrapper, Set<XrefWrapper>>> future : futures) {
+                // run it here if no thread of the shared pool took it yet,
+                // so that a full pool never waits on itself
+                future.run();
+                try {
+                    union(result, future.get());
+                } catch (ExecutionException ex) {
+                    failed.set(true);
+                    ex.getCause().printStackTrace();
+                }
+            }
+        } catch (InterruptedException ex) {
+            failed.set(true);
+            for (FutureTask<Map<XrefWrapper, Set<XrefWrapper>>> future : futures) {
+                future.cancel(true);
+            }
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static <T> List<List<T>> partition(Collection<T> items, int size) {
+        List<List<T>> partitions = new ArrayList<List<T>>();
+        List<T> partition = null;
+        for (T item : items) {
+            if (partition==null || partition.size()>=size) {
+                partition = new ArrayList<T>(Math.min(size, items.size()));
+                partitions.add(partition);
+            }
+            partition.add(item);
+        }
+        return partitions;
+    }
+
+    static void union(Map<XrefWrapper, Set<XrefWrapper>> result,
+            Map<XrefWrapper, Set<XrefWrapper>> mapping) {
+        for (Map.Entry<XrefWrapper, Set<XrefWrapper>> entry : mapping.entrySet()) {
+            Set<XrefWrapper> tgtXrefs = result.get(entry.getKey());
+            if (tgtXrefs==null) {
+                result.put(entry.getKey(), entry.getValue());
+            } else {
+                tgtXrefs.addAll(entry.getValue());
+            }
+        }
+    }
+
+    private interface Lookup<T> {
+        void lookUp(T item, Map<XrefWrapper, Set<XrefWrapper>> result) throws InterruptedException;
+    }
+}
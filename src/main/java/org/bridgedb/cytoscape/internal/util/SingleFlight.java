@@ -0,0 +1,194 @@
+package org.bridgedb.cytoscape.internal.util;
+
+/*******************************************************************************
+ * Copyright 2010-2013 BridgeDb App developing team
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Coalesces concurrent lookups of the same xref to the same target type in
+ * the same resource: the first caller sends the lookup to the resource, and
+ * the callers asking for it while it is in flight wait for its result
+ * instead of sending it again. There is one instance per connection string,
+ * shared by all client managers.
+ */
+public class SingleFlight {
+    private static final Map<String, SingleFlight> instances = new HashMap<String, SingleFlight>();
+
+    private final Map<Key, Flight> flights = new HashMap<Key, Flight>();
+    private long led = 0;
+    private long joined = 0;
+
+    public static synchronized SingleFlight getInstance(String connStr) {
+        SingleFlight singleFlight = instances.get(connStr);
+        if (singleFlight==null) {
+            singleFlight = new SingleFlight();
+            instances.put(connStr, singleFlight);
+        }
+        return singleFlight;
+    }
+
+    /**
+     * Register the lookups of the xrefs to the target types. The caller
+     * must send the lookups it leads to the resource and complete them,
+     * then wait for the ones it joined, and send again the ones that failed,
+     * e.g. because the caller leading them was cancelled.
+     * @param srcXrefs
+     * @param tgtTypes
+     * @return the lookups led and joined by the caller
+     */
+    public synchronized Calls join(Collection<XrefWrapper> srcXrefs,
+            Collection<DataSourceWrapper> tgtTypes) {
+        Calls calls = new Calls();
+        for (XrefWrapper srcXref : srcXrefs) {
+            for (DataSourceWrapper tgtType : tgtTypes) {
+                Key key = new Key(srcXref, tgtType);
+                Flight flight = flights.get(key);
+                if (flight==null) {
+                    flight = new Flight();
+                    flights.put(key, flight);
+                    calls.led.put(key, flight);
+                    calls.ledXrefs.add(srcXref);
+                    led++;
+                } else {
+                    calls.joined.put(key, flight);
+                    joined++;
+                }
+            }
+        }
+        return calls;
+    }
+
+    /**
+     * Complete the lookups led by the caller and wake up the callers that
+     * joined them.
+     * @param calls
+     * @param mapping mapping of the xrefs led
+     * @param failed true if the mapping may be incomplete
+     */
+    public synchronized void complete(Calls calls, Map<XrefWrapper, Set<XrefWrapper>> mapping,
+            boolean failed) {
+        for (Map.Entry<Key, Flight> entry : calls.led.entrySet()) {
+            Key key = entry.getKey();
+            Set<XrefWrapper> tgtXrefs = new HashSet<XrefWrapper>();
+            Set<XrefWrapper> mapped = mapping.get(key.srcXref);
+            if (mapped!=null) {
+                for (XrefWrapper tgtXref : mapped) {
+                    if (tgtXref.getDataSource().equals(key.tgtType)) {
+                        tgtXrefs.add(tgtXref);
+                    }
+                }
+            }
+            entry.getValue().complete(tgtXrefs, failed);
+            flights.remove(key);
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return joined+" of "+(led+joined)+" lookups joined others in flight";
+    }
+
+    /**
+     * The lookups led and joined by a caller.
+     */
+    public static class Calls {
+        private final Map<Key, Flight> led = new HashMap<Key, Flight>();
+        private final Map<Key, Flight> joined = new HashMap<Key, Flight>();
+        private final Set<XrefWrapper> ledXrefs = new HashSet<XrefWrapper>();
+
+        /**
+         *
+         * @return the xrefs with at least one lookup led by the caller
+         */
+        public Set<XrefWrapper> getLedXrefs() {
+            return Collections.unmodifiableSet(ledXrefs);
+        }
+
+        /**
+         * Wait for the lookups joined by the caller.
+         * @param result to add the results of the lookups to
+         * @return the xrefs with a lookup that failed; their results are not
+         * added
+         */
+        public Set<XrefWrapper> await(Map<XrefWrapper, Set<XrefWrapper>> result) throws InterruptedException {
+            Set<XrefWrapper> failedXrefs = new HashSet<XrefWrapper>();
+            for (Map.Entry<Key, Flight> entry : joined.entrySet()) {
+                Flight flight = entry.getValue();
+                flight.done.await();
+                XrefWrapper srcXref = entry.getKey().srcXref;
+                if (flight.failed) {
+                    failedXrefs.add(srcXref);
+                    continue;
+                }
+                if (flight.tgtXrefs.isEmpty()) {
+                    continue;
+                }
+
+                Set<XrefWrapper> tgtXrefs = result.get(srcXref);
+                if (tgtXrefs==null) {
+                    tgtXrefs = new HashSet<XrefWrapper>();
+                    result.put(srcXref, tgtXrefs);
+                }
+                tgtXrefs.addAll(flight.tgtXrefs);
+            }
+            return failedXrefs;
+        }
+    }
+
+    private static class Flight {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile Set<XrefWrapper> tgtXrefs = Collections.emptySet();
+        private volatile boolean failed = false;
+
+        void complete(Set<XrefWrapper> tgtXrefs, boolean failed) {
+            this.tgtXrefs = tgtXrefs;
+            this.failed = failed;
+            done.countDown();
+        }
+    }
+
+    private static class Key {
+        private final XrefWrapper srcXref;
+        private final DataSourceWrapper tgtType;
+
+        Key(XrefWrapper srcXref, DataSourceWrapper tgtType) {
+            this.srcXref = srcXref;
+            this.tgtType = tgtType;
+        }
+
+        @Override
+        public int hashCode() {
+            return srcXref.hashCode()*31+tgtType.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key)o;
+            return srcXref.equals(other.srcXref) && tgtType.equals(other.tgtType);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package org.bridgedb.cytoscape.internal.util;
+
+/*******************************************************************************
+ * Copyright 2010-2013 BridgeDb App developing team
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Turns sets of strings into sorted immutable lists, one shared instance per
+ * distinct set, so that the many nodes mapped to the same IDs share one
+ * list and each distinct set is sorted only once.
+ */
+public class SortedListInterner {
+    private final Map<Set<String>, List<String>> lists = new HashMap<Set<String>, List<String>>();
+    private long lookups = 0;
+
+    /**
+     *
+     * @param values must not be modified afterwards
+     * @return the sorted immutable list of the values
+     */
+    public synchronized List<String> intern(Set<String> values) {
+        lookups++;
+        List<String> list = lists.get(values);
+        if (list==null) {
+            List<String> sorted = new ArrayList<String>(values);
+            Collections.sort(sorted);
+            list = Collections.unmodifiableList(sorted);
+            lists.put(values, list);
+        }
+        return list;
+    }
+
+    /**
+     *
+     * @return number of distinct lists
+     */
+    public synchronized int size() {
+        return lists.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return lists.size()+" distinct lists for "+lookups+" values";
+    }
+}
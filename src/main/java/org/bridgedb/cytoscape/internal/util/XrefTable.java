@@ -0,0 +1,143 @@
+package org.bridgedb.cytoscape.internal.util;
+
+/*******************************************************************************
+ * Copyright 2010-2013 BridgeDb App developing team
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+import java.util.Arrays;
+
+/**
+ * Interns xrefs: each distinct (type, id) pair gets a dense int handle and a
+ * single XrefWrapper, so that a mapping run can refer to xrefs by handle
+ * instead of hashing and allocating wrappers for every node. Handles are
+ * reference counted so that the mapping of an xref can be dropped once all
+ * nodes referring to it are written.
+ */
+public class XrefTable {
+    private XrefWrapper[] xrefs;
+    private int[] refCounts;
+    private int size = 0;
+    // open addressing; handle+1 of the xref in each slot, 0 if empty
+    private int[] slots;
+
+    public XrefTable() {
+        this(1024);
+    }
+
+    public XrefTable(int expectedSize) {
+        int capacity = Math.max(16, expectedSize);
+        xrefs = new XrefWrapper[capacity];
+        refCounts = new int[capacity];
+        slots = new int[Integer.highestOneBit(capacity*2-1)*2];
+    }
+
+    /**
+     *
+     * @param value
+     * @param dataSource
+     * @return the handle of the xref, added to the table if not in it yet
+     */
+    public synchronized int intern(String value, DataSourceWrapper dataSource) {
+        int hash = XrefWrapper.hash(value, dataSource);
+        int mask = slots.length-1;
+        int i = spread(hash) & mask;
+        int slot;
+        while ((slot=slots[i])!=0) {
+            XrefWrapper xref = xrefs[slot-1];
+            if (xref.hashCode()==hash && xref.getDataSource()==dataSource
+                    && xref.getValue().equals(value)) {
+                return slot-1;
+            }
+            i = (i+1) & mask;
+        }
+        return add(new XrefWrapper(value, dataSource), i);
+    }
+
+    /**
+     *
+     * @param xref
+     * @return the handle of the xref, added to the table if not in it yet
+     */
+    public synchronized int intern(XrefWrapper xref) {
+        int mask = slots.length-1;
+        int i = spread(xref.hashCode()) & mask;
+        int slot;
+        while ((slot=slots[i])!=0) {
+            if (xrefs[slot-1].equals(xref)) {
+                return slot-1;
+            }
+            i = (i+1) & mask;
+        }
+        return add(xref, i);
+    }
+
+    public synchronized XrefWrapper get(int handle) {
+        return xrefs[handle];
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Add a reference to the xref.
+     * @param handle
+     * @return true if this is the first reference
+     */
+    public synchronized boolean retain(int handle) {
+        return refCounts[handle]++ == 0;
+    }
+
+    /**
+     * Remove a reference to the xref.
+     * @param handle
+     * @return true if this was the last reference
+     */
+    public synchronized boolean release(int handle) {
+        return --refCounts[handle] == 0;
+    }
+
+    private int add(XrefWrapper xref, int slot) {
+        if (size==xrefs.length) {
+            xrefs = Arrays.copyOf(xrefs, size*2);
+            refCounts = Arrays.copyOf(refCounts, size*2);
+        }
+        int handle = size++;
+        xrefs[handle] = xref;
+        slots[slot] = handle+1;
+
+        if (size*2>slots.length) {
+            rehash();
+        }
+        return handle;
+    }
+
+    private void rehash() {
+        slots = new int[slots.length*2];
+        int mask = slots.length-1;
+        for (int handle=0; handle<size; handle++) {
+            int i = spread(xrefs[handle].hashCode()) & mask;
+            while (slots[i]!=0) {
+                i = (i+1) & mask;
+            }
+            slots[i] = handle+1;
+        }
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash>>>16);
+    }
+}
@@ -43,8 +43,9 @@ import org.bridgedb.Xref;
  * @author gjj
  */
 public class XrefWrapper {
-    private String value;
-    private DataSourceWrapper dataSource;
+    private final String value;
+    private final DataSourceWrapper dataSource;
+    private final int hash;
 
     public XrefWrapper(final Xref xref) {
         this(xref.getId(),DataSourceWrapper.getInstance(
@@ -55,6 +56,7 @@ public class XrefWrapper {
     public XrefWrapper(final String value, DataSourceWrapper dataSource) {
         this.value = value;
         this.dataSource = dataSource;
+        this.hash = hash(value, dataSource);
     }
 
     public String getValue() {
@@ -69,7 +71,7 @@ public class XrefWrapper {
         if (dataSource.getDsAttr() == DataSourceWrapper.DsAttr.ATTRIBUTE)
             return null;
 
-        return new Xref(value, DataSource.getByFullName(dataSource.value()));
+        return new Xref(value, dataSource.toDataSource());
     }
 
     /**
@@ -85,7 +87,15 @@ public class XrefWrapper {
      */
     public int hashCode()
     {
-        return toString().hashCode();
+        return hash;
+    }
+
+    /**
+     * Data source wrappers are unique, so their identity hash is combined
+     * with the hash of the id; computed once per xref.
+     */
+    static int hash(String value, DataSourceWrapper dataSource) {
+        return 31*dataSource.hashCode() + value.hashCode();
     }
 
     /**
@@ -94,9 +104,10 @@ public class XrefWrapper {
      */
     public boolean equals(Object o)
     {
+            if (o == this) return true;
             if (o == null) return false;
             if(!(o instanceof XrefWrapper)) return false;
             XrefWrapper ref = (XrefWrapper)o;
-            return value.equals(ref.value) && dataSource.equals(ref.dataSource);
+            return hash == ref.hash && value.equals(ref.value) && dataSource.equals(ref.dataSource);
     }
 }
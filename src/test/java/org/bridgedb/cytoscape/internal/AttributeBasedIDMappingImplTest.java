@@ -0,0 +1,349 @@
+package org.bridgedb.cytoscape.internal;
+
+/*******************************************************************************
+ * Copyright 2010-2013 BridgeDb App developing team
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bridgedb.DataSource;
+import org.bridgedb.IDMapper;
+import org.bridgedb.IDMapperException;
+import org.bridgedb.Xref;
+import org.bridgedb.cytoscape.internal.util.AdaptiveBatchController;
+import org.bridgedb.cytoscape.internal.util.DataSourceWrapper;
+
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.work.TaskMonitor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * The nodes of a network go through the pipeline of the mapping: scanned
+ * into batches, of one source xref each unless adaptive, fetched from a resource whose
+ * answers can be held back, and written to the node table.
+ */
+public class AttributeBasedIDMappingImplTest {
+    private static final AtomicInteger runs = new AtomicInteger();
+    private static final String SRC_ATTR = "name";
+    private static final String TGT_ATTR = "Ensembl";
+
+    private final DataSource src = DataSource.register("L", "Entrez Gene").asDataSource();
+    private final DataSource tgt = DataSource.register("En", "Ensembl").asDataSource();
+
+    private final String appName = "pipeline-test-"+runs.incrementAndGet();
+    private final IDMapperClientManager manager = IDMapperClientManager.getIDMapperClientManager(appName);
+    private final TaskMonitor taskMonitor = MemoryNetwork.newProxy(TaskMonitor.class,
+            new InvocationHandler() {
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            return null;
+        }
+    });
+    // source IDs in the order the resource answered them
+    private final List<String> answered = Collections.synchronizedList(new ArrayList<String>());
+    // number of source xrefs of each request to the resource
+    private final List<Integer> requestSizes = Collections.synchronizedList(new ArrayList<Integer>());
+    private MemoryNetwork network;
+
+    @Before
+    public void setUp() {
+        network = new MemoryNetwork("test");
+        network.getNodeTable().createColumn(SRC_ATTR, String.class, null);
+    }
+
+    @After
+    public void tearDown() {
+        manager.removeAllClients(false);
+        AdaptiveBatchController.clear();
+    }
+
+    @Test
+    public void batchesFetchedOutOfOrderAreWrittenInOrder() throws Exception {
+        register(new Hold() {
+            public void hold(String id) throws InterruptedException {
+                // the first node is answered after the second one
+                long deadline = System.currentTimeMillis()+10000;
+                while (id.equals("1") && !answered.contains("2")
+                        && System.currentTimeMillis()<deadline) {
+                    Thread.sleep(10);
+                }
+            }
+        });
+        addNodes(6);
+
+        AttributeBasedIDMappingImpl mapping = newMapping();
+        map(mapping, 1, 2);
+
+        assertTrue(answered.toString(), answered.indexOf("2")<answered.indexOf("1"));
+        assertEquals(Arrays.<Object>asList(0L, 1L, 2L, 3L, 4L, 5L),
+                network.getNodeTable().getWrites(TGT_ATTR));
+        assertTargets(0, 6);
+        assertTrue(mapping.getReport(), mapping.getReport().startsWith(
+                "Identifiers mapped for 6 nodes (out of 6)."));
+    }
+
+    @Test
+    public void scannerWaitsForTheBatchesToBeWritten() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        register(new Hold() {
+            public void hold(String id) throws InterruptedException {
+                if (id.equals("1")) {
+                    release.await();
+                }
+            }
+        });
+        addNodes(20);
+
+        // one fetcher: at most 3 batches read but not written, and the
+        // scanner waiting with a fourth one
+        Thread mapper = mapInBackground(newMapping(), 1);
+        long deadline = System.currentTimeMillis()+10000;
+        while (network.getNodeTable().getReads(SRC_ATTR).size()<4) {
+            assertTrue("the scanner did not read 4 nodes", System.currentTimeMillis()<deadline);
+            Thread.sleep(10);
+        }
+        Thread.sleep(200);
+        assertEquals(4, network.getNodeTable().getReads(SRC_ATTR).size());
+        assertTrue(network.getNodeTable().getWrites(TGT_ATTR).isEmpty());
+
+        release.countDown();
+        mapper.join(10000);
+        assertFalse(mapper.isAlive());
+        assertEquals(20, network.getNodeTable().getWrites(TGT_ATTR).size());
+        assertTargets(0, 20);
+    }
+
+    @Test
+    public void cancelledRunWritesTheBatchesFetchedSoFar() throws Exception {
+        AttributeBasedIDMappingImpl mapping = cancelWhileTheFirstBatchIsFetched(true);
+
+        // the second batch was fetched, but not the first one
+        assertNull(network.getRow(network.getNode(0)).get(TGT_ATTR, String.class));
+        assertEquals("ENSG2", network.getRow(network.getNode(1)).get(TGT_ATTR, String.class));
+        assertTrue(mapping.getReport(), mapping.getReport().startsWith(
+                "ID mapping cancelled. Identifiers mapped for 1 nodes (out of 2) were written."));
+    }
+
+    @Test
+    public void cancelledRunWithoutPartialCommitOnlyWritesInOrder() throws Exception {
+        AttributeBasedIDMappingImpl mapping = cancelWhileTheFirstBatchIsFetched(false);
+
+        assertTrue(network.getNodeTable().getWrites(TGT_ATTR).isEmpty());
+        assertTrue(mapping.getReport(), mapping.getReport().startsWith(
+                "ID mapping cancelled. Identifiers mapped for 0 nodes (out of 2)"));
+    }
+
+    @Test
+    public void adaptiveBatchSizeIsReadForEachBatch() {
+        register(null);
+        addNodes(2000);
+
+        // a webservice starts with batches of 100, grown while answered fast
+        AttributeBasedIDMappingImpl mapping = newMapping();
+        map(mapping, 0, 1);
+
+        assertEquals(100, requestSizes.get(0).intValue());
+        assertTrue(requestSizes.toString(), Collections.max(requestSizes)>100);
+        assertTargets(0, 2000);
+    }
+
+    @Test
+    public void onlyIncrementalRunsRecordWhatNodesWereMappedFrom() {
+        register(null);
+        addNodes(3);
+        String digestColumn = MappingDigests.COLUMN_PREFIX+TGT_ATTR;
+
+        map(newMapping(), 1, 1, false);
+        assertNull(network.getHiddenNodeTable().getTable().getColumn(digestColumn));
+
+        map(newMapping(), 1, 1, true);
+        assertEquals(3, network.getHiddenNodeTable().getWrites(digestColumn).size());
+
+        // nothing changed since
+        answered.clear();
+        AttributeBasedIDMappingImpl mapping = newMapping();
+        map(mapping, 1, 1, true);
+        assertTrue(answered.isEmpty());
+        assertTrue(mapping.getReport(), mapping.getReport().contains("3 unchanged nodes were skipped."));
+    }
+
+    @Test
+    public void failedBatchIsReported() {
+        register(new Hold() {
+            public void hold(String id) throws Exception {
+                if (id.equals("2")) {
+                    throw new IDMapperException("resource unavailable");
+                }
+            }
+        });
+        addNodes(3);
+
+        AttributeBasedIDMappingImpl mapping = newMapping();
+        map(mapping, 1, 1);
+
+        assertEquals("ENSG1", network.getRow(network.getNode(0)).get(TGT_ATTR, String.class));
+        assertNull(network.getRow(network.getNode(1)).get(TGT_ATTR, String.class));
+        assertEquals("ENSG3", network.getRow(network.getNode(2)).get(TGT_ATTR, String.class));
+        assertTrue(mapping.getReport(), mapping.getReport().startsWith(
+                "Identifiers mapped for 2 nodes (out of 3). 1 batches could not be mapped"));
+    }
+
+    @Test
+    public void runWithoutNodesEnds() {
+        register(null);
+        AttributeBasedIDMappingImpl mapping = newMapping();
+        map(mapping, 1, 2);
+
+        assertTrue(answered.isEmpty());
+        assertTrue(mapping.getReport(), mapping.getReport().startsWith(
+                "Identifiers mapped for 0 nodes (out of 0)."));
+    }
+
+    /**
+     * Map two nodes, and cancel the run once the second one was answered
+     * while the first one is still held back.
+     */
+    private AttributeBasedIDMappingImpl cancelWhileTheFirstBatchIsFetched(boolean commitPartial)
+            throws InterruptedException {
+        final CountDownLatch secondAnswered = new CountDownLatch(1);
+        register(new Hold() {
+            public void hold(String id) throws InterruptedException {
+                if (id.equals("1")) {
+                    // until cancelled
+                    new CountDownLatch(1).await();
+                } else if (id.equals("2")) {
+                    secondAnswered.countDown();
+                }
+            }
+        });
+        addNodes(2);
+
+        AttributeBasedIDMappingImpl mapping = newMapping();
+        Thread mapper = mapInBackground(mapping, 2);
+        assertTrue(secondAnswered.await(10, TimeUnit.SECONDS));
+        mapping.interrupt(commitPartial);
+        mapper.join(10000);
+        assertFalse(mapper.isAlive());
+        return mapping;
+    }
+
+    private void addNodes(int n) {
+        for (int i=0; i<n; i++) {
+            network.getRow(network.addNode()).set(SRC_ATTR, Integer.toString(i+1));
+        }
+    }
+
+    private void assertTargets(int from, int to) {
+        for (int i=from; i<to; i++) {
+            assertEquals("ENSG"+(i+1), network.getRow(network.getNode(i)).get(TGT_ATTR, String.class));
+        }
+    }
+
+    private AttributeBasedIDMappingImpl newMapping() {
+        return new AttributeBasedIDMappingImpl(taskMonitor, manager);
+    }
+
+    private Thread mapInBackground(final AttributeBasedIDMappingImpl mapping, final int fetchers) {
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                map(mapping, 1, fetchers);
+            }
+        };
+        thread.start();
+        return thread;
+    }
+
+    private void map(AttributeBasedIDMappingImpl mapping, int srcXrefsPerBatch, int fetchers) {
+        map(mapping, srcXrefsPerBatch, fetchers, false);
+    }
+
+    /**
+     * Map the source column to the target column.
+     */
+    private void map(AttributeBasedIDMappingImpl mapping, int srcXrefsPerBatch, int fetchers,
+            boolean incremental) {
+        DataSourceWrapper srcType = DataSourceWrapper.getInstance("Entrez Gene",
+                DataSourceWrapper.DsAttr.DATASOURCE);
+        DataSourceWrapper tgtType = DataSourceWrapper.getInstance("Ensembl",
+                DataSourceWrapper.DsAttr.DATASOURCE);
+        mapping.map(Collections.<CyNetwork>singletonList(network.getNetwork()),
+                Collections.singletonMap(SRC_ATTR, Collections.singleton(srcType)),
+                Collections.singletonMap(TGT_ATTR, tgtType),
+                Collections.<String, Class<?>>singletonMap(TGT_ATTR, String.class),
+                srcXrefsPerBatch, fetchers, incremental, false, false, false, 0);
+    }
+
+    private interface Hold {
+        /**
+         * Hold back the answer for the source ID, or fail it.
+         */
+        void hold(String id) throws Exception;
+    }
+
+    /**
+     * Register a resource mapping each source ID to ENSG followed by the
+     * ID, once the hold lets it.
+     */
+    private void register(final Hold hold) {
+        IDMapper idMapper = (IDMapper)Proxy.newProxyInstance(IDMapper.class.getClassLoader(),
+                new Class<?>[] {IDMapper.class}, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Exception {
+                if (method.getName().equals("isConnected")) {
+                    return true;
+                }
+                if (method.getName().equals("mapID") && args[0] instanceof Collection) {
+                    requestSizes.add(((Collection<?>)args[0]).size());
+                    Map<Xref, Set<Xref>> result = new HashMap<Xref, Set<Xref>>();
+                    for (Object obj : (Collection<?>)args[0]) {
+                        Xref srcXref = (Xref)obj;
+                        try {
+                            if (hold!=null) {
+                                hold.hold(srcXref.getId());
+                            }
+                        } catch (InterruptedException ex) {
+                            // a resource giving up on cancellation without a result
+                            Thread.currentThread().interrupt();
+                            return Collections.emptyMap();
+                        }
+                        answered.add(srcXref.getId());
+                        result.put(srcXref, Collections.singleton(new Xref("ENSG"+srcXref.getId(), tgt)));
+                    }
+                    return result;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+        manager.registerClient(new StubIDMapperClient("idmapper-test:"+appName,
+                IDMapperClient.ClientType.WEBSERVICE, idMapper));
+    }
+}
@@ -0,0 +1,141 @@
+package org.bridgedb.cytoscape.internal;
+
+/*******************************************************************************
+ * Copyright 2010-2013 BridgeDb App developing team
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.cytoscape.event.CyEventHelper;
+import org.cytoscape.model.CyRow;
+import org.cytoscape.model.CyTable;
+import org.cytoscape.model.events.RowSetRecord;
+import org.cytoscape.model.events.RowsSetEvent;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * The values of a flush are written with the events of their tables
+ * silenced, and reported in one event per table.
+ */
+public class BulkTableWriterTest {
+    private static final String COLUMN = "Ensembl";
+
+    // calls to the event helper, in order
+    private final List<String> calls = new ArrayList<String>();
+    private final List<RowsSetEvent> events = new ArrayList<RowsSetEvent>();
+    private MemoryNetwork network;
+    private MemoryNetwork otherNetwork;
+
+    @Before
+    public void setUp() {
+        network = new MemoryNetwork("test");
+        network.getNodeTable().createColumn(COLUMN, String.class, null);
+        otherNetwork = new MemoryNetwork("other");
+        otherNetwork.getNodeTable().createColumn(COLUMN, String.class, null);
+
+        BulkTableWriter.setCyEventHelper(MemoryNetwork.newProxy(CyEventHelper.class,
+                new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                String name = method.getName();
+                if (name.equals("silenceEventSource") || name.equals("unsilenceEventSource")) {
+                    calls.add(name+" "+tableName((CyTable)args[0]));
+                } else if (name.equals("fireEvent")) {
+                    RowsSetEvent event = (RowsSetEvent)args[0];
+                    calls.add(name+" "+tableName(event.getSource()));
+                    events.add(event);
+                } else {
+                    throw new UnsupportedOperationException(name);
+                }
+                return null;
+            }
+        }));
+    }
+
+    @After
+    public void tearDown() {
+        BulkTableWriter.setCyEventHelper(null);
+    }
+
+    @Test
+    public void eachTableGetsOneEventPerFlush() {
+        CyRow first = network.getRow(network.addNode());
+        CyRow second = network.getRow(network.addNode());
+        CyRow other = otherNetwork.getRow(otherNetwork.addNode());
+
+        BulkTableWriter writer = new BulkTableWriter();
+        writer.set(first, COLUMN, "ENSG01");
+        writer.set(other, COLUMN, "ENSG03");
+        writer.set(second, COLUMN, "ENSG02");
+        assertTrue("nothing is written before the flush", calls.isEmpty());
+        assertNull(first.get(COLUMN, String.class));
+
+        writer.flush();
+        assertEquals(Arrays.asList(
+                "silenceEventSource test", "unsilenceEventSource test", "fireEvent test",
+                "silenceEventSource other", "unsilenceEventSource other", "fireEvent other"),
+                calls);
+        assertEquals("ENSG01", first.get(COLUMN, String.class));
+        assertEquals("ENSG02", second.get(COLUMN, String.class));
+        assertEquals("ENSG03", other.get(COLUMN, String.class));
+
+        List<RowSetRecord> records = new ArrayList<RowSetRecord>(events.get(0).getPayloadCollection());
+        assertEquals(2, records.size());
+        assertSame(first, records.get(0).getRow());
+        assertEquals(COLUMN, records.get(0).getColumn());
+        assertEquals("ENSG01", records.get(0).getValue());
+        assertSame(second, records.get(1).getRow());
+        assertEquals(1, events.get(1).getPayloadCollection().size());
+
+        // nothing left to write
+        calls.clear();
+        writer.flush();
+        assertTrue(calls.isEmpty());
+    }
+
+    @Test
+    public void unchangedValuesAreNotWritten() {
+        CyRow row = network.getRow(network.addNode());
+        row.set(COLUMN, "ENSG01");
+        CyRow empty = network.getRow(network.addNode());
+
+        BulkTableWriter writer = new BulkTableWriter();
+        writer.setIfChanged(row, COLUMN, "ENSG01");
+        writer.setIfChanged(empty, COLUMN, null);
+        writer.flush();
+        assertTrue(events.isEmpty());
+
+        writer.setIfChanged(row, COLUMN, null);
+        writer.finish();
+        assertNull(row.get(COLUMN, String.class));
+        assertEquals(1, events.size());
+        assertTrue(writer.getReport(), writer.getReport().startsWith("1 values written"));
+        assertTrue(writer.getReport(), writer.getReport().endsWith(
+                "2 unchanged values left as they were"));
+    }
+
+    private String tableName(CyTable table) {
+        return table==network.getNodeTable().getTable() ? "test"
+                : table==otherNetwork.getNodeTable().getTable() ? "other" : "unknown";
+    }
+}
@@ -0,0 +1,93 @@
+package org.bridgedb.cytoscape.internal;
+
+/*******************************************************************************
+ * Copyright 2010-2013 BridgeDb App developing team
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.swing.SwingUtilities;
+
+import org.bridgedb.IDMapper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Asking for the selected resources does not wait for them to answer.
+ */
+public class IDMapperClientManagerTest {
+    private static final AtomicInteger runs = new AtomicInteger();
+    // well below the few seconds the blocking getters wait for
+    private static final long QUICK_MILLIS = 2000;
+
+    private final IDMapperClientManager manager = IDMapperClientManager.getIDMapperClientManager(
+            "manager-test-"+runs.incrementAndGet());
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @Before
+    public void setUp() {
+        // a resource that does not tell its capabilities until released
+        IDMapper idMapper = MemoryNetwork.newProxy(IDMapper.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getName().equals("getCapabilities")) {
+                    release.await();
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+        manager.registerClient(new StubIDMapperClient("idmapper-test:"+runs.get(),
+                IDMapperClient.ClientType.WEBSERVICE, idMapper));
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        manager.removeAllClients(false);
+    }
+
+    @Test
+    public void selectedStackIsReturnedWhileTheResourcesAreDiscovered() {
+        long start = System.currentTimeMillis();
+        assertNotNull(manager.selectedIDMapperStack());
+        assertTrue(System.currentTimeMillis()-start<QUICK_MILLIS);
+        assertFalse(manager.discoverCapabilities().isDone());
+    }
+
+    @Test
+    public void eventDispatchThreadDoesNotWaitForTheResources() throws Exception {
+        final long[] elapsed = new long[1];
+        SwingUtilities.invokeAndWait(new Runnable() {
+            public void run() {
+                long start = System.currentTimeMillis();
+                manager.getSupportedSrcTypes();
+                manager.cacheAndWait(10);
+                elapsed[0] = System.currentTimeMillis()-start;
+            }
+        });
+        assertTrue(elapsed[0]+" ms", elapsed[0]<QUICK_MILLIS);
+
+        // answered once released, for those waiting off the event dispatch thread
+        release.countDown();
+        assertTrue(manager.discoverCapabilities().get(10, TimeUnit.SECONDS).isComplete());
+    }
+}
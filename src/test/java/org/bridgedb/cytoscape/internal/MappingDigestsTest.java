@@ -0,0 +1,146 @@
+package org.bridgedb.cytoscape.internal;
+
+/*******************************************************************************
+ * Copyright 2010-2013 BridgeDb App developing team
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.bridgedb.cytoscape.internal.util.DataSourceWrapper;
+
+import org.cytoscape.model.CyNode;
+import org.cytoscape.model.CyRow;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * The digests of the mapping of a node change with its source values and
+ * with the mapping settings, so that only the nodes that would be mapped
+ * differently are mapped again.
+ */
+public class MappingDigestsTest {
+    private static final String SRC_ATTR = "name";
+    private static final String TGT_ATTR = "Ensembl";
+
+    private final DataSourceWrapper entrez = DataSourceWrapper.getInstance("Entrez Gene",
+            DataSourceWrapper.DsAttr.DATASOURCE);
+    private final DataSourceWrapper ensembl = DataSourceWrapper.getInstance("Ensembl",
+            DataSourceWrapper.DsAttr.DATASOURCE);
+    private final DataSourceWrapper uniprot = DataSourceWrapper.getInstance("UniProt",
+            DataSourceWrapper.DsAttr.DATASOURCE);
+
+    private MemoryNetwork network;
+    private CyNode node;
+    private CyRow row;
+
+    @Before
+    public void setUp() {
+        network = new MemoryNetwork("test");
+        network.getNodeTable().createColumn(SRC_ATTR, String.class, null);
+        network.getNodeTable().createColumn(TGT_ATTR, String.class, null);
+        node = network.addNode();
+        row = network.getRow(node);
+        row.set(SRC_ATTR, "1234");
+        row.set(TGT_ATTR, "ENSG01");
+    }
+
+    @Test
+    public void settingsDigestDoesNotDependOnMapOrders() {
+        Map<String, Set<DataSourceWrapper>> srcTypes = new LinkedHashMap<String, Set<DataSourceWrapper>>();
+        srcTypes.put(SRC_ATTR, Collections.singleton(entrez));
+        srcTypes.put("alias", Collections.singleton(uniprot));
+        Map<String, Set<DataSourceWrapper>> reversed = new LinkedHashMap<String, Set<DataSourceWrapper>>();
+        reversed.put("alias", Collections.singleton(uniprot));
+        reversed.put(SRC_ATTR, Collections.singleton(entrez));
+
+        Set<IDMapperClient> clients = new HashSet<IDMapperClient>();
+        clients.add(new StubIDMapperClient("idmapper-pgdb:/data/Hs_Derby.bridge"));
+        clients.add(new StubIDMapperClient("idmapper-bridgerest:http://webservice.bridgedb.org/Human"));
+
+        assertEquals(newDigests(srcTypes, ensembl, clients).getSettingsDigest(),
+                newDigests(reversed, ensembl, clients).getSettingsDigest());
+    }
+
+    @Test
+    public void settingsDigestChangesWithTheSettings() {
+        long digest = newDigests(entrez, ensembl, "idmapper-pgdb:/data/Hs_Derby.bridge")
+                .getSettingsDigest();
+        assertNotEquals(digest, newDigests(uniprot, ensembl, "idmapper-pgdb:/data/Hs_Derby.bridge")
+                .getSettingsDigest());
+        assertNotEquals(digest, newDigests(entrez, uniprot, "idmapper-pgdb:/data/Hs_Derby.bridge")
+                .getSettingsDigest());
+        assertNotEquals(digest, newDigests(entrez, ensembl, "idmapper-pgdb:/data/Mm_Derby.bridge")
+                .getSettingsDigest());
+    }
+
+    @Test
+    public void recordedNodeIsUpToDateUntilItsSourcesChange() {
+        MappingDigests digests = newDigests(entrez, ensembl, "idmapper-pgdb:/data/Hs_Derby.bridge");
+        long sourceDigest = digests.getSourceDigest(row);
+        assertFalse(digests.isUpToDate(node, row, sourceDigest));
+
+        record(digests, sourceDigest);
+        assertTrue(digests.isUpToDate(node, row, digests.getSourceDigest(row)));
+
+        row.set(SRC_ATTR, "5678");
+        assertNotEquals(sourceDigest, digests.getSourceDigest(row));
+        assertFalse(digests.isUpToDate(node, row, digests.getSourceDigest(row)));
+    }
+
+    @Test
+    public void recordedNodeIsNotUpToDateWithOtherSettings() {
+        MappingDigests digests = newDigests(entrez, ensembl, "idmapper-pgdb:/data/Hs_Derby.bridge");
+        record(digests, digests.getSourceDigest(row));
+
+        MappingDigests otherResource = newDigests(entrez, ensembl, "idmapper-pgdb:/data/Mm_Derby.bridge");
+        assertFalse(otherResource.isUpToDate(node, row, otherResource.getSourceDigest(row)));
+    }
+
+    @Test
+    public void recordedNodeIsNotUpToDateWithoutItsTargets() {
+        MappingDigests digests = newDigests(entrez, ensembl, "idmapper-pgdb:/data/Hs_Derby.bridge");
+        record(digests, digests.getSourceDigest(row));
+
+        row.set(TGT_ATTR, null);
+        assertFalse(digests.isUpToDate(node, row, digests.getSourceDigest(row)));
+    }
+
+    private void record(MappingDigests digests, long sourceDigest) {
+        digests.defineColumns();
+        BulkTableWriter writer = new BulkTableWriter();
+        digests.record(node, sourceDigest, writer);
+        writer.flush();
+    }
+
+    private MappingDigests newDigests(DataSourceWrapper srcType, DataSourceWrapper tgtType,
+            String connStr) {
+        return newDigests(Collections.singletonMap(SRC_ATTR, Collections.singleton(srcType)),
+                tgtType, Collections.<IDMapperClient>singleton(new StubIDMapperClient(connStr)));
+    }
+
+    private MappingDigests newDigests(Map<String, Set<DataSourceWrapper>> srcTypes,
+            DataSourceWrapper tgtType, Set<IDMapperClient> clients) {
+        return new MappingDigests(network.getNetwork(), srcTypes,
+                Collections.singletonMap(TGT_ATTR, tgtType),
+                Collections.<String, Class<?>>singletonMap(TGT_ATTR, String.class), clients);
+    }
+}
@@ -0,0 +1,279 @@
+package org.bridgedb.cytoscape.internal;
+
+/*******************************************************************************
+ * Copyright 2010-2013 BridgeDb App developing team
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.cytoscape.model.CyColumn;
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.model.CyNode;
+import org.cytoscape.model.CyRow;
+import org.cytoscape.model.CyTable;
+
+/**
+ * A network of the tests, with its node tables held in memory. The tables
+ * log which rows were read and written, by column.
+ */
+public class MemoryNetwork {
+    private final List<CyNode> nodes = new ArrayList<CyNode>();
+    private final MemoryTable nodeTable = new MemoryTable("node table");
+    private final MemoryTable hiddenNodeTable = new MemoryTable("hidden node table");
+    private final MemoryTable networkTable = new MemoryTable("network table");
+    private final CyNetwork network;
+
+    public MemoryNetwork(String name) {
+        network = newProxy(CyNetwork.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                String methodName = method.getName();
+                if (methodName.equals("getNodeList")) {
+                    return new ArrayList<CyNode>(nodes);
+                } else if (methodName.equals("getDefaultNodeTable")) {
+                    return nodeTable.table;
+                } else if (methodName.equals("getTable") && args[0]==CyNode.class
+                        && CyNetwork.HIDDEN_ATTRS.equals(args[1])) {
+                    return hiddenNodeTable.table;
+                } else if (methodName.equals("getRow") && args[0]==proxy) {
+                    return networkTable.getRow(0L);
+                } else if (methodName.equals("getRow") && args.length==2
+                        && CyNetwork.HIDDEN_ATTRS.equals(args[1])) {
+                    return hiddenNodeTable.getRow(((CyNode)args[0]).getSUID());
+                }
+                throw new UnsupportedOperationException(methodName);
+            }
+        });
+        networkTable.createColumn(CyNetwork.NAME, String.class, null);
+        networkTable.getRow(0L).set(CyNetwork.NAME, name);
+    }
+
+    public CyNetwork getNetwork() {
+        return network;
+    }
+
+    /**
+     *
+     * @return a new node, whose SUID is its position in the node list
+     */
+    public CyNode addNode() {
+        final long suid = nodes.size();
+        CyNode node = newProxy(CyNode.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("getSUID")) {
+                    return suid;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+        nodes.add(node);
+        return node;
+    }
+
+    public CyNode getNode(int position) {
+        return nodes.get(position);
+    }
+
+    public MemoryTable getNodeTable() {
+        return nodeTable;
+    }
+
+    public MemoryTable getHiddenNodeTable() {
+        return hiddenNodeTable;
+    }
+
+    /**
+     *
+     * @return the row of the node in the node table
+     */
+    public CyRow getRow(CyNode node) {
+        return nodeTable.getRow(node.getSUID());
+    }
+
+    /**
+     * A table holding its columns and rows in memory.
+     */
+    public static class MemoryTable {
+        // key: column; value: its type, and the type of its elements if a list
+        private final Map<String, Class<?>[]> columns = new LinkedHashMap<String, Class<?>[]>();
+        private final Map<Object, CyRow> rows = new HashMap<Object, CyRow>();
+        private final Map<Object, Map<String, Object>> rowValues = new HashMap<Object, Map<String, Object>>();
+        private final Map<String, Set<Object>> reads = new HashMap<String, Set<Object>>();
+        private final Map<String, List<Object>> writes = new HashMap<String, List<Object>>();
+        private final CyTable table;
+
+        MemoryTable(final String title) {
+            table = newProxy(CyTable.class, new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    String methodName = method.getName();
+                    if (methodName.equals("getColumn")) {
+                        return getColumn((String)args[0]);
+                    } else if (methodName.equals("createColumn")) {
+                        createColumn((String)args[0], (Class<?>)args[1], null);
+                        return null;
+                    } else if (methodName.equals("createListColumn")) {
+                        createColumn((String)args[0], List.class, (Class<?>)args[1]);
+                        return null;
+                    } else if (methodName.equals("deleteColumn")) {
+                        deleteColumn((String)args[0]);
+                        return null;
+                    } else if (methodName.equals("getRow")) {
+                        return getRow(args[0]);
+                    } else if (methodName.equals("getTitle")) {
+                        return title;
+                    }
+                    throw new UnsupportedOperationException(methodName);
+                }
+            });
+        }
+
+        public CyTable getTable() {
+            return table;
+        }
+
+        public synchronized void createColumn(String name, Class<?> type, Class<?> elementType) {
+            if (columns.containsKey(name)) {
+                throw new IllegalArgumentException("column "+name+" already exists");
+            }
+            columns.put(name, new Class<?>[] {type, elementType});
+        }
+
+        /**
+         *
+         * @return the keys of the rows whose value in the column was read,
+         * whether set or not
+         */
+        public synchronized Set<Object> getReads(String column) {
+            Set<Object> keys = reads.get(column);
+            return keys==null ? Collections.<Object>emptySet() : new HashSet<Object>(keys);
+        }
+
+        /**
+         *
+         * @return the keys of the rows whose value in the column was set, in
+         * the order the values were set
+         */
+        public synchronized List<Object> getWrites(String column) {
+            List<Object> keys = writes.get(column);
+            return keys==null ? Collections.<Object>emptyList() : new ArrayList<Object>(keys);
+        }
+
+        synchronized CyRow getRow(final Object key) {
+            CyRow row = rows.get(key);
+            if (row==null) {
+                final Map<String, Object> values = new HashMap<String, Object>();
+                rowValues.put(key, values);
+                row = newProxy(CyRow.class, new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        String methodName = method.getName();
+                        if (methodName.equals("getRaw") || methodName.equals("get")) {
+                            return read(key, (String)args[0], values);
+                        } else if (methodName.equals("set")) {
+                            write(key, (String)args[0], args[1], values);
+                            return null;
+                        } else if (methodName.equals("getTable")) {
+                            return table;
+                        }
+                        throw new UnsupportedOperationException(methodName);
+                    }
+                });
+                rows.put(key, row);
+            }
+            return row;
+        }
+
+        private synchronized CyColumn getColumn(final String name) {
+            final Class<?>[] types = columns.get(name);
+            if (types==null) {
+                return null;
+            }
+            return newProxy(CyColumn.class, new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    String methodName = method.getName();
+                    if (methodName.equals("getName")) {
+                        return name;
+                    } else if (methodName.equals("getType")) {
+                        return types[0];
+                    } else if (methodName.equals("getListElementType")) {
+                        return types[1];
+                    }
+                    throw new UnsupportedOperationException(methodName);
+                }
+            });
+        }
+
+        private synchronized void deleteColumn(String name) {
+            columns.remove(name);
+            for (Map<String, Object> values : rowValues.values()) {
+                values.remove(name);
+            }
+        }
+
+        private synchronized Object read(Object key, String column, Map<String, Object> values) {
+            Set<Object> keys = reads.get(column);
+            if (keys==null) {
+                keys = new HashSet<Object>();
+                reads.put(column, keys);
+            }
+            keys.add(key);
+            return columns.containsKey(column) ? values.get(column) : null;
+        }
+
+        private synchronized void write(Object key, String column, Object value,
+                Map<String, Object> values) {
+            if (!columns.containsKey(column)) {
+                throw new IllegalArgumentException("no column "+column);
+            }
+            List<Object> keys = writes.get(column);
+            if (keys==null) {
+                keys = new ArrayList<Object>();
+                writes.put(column, keys);
+            }
+            keys.add(key);
+            values.put(column, value);
+        }
+    }
+
+    /**
+     * @return a proxy of the interface, equal only to itself, handling the
+     * other calls with the handler
+     */
+    public static <T> T newProxy(Class<T> type, final InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type},
+                new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                String name = method.getName();
+                if (name.equals("equals")) {
+                    return proxy==args[0];
+                } else if (name.equals("hashCode")) {
+                    return System.identityHashCode(proxy);
+                } else if (name.equals("toString")) {
+                    return "proxy of "+proxy.getClass().getInterfaces()[0].getSimpleName();
+                }
+                return handler.invoke(proxy, method, args);
+            }
+        }));
+    }
+}
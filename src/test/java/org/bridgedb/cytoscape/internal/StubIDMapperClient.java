@@ -0,0 +1,108 @@
+package org.bridgedb.cytoscape.internal;
+
+/*******************************************************************************
+ * Copyright 2010-2013 BridgeDb App developing team
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+import org.bridgedb.IDMapper;
+
+/**
+ * A client of the tests, with a fixed connection string, client type and
+ * mapper, that never connects by itself.
+ */
+public class StubIDMapperClient implements IDMapperClient {
+    private final String connectionString;
+    private final ClientType clientType;
+    private final IDMapper mapper;
+    private int getIDMapperCalls = 0;
+
+    public StubIDMapperClient(String connectionString) {
+        this(connectionString, ClientType.OTHER, null);
+    }
+
+    public StubIDMapperClient(String connectionString, ClientType clientType) {
+        this(connectionString, clientType, null);
+    }
+
+    /**
+     *
+     * @param connectionString
+     * @param clientType
+     * @param mapper returned by getIDMapper(); null for a resource that
+     * cannot be connected
+     */
+    public StubIDMapperClient(String connectionString, ClientType clientType, IDMapper mapper) {
+        this.connectionString = connectionString;
+        this.clientType = clientType;
+        this.mapper = mapper;
+    }
+
+    public String getId() {
+        return connectionString;
+    }
+
+    public String getDisplayName() {
+        return connectionString;
+    }
+
+    public String getConnectionString() {
+        return connectionString;
+    }
+
+    public void setConnectionString(String connectionString) {
+        throw new UnsupportedOperationException();
+    }
+
+    public synchronized IDMapper getIDMapper() {
+        getIDMapperCalls++;
+        return mapper;
+    }
+
+    /**
+     *
+     * @return number of times the mapper was asked for
+     */
+    public synchronized int getIDMapperCalls() {
+        return getIDMapperCalls;
+    }
+
+    public void connect() {
+    }
+
+    public ConnectionState getConnectionState() {
+        return mapper==null ? ConnectionState.FAILED : ConnectionState.CONNECTED;
+    }
+
+    public String getClassString() {
+        return "";
+    }
+
+    public ClientType getClientType() {
+        return clientType;
+    }
+
+    public boolean isSelected() {
+        return true;
+    }
+
+    public void setSelected(boolean selected) {
+    }
+
+    @Override
+    public String toString() {
+        return connectionString;
+    }
+}
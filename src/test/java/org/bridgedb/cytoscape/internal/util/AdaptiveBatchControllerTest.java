@@ -0,0 +1,154 @@
+package org.bridgedb.cytoscape.internal.util;
+
+/*******************************************************************************
+ * Copyright 2010-2013 BridgeDb App developing team
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.bridgedb.cytoscape.internal.IDMapperClient;
+import org.bridgedb.cytoscape.internal.StubIDMapperClient;
+
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class AdaptiveBatchControllerTest {
+    private static final long FAST = 1000000L; // 1 ms
+    private static final long SLOW = 60L*1000*1000000; // 1 min
+
+    private final IDMapperClient file = new StubIDMapperClient(
+            "idmapper-pgdb:/data/Hs_Derby.bridge", IDMapperClient.ClientType.FILE);
+    private final IDMapperClient webservice = new StubIDMapperClient(
+            "idmapper-bridgerest:http://webservice.bridgedb.org/Human",
+            IDMapperClient.ClientType.WEBSERVICE);
+    private final IDMapperClient other = new StubIDMapperClient(
+            "idmapper-other:test", IDMapperClient.ClientType.OTHER);
+
+    @After
+    public void tearDown() {
+        AdaptiveBatchController.clear();
+    }
+
+    @Test
+    public void controllersStartFromTheProfileOfTheirResource() {
+        assertEquals(10000, AdaptiveBatchController.getInstance(file).getBatchSize());
+        assertEquals(1, AdaptiveBatchController.getInstance(file).getMaxInFlight());
+        assertEquals(100, AdaptiveBatchController.getInstance(webservice).getBatchSize());
+        assertEquals(2, AdaptiveBatchController.getInstance(webservice).getMaxInFlight());
+        assertEquals(10000, AdaptiveBatchController.getBatchSize(Arrays.asList(webservice, file)));
+    }
+
+    @Test
+    public void controllerStartsAgainOnceTheClientTypeIsKnown() {
+        // guessed before connecting, then resolved from the connected mapper
+        IDMapperClient guessed = new StubIDMapperClient("idmapper-pgdb:/data/Hs_Derby.bridge",
+                IDMapperClient.ClientType.OTHER);
+        AdaptiveBatchController controller = AdaptiveBatchController.getInstance(guessed);
+        controller.recordBatch(FAST, false);
+        assertSame(controller, AdaptiveBatchController.getInstance(guessed));
+        assertEquals(150, controller.getBatchSize());
+
+        assertEquals(10000, AdaptiveBatchController.getInstance(file).getBatchSize());
+        assertSame(AdaptiveBatchController.getInstance(file), AdaptiveBatchController.getInstance(file));
+    }
+
+    @Test
+    public void batchSizeGrowsWhileFastAndIsHalvedOtherwise() {
+        AdaptiveBatchController controller = AdaptiveBatchController.getInstance(webservice);
+        controller.recordBatch(FAST, false);
+        assertEquals(150, controller.getBatchSize());
+        controller.recordBatch(FAST, true);
+        assertEquals(75, controller.getBatchSize());
+        controller.recordBatch(SLOW, false);
+        assertEquals(37, controller.getBatchSize());
+
+        for (int i=0; i<10; i++) {
+            controller.recordBatch(FAST, true);
+        }
+        assertEquals(10, controller.getBatchSize());
+        for (int i=0; i<100; i++) {
+            controller.recordBatch(FAST, false);
+        }
+        assertEquals(2000, controller.getBatchSize());
+    }
+
+    @Test
+    public void requestsInFlightGrowPerRoundAndAreHalvedOtherwise() {
+        AdaptiveBatchController controller = AdaptiveBatchController.getInstance(webservice);
+        controller.recordCall(FAST, false);
+        assertEquals(2, controller.getMaxInFlight());
+        controller.recordCall(FAST, false);
+        assertEquals(3, controller.getMaxInFlight());
+        controller.recordCall(FAST, true);
+        assertEquals(1, controller.getMaxInFlight());
+
+        for (int i=0; i<1000; i++) {
+            controller.recordCall(FAST, false);
+        }
+        assertEquals(16, controller.getMaxInFlight());
+    }
+
+    @Test
+    public void acquireWaitsForARequestInFlight() throws InterruptedException {
+        final AdaptiveBatchController controller = AdaptiveBatchController.getInstance(other);
+        controller.acquire();
+
+        final AtomicBoolean acquired = new AtomicBoolean();
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    controller.acquire();
+                    acquired.set(true);
+                    controller.release();
+                } catch (InterruptedException ex) {
+                    // not acquired
+                }
+            }
+        };
+        thread.start();
+        thread.join(200);
+        assertFalse(acquired.get());
+
+        controller.release();
+        thread.join(10000);
+        assertTrue(acquired.get());
+    }
+
+    @Test(expected=InterruptedException.class)
+    public void cancelledCallerDoesNotAcquire() throws InterruptedException {
+        Thread.currentThread().interrupt();
+        AdaptiveBatchController.getInstance(file).acquire();
+    }
+
+    @Test
+    public void controllersAreSharedUntilRemoved() {
+        AdaptiveBatchController controller = AdaptiveBatchController.getInstance(webservice);
+        controller.recordBatch(FAST, false);
+        assertSame(controller, AdaptiveBatchController.getInstance(new StubIDMapperClient(
+                webservice.getConnectionString(), IDMapperClient.ClientType.WEBSERVICE)));
+
+        AdaptiveBatchController.remove(webservice.getConnectionString());
+        assertNotSame(controller, AdaptiveBatchController.getInstance(webservice));
+        assertEquals(100, AdaptiveBatchController.getInstance(webservice).getBatchSize());
+
+        controller = AdaptiveBatchController.getInstance(file);
+        AdaptiveBatchController.clear();
+        assertNotSame(controller, AdaptiveBatchController.getInstance(file));
+    }
+}
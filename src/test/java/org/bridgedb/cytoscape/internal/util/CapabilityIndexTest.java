@@ -0,0 +1,103 @@
+package org.bridgedb.cytoscape.internal.util;
+
+/*******************************************************************************
+ * Copyright 2010-2013 BridgeDb App developing team
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class CapabilityIndexTest {
+    private final DataSourceWrapper entrez = DataSourceWrapper.getInstance("Entrez Gene",
+            DataSourceWrapper.DsAttr.DATASOURCE);
+    private final DataSourceWrapper ensembl = DataSourceWrapper.getInstance("Ensembl",
+            DataSourceWrapper.DsAttr.DATASOURCE);
+    private final DataSourceWrapper uniprot = DataSourceWrapper.getInstance("UniProt",
+            DataSourceWrapper.DsAttr.DATASOURCE);
+    private final DataSourceWrapper symbol = DataSourceWrapper.getInstance("Symbol",
+            DataSourceWrapper.DsAttr.ATTRIBUTE);
+
+    @Test
+    public void resourcesAreCombinedWhateverTheirOrdinals() {
+        CapabilityIndex index = new CapabilityIndex();
+        index.add(newClient(entrez, ensembl));
+        // Entrez Gene has another ordinal in this client
+        index.add(newClient(uniprot, entrez));
+
+        assertEquals(new HashSet<DataSourceWrapper>(Arrays.asList(entrez, uniprot)),
+                index.getSrcTypes());
+        assertEquals(new HashSet<DataSourceWrapper>(Arrays.asList(ensembl, entrez)),
+                index.getTgtTypes());
+        assertTrue(index.isMappingSupported(entrez, ensembl));
+        assertTrue(index.isMappingSupported(uniprot, entrez));
+        assertFalse(index.isMappingSupported(uniprot, ensembl));
+        assertFalse(index.isMappingSupported(ensembl, entrez));
+        assertFalse(index.isMappingSupported(symbol, entrez));
+    }
+
+    @Test
+    public void reachableTypesAreSortedAndFollowTheCapabilities() {
+        CapabilityIndex index = new CapabilityIndex();
+        index.add(newClient(entrez, ensembl));
+        index.add(newClient(uniprot, entrez));
+
+        Set<DataSourceWrapper> reachable = index.getReachableTgtTypes(Arrays.asList(uniprot, entrez));
+        assertEquals(new ArrayList<DataSourceWrapper>(new TreeSet<DataSourceWrapper>(
+                Arrays.asList(ensembl, entrez))), new ArrayList<DataSourceWrapper>(reachable));
+        assertSame(reachable, index.getReachableTgtTypes(Arrays.asList(entrez, uniprot)));
+        assertTrue(index.getReachableTgtTypes(Collections.singleton(symbol)).isEmpty());
+
+        // no longer the same once a resource is added
+        index.add(newClient(entrez, symbol));
+        assertEquals(new HashSet<DataSourceWrapper>(Arrays.asList(ensembl, symbol)),
+                index.getReachableTgtTypes(Collections.singleton(entrez)));
+        assertEquals(new HashSet<DataSourceWrapper>(Arrays.asList(ensembl, entrez, symbol)),
+                index.getReachableTgtTypes(Arrays.asList(uniprot, entrez)));
+    }
+
+    @Test
+    public void clientsAreEqualWhateverTheirOrdinals() {
+        CapabilityIndex.Client client = newClient(entrez, ensembl);
+        CapabilityIndex.Client reordered = new CapabilityIndex.Client();
+        reordered.getOrdinal(uniprot);
+        int tgt = reordered.addTgtType(ensembl);
+        int src = reordered.addSrcType(entrez);
+        reordered.addMapping(src, tgt);
+
+        assertEquals(client, reordered);
+        assertEquals(client.hashCode(), reordered.hashCode());
+        assertFalse(client.equals(newClient(entrez, uniprot)));
+    }
+
+    /**
+     * @return a resource mapping the source type to the target type
+     */
+    private static CapabilityIndex.Client newClient(DataSourceWrapper srcType,
+            DataSourceWrapper tgtType) {
+        CapabilityIndex.Client client = new CapabilityIndex.Client();
+        int src = client.addSrcType(srcType);
+        int tgt = client.addTgtType(tgtType);
+        client.addMapping(src, tgt);
+        return client;
+    }
+}
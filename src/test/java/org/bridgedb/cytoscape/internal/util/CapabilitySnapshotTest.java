@@ -0,0 +1,126 @@
+package org.bridgedb.cytoscape.internal.util;
+
+/*******************************************************************************
+ * Copyright 2010-2013 BridgeDb App developing team
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class CapabilitySnapshotTest {
+    private static final String CONN_STR = "idmapper-pgdb:/data/Hs_Derby.bridge";
+
+    private final DataSourceWrapper entrez = DataSourceWrapper.getInstance("Entrez Gene",
+            DataSourceWrapper.DsAttr.DATASOURCE);
+    private final DataSourceWrapper ensembl = DataSourceWrapper.getInstance("Ensembl",
+            DataSourceWrapper.DsAttr.DATASOURCE);
+    private final DataSourceWrapper symbol = DataSourceWrapper.getInstance("Symbol",
+            DataSourceWrapper.DsAttr.ATTRIBUTE);
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("bridgedb-capabilities", ".bin");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void capabilitiesSurviveSaving() {
+        CapabilitySnapshot snapshot = CapabilitySnapshot.load(file);
+        assertNull(snapshot.get(CONN_STR));
+        assertTrue(snapshot.putAll(Collections.singletonMap(CONN_STR, newClient())));
+        snapshot.save();
+
+        snapshot = CapabilitySnapshot.load(file);
+        CapabilityIndex.Client client = snapshot.get(CONN_STR);
+        assertEquals(newClient(), client);
+        assertNull(snapshot.get("idmapper-pgdb:/data/Mm_Derby.bridge"));
+
+        // the types of the client read back are the same instances
+        CapabilityIndex index = new CapabilityIndex();
+        index.add(client);
+        assertTrue(index.isMappingSupported(entrez, ensembl));
+        assertTrue(index.isMappingSupported(entrez, symbol));
+        assertFalse(index.isMappingSupported(ensembl, entrez));
+    }
+
+    @Test
+    public void unchangedCapabilitiesAreReported() {
+        CapabilitySnapshot snapshot = CapabilitySnapshot.load(file);
+        snapshot.putAll(Collections.singletonMap(CONN_STR, newClient()));
+
+        // the same capabilities, seen in another order
+        CapabilityIndex.Client client = new CapabilityIndex.Client();
+        int tgt = client.addTgtType(symbol);
+        client.addTgtType(ensembl);
+        int src = client.addSrcType(entrez);
+        client.addMapping(src, tgt);
+        client.addMapping(src, client.getOrdinal(ensembl));
+        assertFalse(snapshot.putAll(Collections.singletonMap(CONN_STR, client)));
+
+        client = newClient();
+        client.addSrcType(ensembl);
+        assertTrue(snapshot.putAll(Collections.singletonMap(CONN_STR, client)));
+    }
+
+    @Test
+    public void unreadableFileGivesAnEmptySnapshot() throws IOException {
+        CapabilitySnapshot snapshot = CapabilitySnapshot.load(file);
+        snapshot.putAll(Collections.singletonMap(CONN_STR, newClient()));
+        snapshot.save();
+
+        // cut in the middle of the capabilities
+        long length = file.length();
+        byte[] bytes = new byte[(int)length-6];
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            in.readFully(bytes);
+        } finally {
+            in.close();
+        }
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+
+        assertNull(CapabilitySnapshot.load(file).get(CONN_STR));
+        assertNull(CapabilitySnapshot.load(new File(file.getPath()+".missing")).get(CONN_STR));
+    }
+
+    private CapabilityIndex.Client newClient() {
+        CapabilityIndex.Client client = new CapabilityIndex.Client();
+        int src = client.addSrcType(entrez);
+        client.addMapping(src, client.addTgtType(ensembl));
+        client.addMapping(src, client.addTgtType(symbol));
+        return client;
+    }
+}
@@ -0,0 +1,150 @@
+package org.bridgedb.cytoscape.internal.util;
+
+/*******************************************************************************
+ * Copyright 2010-2013 BridgeDb App developing team
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class MappingCheckpointTest {
+    private static final long JOB_KEY = 0x1234abcdL;
+
+    private final DataSourceWrapper src = DataSourceWrapper.getInstance("Entrez Gene",
+            DataSourceWrapper.DsAttr.DATASOURCE);
+    private final DataSourceWrapper tgt = DataSourceWrapper.getInstance("Ensembl",
+            DataSourceWrapper.DsAttr.DATASOURCE);
+    private final XrefWrapper first = new XrefWrapper("1234", src);
+    private final XrefWrapper second = new XrefWrapper("5678", src);
+    private final XrefWrapper tgtXref = new XrefWrapper("ENSG01", tgt);
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("bridgedb-checkpoint", "");
+        dir.delete();
+        dir.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void resumedJobGetsTheWrittenBatches() {
+        writeBatches();
+
+        MappingCheckpoint checkpoint = MappingCheckpoint.open(dir, JOB_KEY, true);
+        assertEquals(100, checkpoint.getResumePosition());
+        assertEquals(expectedResolved(), checkpoint.getResolved());
+        checkpoint.close();
+
+        // the resumed job starts a compact file holding the same
+        checkpoint = MappingCheckpoint.open(dir, JOB_KEY, true);
+        assertEquals(100, checkpoint.getResumePosition());
+        assertEquals(expectedResolved(), checkpoint.getResolved());
+        checkpoint.close();
+    }
+
+    @Test
+    public void partialRecordIsIgnored() throws IOException {
+        writeBatches();
+        FileOutputStream out = new FileOutputStream(dir.listFiles()[0], true);
+        try {
+            out.write(new byte[] {0, 0, 0, 120, 0, 0});
+        } finally {
+            out.close();
+        }
+
+        MappingCheckpoint checkpoint = MappingCheckpoint.open(dir, JOB_KEY, true);
+        assertEquals(100, checkpoint.getResumePosition());
+        assertEquals(expectedResolved(), checkpoint.getResolved());
+        checkpoint.close();
+    }
+
+    @Test
+    public void jobStartedOverOrCompletedDoesNotResume() {
+        writeBatches();
+        MappingCheckpoint.open(dir, JOB_KEY, false).close();
+
+        MappingCheckpoint checkpoint = MappingCheckpoint.open(dir, JOB_KEY, true);
+        assertEquals(0, checkpoint.getResumePosition());
+        assertTrue(checkpoint.getResolved().isEmpty());
+
+        checkpoint.append(10, Collections.singletonMap(first, Collections.singleton(tgtXref)));
+        checkpoint.delete();
+        assertEquals(0, dir.listFiles().length);
+        checkpoint = MappingCheckpoint.open(dir, JOB_KEY, true);
+        assertEquals(0, checkpoint.getResumePosition());
+        checkpoint.delete();
+    }
+
+    @Test
+    public void staleCheckpointsOfOtherJobsAreDeleted() {
+        writeBatches();
+        File stale = dir.listFiles()[0];
+        assertTrue(stale.setLastModified(System.currentTimeMillis()
+                -MappingCheckpoint.STALE_MILLIS-60000));
+        MappingCheckpoint.open(dir, JOB_KEY+1, false).close();
+        File recent = new File(dir, "job-"+Long.toHexString(JOB_KEY+1)+".bin");
+        assertFalse(stale.exists());
+        assertTrue(recent.exists());
+
+        // a recent checkpoint of another job is kept to be resumed
+        MappingCheckpoint.open(dir, JOB_KEY, false).close();
+        assertTrue(recent.exists());
+    }
+
+    @Test
+    public void otherJobDoesNotResume() {
+        writeBatches();
+
+        MappingCheckpoint checkpoint = MappingCheckpoint.open(dir, JOB_KEY+1, true);
+        assertEquals(0, checkpoint.getResumePosition());
+        assertTrue(checkpoint.getResolved().isEmpty());
+        checkpoint.delete();
+    }
+
+    private void writeBatches() {
+        MappingCheckpoint checkpoint = MappingCheckpoint.open(dir, JOB_KEY, false);
+        checkpoint.append(100, Collections.singletonMap(first, Collections.singleton(tgtXref)));
+        // written while an earlier batch was not
+        checkpoint.append(-1, Collections.singletonMap(second, Collections.<XrefWrapper>emptySet()));
+        checkpoint.close();
+    }
+
+    private Map<XrefWrapper, Set<XrefWrapper>> expectedResolved() {
+        Map<XrefWrapper, Set<XrefWrapper>> resolved = new HashMap<XrefWrapper, Set<XrefWrapper>>();
+        resolved.put(first, Collections.singleton(tgtXref));
+        resolved.put(second, Collections.<XrefWrapper>emptySet());
+        return resolved;
+    }
+}
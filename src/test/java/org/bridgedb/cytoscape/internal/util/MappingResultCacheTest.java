@@ -0,0 +1,169 @@
+package org.bridgedb.cytoscape.internal.util;
+
+/*******************************************************************************
+ * Copyright 2010-2013 BridgeDb App developing team
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bridgedb.DataSource;
+import org.bridgedb.IDMapper;
+import org.bridgedb.IDMapperException;
+import org.bridgedb.cytoscape.internal.IDMapperClient;
+import org.bridgedb.cytoscape.internal.IDMapperClientManager;
+import org.bridgedb.cytoscape.internal.StubIDMapperClient;
+
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class MappingResultCacheTest {
+    private static final AtomicInteger runs = new AtomicInteger();
+    private static final String FINGERPRINT = "[idmapper-pgdb:/data/Hs_Derby.bridge]";
+
+    // registered for the wrappers to be sent to the resource
+    private final DataSource srcType = DataSource.register("L", "Entrez Gene").asDataSource();
+    private final DataSource tgtType = DataSource.register("En", "Ensembl").asDataSource();
+    private final DataSourceWrapper src = DataSourceWrapper.getInstance("Entrez Gene",
+            DataSourceWrapper.DsAttr.DATASOURCE);
+    private final DataSourceWrapper tgt = DataSourceWrapper.getInstance("Ensembl",
+            DataSourceWrapper.DsAttr.DATASOURCE);
+    private final XrefWrapper first = new XrefWrapper("1234", src);
+    private final XrefWrapper second = new XrefWrapper("5678", src);
+    private final XrefWrapper third = new XrefWrapper("9012", src);
+    private final Set<XrefWrapper> tgtXrefs = Collections.singleton(new XrefWrapper("ENSG01", tgt));
+
+    private final IDMapperClientManager manager = IDMapperClientManager.getIDMapperClientManager(
+            "cache-test-"+runs.incrementAndGet());
+
+    @After
+    public void tearDown() {
+        manager.removeAllClients(false);
+        AdaptiveBatchController.clear();
+    }
+
+    @Test
+    public void leastRecentlyUsedEntryIsEvicted() {
+        MappingResultCache cache = new MappingResultCache(2, 60000, 2, 60000);
+        cache.put(FINGERPRINT, first, tgt, tgtXrefs);
+        cache.put(FINGERPRINT, second, tgt, tgtXrefs);
+        assertEquals(tgtXrefs, cache.get(FINGERPRINT, first, tgt));
+        cache.put(FINGERPRINT, third, tgt, tgtXrefs);
+
+        assertEquals(tgtXrefs, cache.get(FINGERPRINT, first, tgt));
+        assertNull(cache.get(FINGERPRINT, second, tgt));
+        assertEquals(tgtXrefs, cache.get(FINGERPRINT, third, tgt));
+        assertTrue(cache.toString(), cache.toString().contains("1 evicted"));
+    }
+
+    @Test
+    public void entriesExpire() throws InterruptedException {
+        MappingResultCache cache = new MappingResultCache(10, 1, 10, 1);
+        cache.put(FINGERPRINT, first, tgt, tgtXrefs);
+        cache.putUnmappable(FINGERPRINT, second, tgt);
+        Thread.sleep(20);
+
+        assertNull(cache.get(FINGERPRINT, first, tgt));
+        assertFalse(cache.isUnmappable(FINGERPRINT, second, tgt));
+    }
+
+    @Test
+    public void unmappableEntriesDoNotPushOutTheMappedOnes() {
+        MappingResultCache cache = new MappingResultCache(1, 60000, 1, 60000);
+        cache.put(FINGERPRINT, first, tgt, tgtXrefs);
+        cache.putUnmappable(FINGERPRINT, second, tgt);
+        cache.putUnmappable(FINGERPRINT, third, tgt);
+
+        assertEquals(tgtXrefs, cache.get(FINGERPRINT, first, tgt));
+        assertFalse(cache.isUnmappable(FINGERPRINT, second, tgt));
+        assertTrue(cache.isUnmappable(FINGERPRINT, third, tgt));
+        // mapped to nothing is not the same as not cached
+        assertNull(cache.get(FINGERPRINT, third, tgt));
+    }
+
+    @Test
+    public void entriesAreKeptPerSetOfResources() {
+        IDMapperClient file = new StubIDMapperClient("idmapper-pgdb:/data/Hs_Derby.bridge");
+        IDMapperClient webservice = new StubIDMapperClient(
+                "idmapper-bridgerest:http://webservice.bridgedb.org/Human");
+        String both = MappingResultCache.fingerprint(Arrays.asList(file, webservice));
+        assertEquals(both, MappingResultCache.fingerprint(Arrays.asList(webservice, file)));
+
+        MappingResultCache cache = new MappingResultCache();
+        cache.putUnmappable(both, first, tgt);
+        assertTrue(cache.isUnmappable(both, first, tgt));
+        assertFalse(cache.isUnmappable(MappingResultCache.fingerprint(
+                Collections.singleton(file)), first, tgt));
+    }
+
+    @Test
+    public void unmappableEntriesAreClearedWhenTheResourcesChange() {
+        MappingResultCache cache = manager.getMappingResultCache();
+        cache.putUnmappable(FINGERPRINT, first, tgt);
+        manager.registerClient(new StubIDMapperClient("idmapper-test:"+runs.get()));
+        assertFalse(cache.isUnmappable(FINGERPRINT, first, tgt));
+    }
+
+    @Test
+    public void failedLookupIsNotCached() {
+        final AtomicBoolean available = new AtomicBoolean(false);
+        IDMapper idMapper = (IDMapper)Proxy.newProxyInstance(IDMapper.class.getClassLoader(),
+                new Class<?>[] {IDMapper.class}, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getName().equals("isConnected")) {
+                    return true;
+                }
+                if (method.getName().equals("mapID") && args[0] instanceof Collection) {
+                    if (!available.get()) {
+                        throw new IDMapperException("resource unavailable");
+                    }
+                    // nothing found
+                    return Collections.emptyMap();
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+        IDMapperClient client = new StubIDMapperClient("idmapper-test:"+runs.get(),
+                IDMapperClient.ClientType.OTHER, idMapper);
+        manager.registerClient(client);
+        String fingerprint = MappingResultCache.fingerprint(Collections.singleton(client));
+        MappingResultCache cache = manager.getMappingResultCache();
+        IDMapperWrapper wrapper = new IDMapperWrapper(manager);
+
+        AtomicBoolean failed = new AtomicBoolean();
+        Map<XrefWrapper, Set<XrefWrapper>> result = wrapper.mapID(Collections.singleton(first),
+                Collections.singleton(tgt), failed);
+        assertTrue(failed.get());
+        assertTrue(result.isEmpty());
+        assertFalse(cache.isUnmappable(fingerprint, first, tgt));
+
+        // known not to map once the resource answered
+        available.set(true);
+        failed = new AtomicBoolean();
+        wrapper.mapID(Collections.singleton(first), Collections.singleton(tgt), failed);
+        assertFalse(failed.get());
+        assertTrue(cache.isUnmappable(fingerprint, first, tgt));
+    }
+}
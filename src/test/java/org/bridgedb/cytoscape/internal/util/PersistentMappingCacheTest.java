@@ -0,0 +1,183 @@
+package org.bridgedb.cytoscape.internal.util;
+
+/*******************************************************************************
+ * Copyright 2010-2013 BridgeDb App developing team
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.bridgedb.DataSource;
+import org.bridgedb.Xref;
+
+import org.bridgedb.cytoscape.internal.IDMapperClient;
+import org.bridgedb.cytoscape.internal.StubIDMapperClient;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class PersistentMappingCacheTest {
+    private final DataSourceWrapper src = DataSourceWrapper.getInstance("Entrez Gene",
+            DataSourceWrapper.DsAttr.DATASOURCE);
+    private final DataSourceWrapper tgt = DataSourceWrapper.getInstance("Ensembl",
+            DataSourceWrapper.DsAttr.DATASOURCE);
+    private final XrefWrapper mapped = new XrefWrapper("1234", src);
+    private final XrefWrapper unmapped = new XrefWrapper("5678", src);
+    private final XrefWrapper tgtXref = new XrefWrapper("ENSG01", tgt);
+
+    private File dir;
+    private File resource;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("bridgedb-cache", "");
+        dir.delete();
+        dir.mkdirs();
+        resource = new File(dir, "resource.bridge");
+        write(resource, new byte[10]);
+    }
+
+    @After
+    public void tearDown() {
+        PersistentMappingCache.closeAll();
+        AdaptiveBatchController.clear();
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void entriesSurviveReopening() {
+        IDMapperClient client = new StubIDMapperClient("idmapper-pgdb:"+resource.getPath());
+        put(PersistentMappingCache.getInstance(dir, client));
+        PersistentMappingCache.closeAll();
+
+        PersistentMappingCache cache = PersistentMappingCache.getInstance(dir, client);
+        assertEquals(2, cache.size());
+        assertEquals(Collections.singleton(tgtXref), cache.get(mapped, tgt));
+        // mapped to nothing is not the same as not mapped
+        assertEquals(Collections.<XrefWrapper>emptySet(), cache.get(unmapped, tgt));
+        assertNull(cache.get(tgtXref, src));
+    }
+
+    @Test
+    public void partialEntryIsDropped() throws IOException {
+        IDMapperClient client = new StubIDMapperClient("idmapper-pgdb:"+resource.getPath());
+        put(PersistentMappingCache.getInstance(dir, client));
+        PersistentMappingCache.closeAll();
+
+        File file = cacheFile();
+        long length = file.length();
+        FileOutputStream out = new FileOutputStream(file, true);
+        try {
+            out.write(new byte[] {0, 0, 5, 'E', 'n'});
+        } finally {
+            out.close();
+        }
+
+        PersistentMappingCache cache = PersistentMappingCache.getInstance(dir, client);
+        assertEquals(2, cache.size());
+        assertEquals(Collections.singleton(tgtXref), cache.get(mapped, tgt));
+        assertEquals(length, file.length());
+    }
+
+    @Test
+    public void entriesAreDroppedWhenTheResourceChanges() throws IOException {
+        IDMapperClient client = new StubIDMapperClient("idmapper-pgdb:"+resource.getPath());
+        put(PersistentMappingCache.getInstance(dir, client));
+        PersistentMappingCache.closeAll();
+
+        write(resource, new byte[20]);
+        PersistentMappingCache cache = PersistentMappingCache.getInstance(dir, client);
+        assertEquals(0, cache.size());
+        assertNull(cache.get(mapped, tgt));
+    }
+
+    @Test
+    public void resourcesWithTheSameHashCodeHaveTheirOwnFiles() {
+        // "Aa" and "BB" have the same hash code
+        String connStr1 = "idmapper-pgdb:"+new File(dir, "Aa").getPath();
+        String connStr2 = "idmapper-pgdb:"+new File(dir, "BB").getPath();
+        assertEquals(connStr1.hashCode(), connStr2.hashCode());
+
+        put(PersistentMappingCache.getInstance(dir, new StubIDMapperClient(connStr1)));
+        PersistentMappingCache.closeAll();
+
+        assertEquals(0, PersistentMappingCache.getInstance(dir, new StubIDMapperClient(connStr2)).size());
+        assertEquals(2, PersistentMappingCache.getInstance(dir, new StubIDMapperClient(connStr1)).size());
+    }
+
+    @Test
+    public void cachedXrefsAreServedWithoutConnecting() {
+        StubIDMapperClient client = new StubIDMapperClient("idmapper-pgdb:"+resource.getPath());
+        put(PersistentMappingCache.getInstance(dir, client));
+        PersistentMappingCache.closeAll();
+
+        ResourceIDMapper resourceIDMapper = new ResourceIDMapper(client, null, null,
+                PersistentMappingCache.getInstance(dir, client));
+        AtomicBoolean failed = new AtomicBoolean();
+        Map<XrefWrapper, Set<XrefWrapper>> result = resourceIDMapper.mapID(
+                Collections.<Xref>emptySet(), Collections.<DataSource>emptySet(),
+                Collections.singleton(mapped), Collections.singleton(tgt), failed);
+        assertEquals(Collections.singletonMap(mapped, Collections.singleton(tgtXref)), result);
+        assertFalse(failed.get());
+        assertEquals(0, client.getIDMapperCalls());
+
+        // the resource cannot be connected for the xrefs not in the cache
+        XrefWrapper uncached = new XrefWrapper("9999", src);
+        result = resourceIDMapper.mapID(Collections.<Xref>emptySet(),
+                Collections.<DataSource>emptySet(), new HashSet<XrefWrapper>(
+                Arrays.asList(mapped, uncached)), Collections.singleton(tgt), failed);
+        assertEquals(Collections.singletonMap(mapped, Collections.singleton(tgtXref)), result);
+        assertTrue(failed.get());
+        assertEquals(1, client.getIDMapperCalls());
+    }
+
+    private void put(PersistentMappingCache cache) {
+        cache.putAll(Arrays.asList(mapped, unmapped), Collections.singleton(tgt),
+                Collections.<XrefWrapper, Set<XrefWrapper>>singletonMap(mapped,
+                Collections.singleton(tgtXref)));
+    }
+
+    private File cacheFile() {
+        for (File file : dir.listFiles()) {
+            if (file.getName().startsWith("cache-")) {
+                return file;
+            }
+        }
+        fail("no cache file in "+dir);
+        return null;
+    }
+
+    private static void write(File file, byte[] bytes) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+    }
+}
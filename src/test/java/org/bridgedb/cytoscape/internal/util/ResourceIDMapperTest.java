@@ -0,0 +1,232 @@
+package org.bridgedb.cytoscape.internal.util;
+
+/*******************************************************************************
+ * Copyright 2010-2013 BridgeDb App developing team
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bridgedb.DataSource;
+import org.bridgedb.IDMapper;
+import org.bridgedb.IDMapperException;
+import org.bridgedb.Xref;
+import org.bridgedb.cytoscape.internal.StubIDMapperClient;
+
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Two callers look up the same xref; the first one fails or is cancelled
+ * while the second one waits for it.
+ */
+public class ResourceIDMapperTest {
+    private static final AtomicInteger runs = new AtomicInteger();
+
+    // a resource of its own for each test, with its own single flight
+    private final String connStr = "idmapper-test:"+runs.incrementAndGet();
+
+    private final DataSource src = DataSource.register("L", "Entrez Gene").asDataSource();
+    private final DataSource tgt = DataSource.register("En", "Ensembl").asDataSource();
+    private final Xref srcXref = new Xref("1234", src);
+    private final Xref tgtXref = new Xref("ENSG01", tgt);
+
+    private final CountDownLatch leading = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final AtomicInteger requests = new AtomicInteger();
+
+    @After
+    public void tearDown() {
+        AdaptiveBatchController.remove(connStr);
+    }
+
+    @Test
+    public void joinerResendsTheLookupOfAFailedLeader() throws Exception {
+        IDMapper idMapper = newIDMapper(new Answer() {
+            public Map<Xref, Set<Xref>> mapFirst() throws IDMapperException {
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new IDMapperException("resource unavailable");
+            }
+        });
+
+        Caller leader = new Caller(idMapper);
+        leader.start();
+        leading.await();
+        Caller joiner = new Caller(idMapper);
+        joiner.start();
+        awaitJoined();
+        release.countDown();
+        leader.join(10000);
+        joiner.join(10000);
+
+        assertTrue(leader.failed.get());
+        assertFalse(joiner.failed.get());
+        assertEquals(Collections.singletonMap(new XrefWrapper(srcXref),
+                Collections.singleton(new XrefWrapper(tgtXref))), joiner.result);
+        assertEquals(2, requests.get());
+    }
+
+    @Test
+    public void joinerResendsTheLookupOfACancelledLeader() throws Exception {
+        IDMapper idMapper = newIDMapper(new Answer() {
+            public Map<Xref, Set<Xref>> mapFirst() {
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    // a resource giving up on cancellation without a result
+                    Thread.currentThread().interrupt();
+                }
+                return Collections.emptyMap();
+            }
+        });
+
+        Caller leader = new Caller(idMapper);
+        leader.start();
+        leading.await();
+        Caller joiner = new Caller(idMapper);
+        joiner.start();
+        awaitJoined();
+        leader.interrupt();
+        leader.join(10000);
+        joiner.join(10000);
+
+        assertTrue(leader.failed.get());
+        assertFalse(joiner.failed.get());
+        assertEquals(Collections.singletonMap(new XrefWrapper(srcXref),
+                Collections.singleton(new XrefWrapper(tgtXref))), joiner.result);
+        assertEquals(2, requests.get());
+    }
+
+    @Test
+    public void cancelledCallerReportsItsResultIncomplete() throws Exception {
+        IDMapper idMapper = newIDMapper(new Answer() {
+            public Map<Xref, Set<Xref>> mapFirst() {
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    // a resource giving up on cancellation without a result
+                    Thread.currentThread().interrupt();
+                }
+                return Collections.emptyMap();
+            }
+        });
+
+        Caller caller = new Caller(idMapper);
+        caller.start();
+        leading.await();
+        caller.interrupt();
+        caller.join(10000);
+
+        assertTrue(caller.failed.get());
+        assertTrue(caller.result.isEmpty());
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    public void cancelledRequestIsNotRecordedAsAFailure() throws Exception {
+        IDMapper idMapper = newIDMapper(new Answer() {
+            public Map<Xref, Set<Xref>> mapFirst() throws IDMapperException {
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    // a resource reporting the cancellation as its own error
+                    throw new IDMapperException(ex);
+                }
+                return Collections.emptyMap();
+            }
+        });
+
+        Caller caller = new Caller(idMapper);
+        caller.start();
+        leading.await();
+        caller.interrupt();
+        caller.join(10000);
+
+        assertTrue(caller.failed.get());
+        AdaptiveBatchController controller = AdaptiveBatchController.getInstance(
+                new StubIDMapperClient(connStr));
+        assertEquals(100, controller.getBatchSize());
+        assertTrue(controller.toString(), controller.toString().endsWith("0 of 0 requests failed"));
+    }
+
+    private void awaitJoined() throws InterruptedException {
+        SingleFlight singleFlight = SingleFlight.getInstance(connStr);
+        long deadline = System.currentTimeMillis()+10000;
+        while (!singleFlight.toString().startsWith("1 of ")) {
+            assertTrue("the second caller did not join", System.currentTimeMillis()<deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private interface Answer {
+        Map<Xref, Set<Xref>> mapFirst() throws IDMapperException;
+    }
+
+    /**
+     * @return a resource that answers the first request with the answer,
+     * and maps the source xref to the target xref afterwards
+     */
+    private IDMapper newIDMapper(final Answer first) {
+        return (IDMapper)Proxy.newProxyInstance(IDMapper.class.getClassLoader(),
+                new Class<?>[] {IDMapper.class}, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getName().equals("isConnected")) {
+                    return true;
+                }
+                if (method.getName().equals("mapID") && args[0] instanceof Collection) {
+                    if (requests.incrementAndGet()==1) {
+                        leading.countDown();
+                        return first.mapFirst();
+                    }
+                    return Collections.singletonMap(srcXref, Collections.singleton(tgtXref));
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    private class Caller extends Thread {
+        private final ResourceIDMapper resourceIDMapper;
+        private final AtomicBoolean failed = new AtomicBoolean();
+        private volatile Map<XrefWrapper, Set<XrefWrapper>> result
+                = new HashMap<XrefWrapper, Set<XrefWrapper>>();
+
+        Caller(IDMapper idMapper) {
+            resourceIDMapper = new ResourceIDMapper(new StubIDMapperClient(connStr), idMapper);
+        }
+
+        @Override
+        public void run() {
+            result = resourceIDMapper.mapID(Collections.singleton(srcXref),
+                    Collections.singleton(tgt), Collections.<XrefWrapper>emptySet(),
+                    Collections.<DataSourceWrapper>emptySet(), failed);
+        }
+    }
+}
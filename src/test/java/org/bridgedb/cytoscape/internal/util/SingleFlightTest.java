@@ -0,0 +1,108 @@
+package org.bridgedb.cytoscape.internal.util;
+
+/*******************************************************************************
+ * Copyright 2010-2013 BridgeDb App developing team
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SingleFlightTest {
+    private final DataSourceWrapper src = DataSourceWrapper.getInstance("Entrez Gene",
+            DataSourceWrapper.DsAttr.DATASOURCE);
+    private final DataSourceWrapper tgt = DataSourceWrapper.getInstance("Ensembl",
+            DataSourceWrapper.DsAttr.DATASOURCE);
+    private final DataSourceWrapper other = DataSourceWrapper.getInstance("UniProt",
+            DataSourceWrapper.DsAttr.DATASOURCE);
+    private final XrefWrapper srcXref = new XrefWrapper("1234", src);
+    private final XrefWrapper tgtXref = new XrefWrapper("ENSG01", tgt);
+
+    @Test
+    public void joinerGetsTheResultOfTheLeader() throws InterruptedException {
+        SingleFlight singleFlight = new SingleFlight();
+        SingleFlight.Calls leader = singleFlight.join(Collections.singleton(srcXref),
+                Collections.singleton(tgt));
+        SingleFlight.Calls joiner = singleFlight.join(Collections.singleton(srcXref),
+                Collections.singleton(tgt));
+        assertEquals(Collections.singleton(srcXref), leader.getLedXrefs());
+        assertTrue(joiner.getLedXrefs().isEmpty());
+
+        // only the targets of the type of the flight are handed over
+        Set<XrefWrapper> tgtXrefs = new HashSet<XrefWrapper>();
+        tgtXrefs.add(tgtXref);
+        tgtXrefs.add(new XrefWrapper("P01", other));
+        singleFlight.complete(leader, Collections.singletonMap(srcXref, tgtXrefs), false);
+
+        Map<XrefWrapper, Set<XrefWrapper>> result = new HashMap<XrefWrapper, Set<XrefWrapper>>();
+        assertTrue(joiner.await(result).isEmpty());
+        assertEquals(Collections.singletonMap(srcXref, Collections.singleton(tgtXref)), result);
+    }
+
+    @Test
+    public void joinerGetsTheXrefsOfAFailedLeader() throws InterruptedException {
+        SingleFlight singleFlight = new SingleFlight();
+        SingleFlight.Calls leader = singleFlight.join(Collections.singleton(srcXref),
+                Collections.singleton(tgt));
+        SingleFlight.Calls joiner = singleFlight.join(Collections.singleton(srcXref),
+                Collections.singleton(tgt));
+        singleFlight.complete(leader, Collections.singletonMap(srcXref,
+                Collections.singleton(tgtXref)), true);
+
+        Map<XrefWrapper, Set<XrefWrapper>> result = new HashMap<XrefWrapper, Set<XrefWrapper>>();
+        assertEquals(Collections.singleton(srcXref), joiner.await(result));
+        assertTrue(result.isEmpty());
+
+        // the failed flight is over, so the joiner leads the lookup it resends
+        SingleFlight.Calls retry = singleFlight.join(Collections.singleton(srcXref),
+                Collections.singleton(tgt));
+        assertEquals(Collections.singleton(srcXref), retry.getLedXrefs());
+    }
+
+    @Test
+    public void interruptedJoinerStopsWaiting() throws InterruptedException {
+        SingleFlight singleFlight = new SingleFlight();
+        SingleFlight.Calls leader = singleFlight.join(Collections.singleton(srcXref),
+                Collections.singleton(tgt));
+        final SingleFlight.Calls joiner = singleFlight.join(Collections.singleton(srcXref),
+                Collections.singleton(tgt));
+
+        final AtomicReference<Throwable> thrown = new AtomicReference<Throwable>();
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    joiner.await(new HashMap<XrefWrapper, Set<XrefWrapper>>());
+                } catch (Throwable ex) {
+                    thrown.set(ex);
+                }
+            }
+        };
+        thread.start();
+        thread.interrupt();
+        thread.join(10000);
+        assertFalse(thread.isAlive());
+        assertTrue(thrown.get() instanceof InterruptedException);
+
+        singleFlight.complete(leader, new HashMap<XrefWrapper, Set<XrefWrapper>>(), false);
+    }
+}
@@ -0,0 +1,86 @@
+package org.bridgedb.cytoscape.internal.util;
+
+/*******************************************************************************
+ * Copyright 2010-2013 BridgeDb App developing team
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SortedListInternerTest {
+
+    @Test
+    public void equalSetsShareOneSortedList() {
+        SortedListInterner interner = new SortedListInterner();
+        List<String> list = interner.intern(new HashSet<String>(Arrays.asList("c", "a", "b")));
+        assertEquals(Arrays.asList("a", "b", "c"), list);
+        assertSame(list, interner.intern(new HashSet<String>(Arrays.asList("b", "c", "a"))));
+
+        List<String> other = interner.intern(new HashSet<String>(Arrays.asList("a", "b")));
+        assertEquals(Arrays.asList("a", "b"), other);
+        assertEquals(2, interner.size());
+    }
+
+    @Test(expected=UnsupportedOperationException.class)
+    public void sharedListCannotBeModified() {
+        new SortedListInterner().intern(new HashSet<String>(Arrays.asList("a"))).add("b");
+    }
+
+    @Test
+    public void concurrentCallersGetTheSameList() throws InterruptedException {
+        final SortedListInterner interner = new SortedListInterner();
+        final CountDownLatch start = new CountDownLatch(1);
+        final Object[][] lists = new Object[8][100];
+        Thread[] threads = new Thread[lists.length];
+        for (int t=0; t<threads.length; t++) {
+            final Object[] threadLists = lists[t];
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                    for (int i=0; i<threadLists.length; i++) {
+                        Set<String> values = new HashSet<String>();
+                        values.add(Integer.toString(i));
+                        values.add(Integer.toString(i+1));
+                        threadLists[i] = interner.intern(values);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(100, interner.size());
+        for (int t=1; t<lists.length; t++) {
+            for (int i=0; i<lists[t].length; i++) {
+                assertSame(lists[0][i], lists[t][i]);
+            }
+        }
+    }
+}
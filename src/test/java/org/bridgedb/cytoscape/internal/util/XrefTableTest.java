@@ -0,0 +1,111 @@
+package org.bridgedb.cytoscape.internal.util;
+
+/*******************************************************************************
+ * Copyright 2010-2013 BridgeDb App developing team
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class XrefTableTest {
+    private final DataSourceWrapper entrez = DataSourceWrapper.getInstance("Entrez Gene",
+            DataSourceWrapper.DsAttr.DATASOURCE);
+    private final DataSourceWrapper symbol = DataSourceWrapper.getInstance("Symbol",
+            DataSourceWrapper.DsAttr.ATTRIBUTE);
+
+    @Test
+    public void sameXrefGetsSameHandle() {
+        XrefTable table = new XrefTable();
+        int handle = table.intern("1234", entrez);
+        assertEquals(handle, table.intern("1234", entrez));
+        assertEquals(handle, table.intern(new XrefWrapper("1234", entrez)));
+        assertSame(table.get(handle), table.get(table.intern("1234", entrez)));
+        assertEquals(new XrefWrapper("1234", entrez), table.get(handle));
+
+        assertNotEquals(handle, table.intern("1234", symbol));
+        assertNotEquals(handle, table.intern("5678", entrez));
+        assertEquals(3, table.size());
+    }
+
+    @Test
+    public void handlesStayDenseAndStableWhileGrowing() {
+        XrefTable table = new XrefTable(16);
+        for (int i=0; i<10000; i++) {
+            assertEquals(i, table.intern(Integer.toString(i), entrez));
+        }
+        for (int i=0; i<10000; i++) {
+            assertEquals(i, table.intern(new XrefWrapper(Integer.toString(i), entrez)));
+            assertEquals(Integer.toString(i), table.get(i).getValue());
+        }
+        assertEquals(10000, table.size());
+    }
+
+    @Test
+    public void referencesAreCounted() {
+        XrefTable table = new XrefTable();
+        int handle = table.intern("1234", entrez);
+        assertTrue(table.retain(handle));
+        assertFalse(table.retain(handle));
+        assertFalse(table.release(handle));
+        assertTrue(table.release(handle));
+        assertTrue(table.retain(handle));
+    }
+
+    @Test
+    public void concurrentCallersGetTheSameHandles() throws InterruptedException {
+        final XrefTable table = new XrefTable(16);
+        // prime, so that each stride below visits all the values
+        final int n = 4999;
+        final CountDownLatch start = new CountDownLatch(1);
+        final int[][] handles = new int[8][n];
+        Thread[] threads = new Thread[handles.length];
+        for (int t=0; t<threads.length; t++) {
+            final int[] threadHandles = handles[t];
+            final int offset = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                    // each thread in its own order
+                    for (int i=0; i<n; i++) {
+                        int value = (i*(2*offset+1)) % n;
+                        threadHandles[value] = table.intern(Integer.toString(value), entrez);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(n, table.size());
+        for (int t=1; t<handles.length; t++) {
+            assertTrue(Arrays.equals(handles[0], handles[t]));
+        }
+        for (int i=0; i<n; i++) {
+            assertEquals(Integer.toString(i), table.get(handles[0][i]).getValue());
+        }
+    }
+}